@@ -0,0 +1,144 @@
+package com.weather.aggregation;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded admission for requests. GETs and PUTs draw on separate budgets so a flood of readers
+ * cannot starve ingest (or the reverse). Each budget allows a fixed number of requests in flight
+ * plus a bounded queue of waiters; anything beyond that is shed so the caller can answer
+ * {@code 503 Service Unavailable}.
+ */
+public class AdmissionController {
+
+    /**
+     * The budget a request is charged against.
+     */
+    public enum RequestClass {
+        GET,
+        PUT
+    }
+
+    private final Budget getBudget;
+    private final Budget putBudget;
+    private final long queueTimeoutMillis;
+    private final AtomicLong shedConnections = new AtomicLong();
+
+    /**
+     * Creates a controller from the server configuration.
+     *
+     * @param config The server configuration.
+     */
+    public AdmissionController(ServerConfig config) {
+        this(config.getMaxConcurrentGets(), config.getGetQueueDepth(),
+                config.getMaxConcurrentPuts(), config.getPutQueueDepth(),
+                config.getAdmissionQueueTimeoutMillis());
+    }
+
+    /**
+     * Creates a controller with explicit limits.
+     *
+     * @param maxConcurrentGets  GETs allowed in flight.
+     * @param getQueueDepth      GETs allowed to wait for a slot.
+     * @param maxConcurrentPuts  PUTs allowed in flight.
+     * @param putQueueDepth      PUTs allowed to wait for a slot.
+     * @param queueTimeoutMillis How long a queued request waits before it is shed.
+     */
+    public AdmissionController(int maxConcurrentGets, int getQueueDepth,
+                               int maxConcurrentPuts, int putQueueDepth, long queueTimeoutMillis) {
+        this.getBudget = new Budget(maxConcurrentGets, getQueueDepth);
+        this.putBudget = new Budget(maxConcurrentPuts, putQueueDepth);
+        this.queueTimeoutMillis = queueTimeoutMillis;
+    }
+
+    /**
+     * Tries to admit a request, waiting in the bounded queue if the budget is fully in use.
+     *
+     * @param requestClass The budget to charge.
+     * @param mayQueue     False if the caller must not block (e.g., an event-loop thread).
+     * @return True if admitted; the caller must then call {@link #release(RequestClass)}.
+     */
+    public boolean tryAcquire(RequestClass requestClass, boolean mayQueue) {
+        return budget(requestClass).tryAcquire(mayQueue ? queueTimeoutMillis : 0);
+    }
+
+    /**
+     * Returns a slot taken by a successful {@link #tryAcquire(RequestClass, boolean)}.
+     *
+     * @param requestClass The budget that was charged.
+     */
+    public void release(RequestClass requestClass) {
+        budget(requestClass).permits.release();
+    }
+
+    /**
+     * Records a connection refused before any request was read, because no handler thread was free.
+     */
+    public void recordShedConnection() {
+        shedConnections.incrementAndGet();
+    }
+
+    public long getShedGets() {
+        return getBudget.shed.get();
+    }
+
+    public long getShedPuts() {
+        return putBudget.shed.get();
+    }
+
+    public long getShedConnections() {
+        return shedConnections.get();
+    }
+
+    public long getAdmittedGets() {
+        return getBudget.admitted.get();
+    }
+
+    public long getAdmittedPuts() {
+        return putBudget.admitted.get();
+    }
+
+    private Budget budget(RequestClass requestClass) {
+        return requestClass == RequestClass.PUT ? putBudget : getBudget;
+    }
+
+    /**
+     * A concurrency limit with a bounded wait queue.
+     */
+    private static class Budget {
+        private final Semaphore permits;
+        private final int queueDepth;
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicLong admitted = new AtomicLong();
+        private final AtomicLong shed = new AtomicLong();
+
+        Budget(int limit, int queueDepth) {
+            this.permits = new Semaphore(limit);
+            this.queueDepth = queueDepth;
+        }
+
+        boolean tryAcquire(long timeoutMillis) {
+            if (permits.tryAcquire()) {
+                admitted.incrementAndGet();
+                return true;
+            }
+            if (timeoutMillis > 0 && queueDepth > 0) {
+                try {
+                    if (waiting.incrementAndGet() <= queueDepth
+                            && permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                        admitted.incrementAndGet();
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    waiting.decrementAndGet();
+                }
+            }
+            shed.incrementAndGet();
+            return false;
+        }
+    }
+}
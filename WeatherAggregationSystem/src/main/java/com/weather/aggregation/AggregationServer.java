@@ -1,11 +1,11 @@
 package com.weather.aggregation;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.concurrent.*;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,8 +17,12 @@ public class AggregationServer {
     private static final Logger logger = LoggerFactory.getLogger(AggregationServer.class);
     private ServerSocket serverSocket;
     private ExecutorService executor;
+    private EventLoopServer eventLoopServer;
     private LamportClock lamportClock;
     private DataStore dataStore;
+    private RequestProcessor processor;
+    private ServerConfig config;
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
 
     /**
      * Initializes the Aggregation Server on the specified port.
@@ -27,26 +31,59 @@ public class AggregationServer {
      * @throws IOException If an I/O error occurs when opening the socket.
      */
     public AggregationServer(int port) throws IOException {
-        serverSocket = new ServerSocket(port);
-        executor = Executors.newCachedThreadPool();
+        this(new ServerConfig(port));
+    }
+
+    /**
+     * Initializes the Aggregation Server with the given options.
+     *
+     * @param config The server configuration.
+     * @throws IOException If an I/O error occurs when opening the socket.
+     */
+    public AggregationServer(ServerConfig config) throws IOException {
+        this.config = config;
         lamportClock = new LamportClock();
-        dataStore = DataStore.getInstance();
+        dataStore = DataStore.getInstance(config);
+        processor = new RequestProcessor(lamportClock, dataStore, config);
 
-        logger.info("Aggregation Server started on port {}", port);
+        if (config.getMode() == ServerMode.NIO) {
+            eventLoopServer = new EventLoopServer(config, processor);
+        } else {
+            executor = config.getMode() == ServerMode.VIRTUAL
+                    ? newVirtualThreadExecutor()
+                    : newBoundedThreadPool(config.getMaxConnectionThreads());
+            serverSocket = new ServerSocket(config.getPort());
+            // Start accepting client connections
+            acceptConnections();
+        }
 
-        // Start accepting client connections
-        acceptConnections();
+        logger.info("Aggregation Server started on port {} in {} mode", config.getPort(), config.getMode());
     }
 
     /**
-     * Accepts client connections and handles them using a thread pool.
+     * Accepts client connections and handles each one on the executor (a platform thread pool
+     * or one virtual thread per connection).
      */
     private void acceptConnections() {
         executor.submit(() -> {
             while (!serverSocket.isClosed()) {
                 try {
                     Socket clientSocket = serverSocket.accept();
-                    executor.submit(new ClientHandler(clientSocket, lamportClock, dataStore));
+                    ClientHandler handler = new ClientHandler(clientSocket, processor,
+                            config.getIdleTimeoutMillis(), config.getMaxRequestsPerConnection());
+                    openSockets.add(clientSocket);
+                    try {
+                        executor.execute(() -> {
+                            try {
+                                handler.run();
+                            } finally {
+                                openSockets.remove(clientSocket);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        openSockets.remove(clientSocket);
+                        shedConnection(clientSocket);
+                    }
                 } catch (IOException e) {
                     if (serverSocket.isClosed()) {
                         logger.info("Server socket closed.");
@@ -58,15 +95,88 @@ public class AggregationServer {
         });
     }
 
+    /**
+     * Creates the platform handler pool. Threads are created on demand up to the limit and retire
+     * when idle; one extra thread is reserved for the accept loop. Beyond the limit, tasks are
+     * rejected rather than queued so the connection can be shed immediately.
+     *
+     * @param maxThreads The maximum number of connection handler threads.
+     * @return The executor.
+     */
+    private static ExecutorService newBoundedThreadPool(int maxThreads) {
+        return new ThreadPoolExecutor(0, maxThreads + 1, 60L, TimeUnit.SECONDS, new SynchronousQueue<>());
+    }
+
+    /**
+     * Answers a connection that no handler thread could take with 503 and closes it.
+     */
+    private void shedConnection(Socket clientSocket) {
+        processor.getAdmissionController().recordShedConnection();
+        try (Socket socket = clientSocket) {
+            HttpResponse response = RequestProcessor.serviceUnavailable(config.getRetryAfterSeconds());
+            response.setHeader("Connection", "close");
+            response.writeTo(socket.getOutputStream());
+        } catch (IOException e) {
+            logger.debug("Failed to send 503 to shed connection", e);
+        }
+    }
+
+    /**
+     * Returns the admission controller, whose counters report how many requests were shed.
+     *
+     * @return The admission controller.
+     */
+    public AdmissionController getAdmissionController() {
+        return processor.getAdmissionController();
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task. Looked up reflectively so
+     * the project still builds and runs on Java 11 when this mode is not used.
+     *
+     * @return The virtual-thread executor.
+     * @throws IllegalStateException If the running JVM does not support virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual thread mode requires Java 21 or newer", e);
+        }
+    }
+
+    /**
+     * Checks whether the running JVM supports the virtual-thread server mode.
+     *
+     * @return True if virtual threads are available.
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
     /**
      * Shuts down the server and releases resources.
      */
     public void shutdown() {
         try {
-            serverSocket.close();
-            executor.shutdown();
-            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                executor.shutdownNow();
+            if (eventLoopServer != null) {
+                eventLoopServer.shutdown();
+            } else {
+                serverSocket.close();
+                // Persistent connections would otherwise block shutdown until their idle timeout
+                for (Socket socket : openSockets) {
+                    socket.close();
+                }
+                executor.shutdown();
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
             }
             logger.info("Aggregation Server shut down.");
         } catch (IOException | InterruptedException e) {
@@ -77,18 +187,29 @@ public class AggregationServer {
     /**
      * Main method to start the Aggregation Server.
      *
-     * @param args Command-line arguments (port number).
+     * @param args Command-line arguments (port number, then optional --name=value flags).
      */
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.out.println("Usage: java -cp target/WeatherAggregationSystem-1.0-SNAPSHOT-shaded.jar com.weather.aggregation.AggregationServer <port_number>");
+            System.out.println("Usage: java -cp target/WeatherAggregationSystem-1.0-SNAPSHOT-shaded.jar com.weather.aggregation.AggregationServer <port_number> [--option=value ...]");
+            System.out.println("See README.md for the list of options.");
             return;
         }
 
-        int port = Integer.parseInt(args[0]);
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromArgs(args);
+            if (config.getMode() == ServerMode.VIRTUAL && !isVirtualThreadSupported()) {
+                System.out.println("Virtual thread mode requires Java 21 or newer");
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
 
         try {
-            AggregationServer server = new AggregationServer(port);
+            AggregationServer server = new AggregationServer(config);
             // Keep the main thread alive
             Thread.currentThread().join();
         } catch (IOException | InterruptedException e) {
@@ -96,5 +217,3 @@ public class AggregationServer {
         }
     }
 }
-
-
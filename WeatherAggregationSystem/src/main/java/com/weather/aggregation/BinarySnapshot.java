@@ -0,0 +1,234 @@
+package com.weather.aggregation;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary snapshot of every station, with its real last-update time.
+ * <p>
+ * The file is a 16-byte header ({@code int magic, int version, int count, int crc32} of the first
+ * three) followed by one record per station: {@code [int length][int crc32][payload]}, where the
+ * payload is the last-update time, the station ID and the observation in the binary form of
+ * {@link WeatherObservation#writeBinary(DataOutput)}. Loading maps the file, finds the record
+ * boundaries with one pass over the length prefixes, and decodes the records in parallel.
+ */
+public class BinarySnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(BinarySnapshot.class);
+    private static final int MAGIC = 0x57534e50; // "WSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Receives the stations of a snapshot. Called from several threads at once while loading.
+     */
+    public interface StationConsumer {
+        void accept(String id, long lastUpdate, WeatherObservation observation);
+    }
+
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(512);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private int count;
+
+    /**
+     * Starts writing a snapshot, replacing any existing file. Add stations, then call {@link #finish(boolean)}.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be created.
+     */
+    public BinarySnapshot(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(HEADER_SIZE); // the header is written once the count is known
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 65536));
+    }
+
+    /**
+     * Appends one station.
+     *
+     * @param id          The station ID.
+     * @param lastUpdate  When the station was last updated, in epoch milliseconds.
+     * @param observation The station's data.
+     * @throws IOException If writing fails.
+     */
+    public void add(String id, long lastUpdate, WeatherObservation observation) throws IOException {
+        record.reset();
+        recordOut.writeLong(lastUpdate);
+        WeatherObservation.writeUtf8(recordOut, id);
+        observation.writeBinary(recordOut);
+        byte[] payload = record.toByteArray();
+        crc.reset();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+        count++;
+    }
+
+    /**
+     * Writes the header and closes the file.
+     *
+     * @param sync Whether to fsync before returning.
+     * @throws IOException If writing fails.
+     */
+    public void finish(boolean sync) throws IOException {
+        try {
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(count);
+            crc.reset();
+            crc.update(header.array(), 0, 12);
+            header.putInt((int) crc.getValue()).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            if (sync) {
+                channel.force(true);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Loads a snapshot through a memory map. Records failing their checksum are logged and skipped.
+     *
+     * @param file     The snapshot file.
+     * @param consumer Receives each station; must be thread-safe.
+     * @return The number of stations loaded.
+     * @throws IOException If the file cannot be read or its header is invalid.
+     */
+    public static int read(File file, StationConsumer consumer) throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+        if (map.limit() < HEADER_SIZE) {
+            throw new IOException("Snapshot " + file + " is too short");
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer headerBytes = map.duplicate();
+        headerBytes.limit(12);
+        crc.update(headerBytes);
+        int magic = map.getInt(0);
+        int version = map.getInt(4);
+        int count = map.getInt(8);
+        if (magic != MAGIC || map.getInt(12) != (int) crc.getValue()) {
+            throw new IOException("Snapshot " + file + " has an invalid header");
+        }
+        if (version != VERSION) {
+            throw new IOException("Snapshot " + file + " has unsupported version " + version);
+        }
+
+        // Record boundaries only need the length prefixes, so this pass is cheap
+        int[] offsets = new int[count];
+        int pos = HEADER_SIZE;
+        int found = 0;
+        while (found < count && pos + RECORD_HEADER_SIZE <= map.limit()) {
+            int length = map.getInt(pos);
+            if (length < 0 || pos + RECORD_HEADER_SIZE + length > map.limit()) {
+                break;
+            }
+            offsets[found++] = pos;
+            pos += RECORD_HEADER_SIZE + length;
+        }
+        if (found < count) {
+            logger.warn("Snapshot {} is truncated: {} of {} records present", file, found, count);
+        }
+
+        AtomicInteger loaded = new AtomicInteger();
+        IntStream.range(0, found).parallel().forEach(i -> {
+            if (decode(map, offsets[i], consumer)) {
+                loaded.incrementAndGet();
+            } else {
+                logger.warn("Snapshot {} has a corrupt record at offset {}", file, offsets[i]);
+            }
+        });
+        return loaded.get();
+    }
+
+    private static boolean decode(ByteBuffer map, int offset, StationConsumer consumer) {
+        int length = map.getInt(offset);
+        int checksum = map.getInt(offset + 4);
+        ByteBuffer payload = map.duplicate();
+        payload.position(offset + RECORD_HEADER_SIZE).limit(offset + RECORD_HEADER_SIZE + length);
+        payload = payload.slice();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            return false;
+        }
+        try {
+            long lastUpdate = payload.getLong();
+            String id = WeatherObservation.readUtf8(payload);
+            consumer.accept(id, lastUpdate, WeatherObservation.readBinary(payload));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Converts a JSON snapshot to the binary format. JSON snapshots carry no update times, so
+     * every station is given the same last-update time.
+     *
+     * @param json       The JSON snapshot.
+     * @param binary     The binary snapshot to write.
+     * @param lastUpdate The last-update time to give every station, in epoch milliseconds.
+     * @return The number of stations converted.
+     * @throws IOException If reading or writing fails.
+     */
+    public static int convert(File json, File binary, long lastUpdate) throws IOException {
+        BinarySnapshot snapshot = new BinarySnapshot(binary);
+        List<IOException> failures = new ArrayList<>(1);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(json))) {
+            new SimpleJsonParser().parseObservations(in, (id, observation) -> {
+                try {
+                    snapshot.add(id, lastUpdate, observation);
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+            });
+        } finally {
+            snapshot.finish(true);
+        }
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+        return snapshot.count;
+    }
+
+    /**
+     * Converts a JSON data file to a binary snapshot.
+     *
+     * @param args Command-line arguments (JSON input path, binary output path).
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java -cp target/WeatherAggregationSystem-1.0-SNAPSHOT-shaded.jar com.weather.aggregation.BinarySnapshot <input.json> <output.bin>");
+            return;
+        }
+        try {
+            int converted = convert(new File(args[0]), new File(args[1]), System.currentTimeMillis());
+            System.out.println("Converted " + converted + " stations to " + args[1]);
+        } catch (IOException e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
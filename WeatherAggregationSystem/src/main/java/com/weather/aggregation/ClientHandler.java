@@ -2,20 +2,23 @@ package com.weather.aggregation;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.*;
+import java.net.SocketTimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Handles client connections to the Aggregation Server.
+ * Handles client connections to the Aggregation Server. A connection stays open for further
+ * requests (HTTP/1.1 keep-alive, including pipelined requests) until the client asks to close it,
+ * it sits idle past the timeout, or it reaches the per-connection request cap. A stream request
+ * keeps the thread writing events until the client goes away.
  */
 public class ClientHandler implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(ClientHandler.class);
     private Socket clientSocket;
-    private LamportClock lamportClock;
-    private DataStore dataStore;
-    private SimpleJsonParser jsonParser;
+    private RequestProcessor processor;
+    private int idleTimeoutMillis;
+    private int maxRequests;
 
     /**
      * Initializes the ClientHandler with the client socket and shared resources.
@@ -25,58 +28,75 @@ public class ClientHandler implements Runnable {
      * @param dataStore    The shared data store.
      */
     public ClientHandler(Socket clientSocket, LamportClock lamportClock, DataStore dataStore) {
+        this(clientSocket, new RequestProcessor(lamportClock, dataStore));
+    }
+
+    /**
+     * Initializes the ClientHandler with the client socket and a shared request processor.
+     *
+     * @param clientSocket The client's socket connection.
+     * @param processor    The processor that applies requests to the data store.
+     */
+    public ClientHandler(Socket clientSocket, RequestProcessor processor) {
+        this(clientSocket, processor, ServerConfig.DEFAULT_IDLE_TIMEOUT_MILLIS, ServerConfig.DEFAULT_MAX_REQUESTS_PER_CONNECTION);
+    }
+
+    /**
+     * Initializes the ClientHandler with explicit keep-alive limits.
+     *
+     * @param clientSocket      The client's socket connection.
+     * @param processor         The processor that applies requests to the data store.
+     * @param idleTimeoutMillis How long an idle persistent connection is kept open.
+     * @param maxRequests       The maximum number of requests served on one connection.
+     */
+    public ClientHandler(Socket clientSocket, RequestProcessor processor, int idleTimeoutMillis, int maxRequests) {
         this.clientSocket = clientSocket;
-        this.lamportClock = lamportClock;
-        this.dataStore = dataStore;
-        this.jsonParser = new SimpleJsonParser();
+        this.processor = processor;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxRequests = maxRequests;
     }
 
     @Override
     public void run() {
-        try (BufferedReader in = new BufferedReader(
-                     new InputStreamReader(clientSocket.getInputStream()));
-             BufferedWriter out = new BufferedWriter(
-                     new OutputStreamWriter(clientSocket.getOutputStream()))
+        try (InputStream in = clientSocket.getInputStream();
+             OutputStream out = new BufferedOutputStream(clientSocket.getOutputStream())
         ) {
-            // Read the request line
-            String requestLine = in.readLine();
-            if (requestLine == null) {
-                return;
-            }
-
-            // Parse request line
-            String[] requestParts = requestLine.split(" ");
-            if (requestParts.length < 3) {
-                sendResponse(out, "400 Bad Request", "Invalid request line");
-                return;
-            }
-
-            String method = requestParts[0];
-            String path = requestParts[1];
-            // String httpVersion = requestParts[2];
-
-            // Read headers
-            Map<String, String> headers = new HashMap<>();
-            String line;
-            int contentLength = 0;
-            while (!(line = in.readLine()).isEmpty()) {
-                String[] headerParts = line.split(": ", 2);
-                if (headerParts.length == 2) {
-                    headers.put(headerParts[0], headerParts[1]);
-                    if (headerParts[0].equalsIgnoreCase("Content-Length")) {
-                        contentLength = Integer.parseInt(headerParts[1]);
-                    }
+            clientSocket.setSoTimeout(idleTimeoutMillis);
+            HttpRequestParser parser = new HttpRequestParser();
+            int served = 0;
+            boolean keepAlive = true;
+            while (keepAlive) {
+                HttpRequest request;
+                try {
+                    request = readRequest(parser, in);
+                } catch (SocketTimeoutException e) {
+                    logger.debug("Closing idle connection");
+                    break;
+                } catch (HttpParseException e) {
+                    e.toResponse().writeTo(out);
+                    out.flush();
+                    break;
+                }
+                if (request == null) {
+                    break;
                 }
-            }
 
-            if (method.equalsIgnoreCase("PUT") && path.equalsIgnoreCase("/weather.json")) {
-                handlePUT(in, out, contentLength);
-            } else if (method.equalsIgnoreCase("GET") && path.startsWith("/weather.json")) {
-                handleGET(out, path);
-            } else {
-                sendResponse(out, "400 Bad Request", "Unsupported method or path");
+                served++;
+                if (processor.isStream(request)) {
+                    stream(request, out);
+                    break;
+                }
+                keepAlive = request.isKeepAlive() && served < maxRequests;
+                HttpResponse response = processor.process(request);
+                if (!keepAlive) {
+                    response.setHeader("Connection", "close");
+                }
+                response.writeTo(out);
+                // Pipelined requests already buffered are answered before a single flush
+                if (!keepAlive || !parser.hasBufferedBytes()) {
+                    out.flush();
+                }
             }
-
         } catch (IOException e) {
             logger.error("IOException in ClientHandler", e);
         } finally {
@@ -88,120 +108,62 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private void handlePUT(BufferedReader in, BufferedWriter out, int contentLength) throws IOException {
-        if (contentLength == 0) {
-            sendResponse(out, "204 No Content", "");
-            return;
-        }
-
-        char[] bodyChars = new char[contentLength];
-        int read = in.read(bodyChars, 0, contentLength);
-        if (read != contentLength) {
-            sendResponse(out, "400 Bad Request", "Incomplete body");
-            return;
-        }
-        String body = new String(bodyChars);
-
-        // Parse JSON
-        Map<String, Object> jsonData;
+    /**
+     * Writes a subscription's events until the client disconnects or falls too far behind. A gone
+     * client is only noticed when a write fails, so heartbeats are sent while no events arrive.
+     */
+    private void stream(HttpRequest request, OutputStream out) throws IOException {
+        StationFeed.Subscription subscription;
         try {
-            jsonData = jsonParser.parse(body);
+            subscription = processor.openStream(request, null);
         } catch (IOException e) {
-            sendResponse(out, "400 Bad Request", "Invalid JSON format");
-            logger.error("Failed to parse JSON body", e);
+            HttpResponse response = HttpResponse.text("400 Bad Request", "Invalid query");
+            response.setHeader("Connection", "close");
+            response.writeTo(out);
+            out.flush();
             return;
         }
-
-        // Check for 'id'
-        Object idField = jsonData.get("id");
-        if (idField == null || !(idField instanceof String)) {
-            sendResponse(out, "400 Bad Request", "Missing or invalid 'id' field");
-            return;
-        }
-
-        // Handle Lamport Clock
-        int receivedClock = 0;
-        Object lamportClockValue = jsonData.get("lamportClock");
-        if (lamportClockValue instanceof Number) {
-            receivedClock = ((Number) lamportClockValue).intValue();
-        } else if (lamportClockValue instanceof String) {
-            try {
-                receivedClock = Integer.parseInt((String) lamportClockValue);
-            } catch (NumberFormatException e) {
-                // Ignore, keep receivedClock as 0
+        try {
+            HttpResponse.eventStream().writeTo(out);
+            out.flush();
+            while (true) {
+                byte[] event = subscription.take(StationFeed.HEARTBEAT_MILLIS);
+                if (subscription.isOverflowed()) {
+                    logger.debug("Disconnecting stream subscriber that fell behind");
+                    return;
+                }
+                out.write(event != null ? event : StationFeed.HEARTBEAT);
+                // Events already buffered share one flush
+                while ((event = subscription.poll()) != null) {
+                    out.write(event);
+                }
+                out.flush();
             }
-        }
-        lamportClock.update(receivedClock);
-
-        // Update local clock
-        lamportClock.tick();
-
-        // Store data
-        boolean isNew = dataStore.putData(jsonData);
-        if (isNew) {
-            sendResponse(out, "201 Created", "Data created successfully");
-        } else {
-            sendResponse(out, "200 OK", "Data updated successfully");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.debug("Stream subscriber disconnected", e);
+        } finally {
+            subscription.cancel();
         }
     }
 
-    private void handleGET(BufferedWriter out, String path) throws IOException {
-        // Handle query parameters
-        String stationId = null;
-        if (path.contains("?")) {
-            String[] pathParts = path.split("\\?", 2);
-            String query = pathParts[1];
-            String[] queryParams = query.split("&");
-            for (String param : queryParams) {
-                String[] keyValue = param.split("=", 2);
-                if (keyValue.length == 2 && keyValue[0].equals("station_id")) {
-                    stationId = java.net.URLDecoder.decode(keyValue[1], "UTF-8");
+    /**
+     * Reads from the socket until the parser has a complete request.
+     *
+     * @return The request, or null if the connection ended cleanly between requests.
+     * @throws HttpParseException If the request is malformed or the connection ended mid-request.
+     */
+    private HttpRequest readRequest(HttpRequestParser parser, InputStream in) throws IOException {
+        HttpRequest request;
+        while ((request = parser.next()) == null) {
+            if (parser.fill(in) == -1) {
+                if (parser.hasBufferedBytes()) {
+                    throw new HttpParseException("400 Bad Request", "Incomplete body");
                 }
+                return null;
             }
         }
-
-        // Update Lamport Clock
-        lamportClock.tick();
-
-        // Retrieve data
-        Map<String, Map<String, Object>> data = dataStore.getData();
-
-        String responseBody;
-        if (stationId != null) {
-            Map<String, Object> stationData = data.get(stationId);
-            if (stationData != null) {
-                Map<String, Object> responseData = new HashMap<>();
-                responseData.put(stationId, stationData);
-                responseBody = jsonParser.toJson(responseData);
-            } else {
-                sendResponse(out, "404 Not Found", "Station ID not found");
-                return;
-            }
-        } else {
-            responseBody = jsonParser.toJson((Map<String, Object>) (Map) data);
-        }
-
-        // Send response
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Content-Type", "application/json");
-        headers.put("Content-Length", String.valueOf(responseBody.getBytes().length));
-
-        sendResponse(out, "200 OK", headers, responseBody);
-    }
-
-    private void sendResponse(BufferedWriter out, String status, String body) throws IOException {
-        sendResponse(out, status, new HashMap<>(), body);
-    }
-
-    private void sendResponse(BufferedWriter out, String status, Map<String, String> headers, String body) throws IOException {
-        out.write("HTTP/1.1 " + status + "\r\n");
-        for (Map.Entry<String, String> header : headers.entrySet()) {
-            out.write(header.getKey() + ": " + header.getValue() + "\r\n");
-        }
-        out.write("\r\n");
-        if (body != null && !body.isEmpty()) {
-            out.write(body);
-        }
-        out.flush();
+        return request;
     }
 }
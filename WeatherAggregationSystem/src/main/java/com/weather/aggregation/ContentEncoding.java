@@ -0,0 +1,154 @@
+package com.weather.aggregation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * HTTP content codings the server can compress response bodies with.
+ */
+public enum ContentEncoding {
+    /** The body is sent as is. */
+    IDENTITY("identity"),
+    /** RFC 1952 gzip. */
+    GZIP("gzip"),
+    /** RFC 1950 zlib, which HTTP calls deflate. */
+    DEFLATE("deflate");
+
+    private final String token;
+
+    ContentEncoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Returns the name used in {@code Accept-Encoding} and {@code Content-Encoding} headers.
+     *
+     * @return The coding token.
+     */
+    public String token() {
+        return token;
+    }
+
+    /**
+     * Picks the coding for a response from the client's {@code Accept-Encoding} header. gzip is
+     * preferred over deflate when both are acceptable; codings with {@code q=0} are refused.
+     *
+     * @param acceptEncoding The header value, or null if the client sent none.
+     * @return The coding to use, {@link #IDENTITY} if nothing else is acceptable.
+     */
+    public static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return IDENTITY;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        boolean wildcard = false;
+        boolean gzipRefused = false;
+        boolean deflateRefused = false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase();
+            boolean accepted = true;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            switch (coding) {
+                case "gzip":
+                case "x-gzip":
+                    gzip = accepted;
+                    gzipRefused = !accepted;
+                    break;
+                case "deflate":
+                    deflate = accepted;
+                    deflateRefused = !accepted;
+                    break;
+                case "*":
+                    wildcard = accepted;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (gzip || (wildcard && !gzipRefused)) {
+            return GZIP;
+        }
+        if (deflate || (wildcard && !deflateRefused)) {
+            return DEFLATE;
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * Parses a {@code Content-Encoding} header.
+     *
+     * @param contentEncoding The header value, or null if absent.
+     * @return The coding.
+     * @throws IOException If the coding is not supported.
+     */
+    public static ContentEncoding fromHeader(String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return IDENTITY;
+        }
+        String token = contentEncoding.trim().toLowerCase();
+        for (ContentEncoding encoding : values()) {
+            if (encoding.token.equals(token)) {
+                return encoding;
+            }
+        }
+        if (token.equals("x-gzip")) {
+            return GZIP;
+        }
+        throw new IOException("Unsupported content encoding: " + contentEncoding);
+    }
+
+    /**
+     * Compresses a body with this coding.
+     *
+     * @param body The uncompressed bytes.
+     * @return The encoded bytes; the same array for {@link #IDENTITY}.
+     */
+    public byte[] encode(byte[] body) {
+        if (this == IDENTITY) {
+            return body;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (OutputStream out = this == GZIP ? new GZIPOutputStream(bytes, 8192) : new DeflaterOutputStream(bytes)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory streams do not do I/O
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Wraps a stream of encoded bytes so that reading it yields the uncompressed body.
+     *
+     * @param in The encoded stream.
+     * @return The decoding stream; the same stream for {@link #IDENTITY}.
+     * @throws IOException If a gzip header cannot be read.
+     */
+    public InputStream decode(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(in);
+            case DEFLATE:
+                return new InflaterInputStream(in);
+            default:
+                return in;
+        }
+    }
+}
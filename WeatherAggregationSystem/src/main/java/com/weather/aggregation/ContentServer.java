@@ -3,14 +3,17 @@ package com.weather.aggregation;
 import java.io.*;
 import java.net.Socket;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
- * The Content Server reads weather data from a file and sends it to the Aggregation Server.
+ * The Content Server reads weather data from a file and sends it to the Aggregation Server. A file
+ * holding several stations is uploaded as one batch PUT.
  */
 public class ContentServer {
     private static final SimpleJsonParser jsonParser = new SimpleJsonParser();
     private LamportClock lamportClock;
+    private HttpClientConnection connection;
 
     /**
      * Initializes the Content Server.
@@ -20,7 +23,8 @@ public class ContentServer {
     }
 
     /**
-     * Sends a PUT request with weather data to the Aggregation Server.
+     * Sends a PUT request with weather data to the Aggregation Server. The connection is kept
+     * open and reused by later calls; call {@link #close()} when done.
      *
      * @param serverUrl The URL of the Aggregation Server.
      * @param filePath  The path to the data file.
@@ -33,55 +37,92 @@ public class ContentServer {
             int port = urlParts[1] != null ? Integer.parseInt(urlParts[1]) : 80;
 
             // Read and assemble JSON data from file
-            Map<String, Object> weatherData = readDataFromFile(filePath);
-            if (weatherData == null || !weatherData.containsKey("id")) {
+            List<Map<String, Object>> stations = readDataFromFile(filePath);
+            if (stations == null || stations.isEmpty() || !stations.get(0).containsKey("id")) {
                 System.out.println("Invalid data. 'id' field is missing.");
                 return;
             }
 
-            // Add Lamport Clock to data
-            lamportClock.tick();
-            weatherData.put("lamportClock", lamportClock.getTime());
-
-            String jsonData = jsonParser.toJson(weatherData);
-            byte[] jsonBytes = jsonData.getBytes("UTF-8");
-
-            // Use the createSocket method (can be mocked in tests)
-            try (Socket socket = createSocket(host, port);
-                 BufferedWriter out = new BufferedWriter(
-                         new OutputStreamWriter(socket.getOutputStream()));
-                 BufferedReader in = new BufferedReader(
-                         new InputStreamReader(socket.getInputStream()))
-            ) {
-                // Construct PUT request
-                out.write("PUT /weather.json HTTP/1.1\r\n");
-                out.write("Host: " + host + ":" + port + "\r\n");
-                out.write("Content-Type: application/json; utf-8\r\n");
-                out.write("Content-Length: " + jsonBytes.length + "\r\n");
-                out.write("Connection: close\r\n");
-                out.write("\r\n");
-                out.write(jsonData);
-                out.flush();
-
-                // Read response
-                String statusLine = in.readLine();
-                if (statusLine == null) {
-                    System.out.println("No response from server.");
-                    return;
-                }
+            // Add Lamport Clock to data; the stations of one upload share a single event
+            long time = lamportClock.tick();
+            for (Map<String, Object> weatherData : stations) {
+                weatherData.put("lamportClock", time);
+            }
 
-                if (statusLine.contains("201") || statusLine.contains("200")) {
-                    System.out.println("Data successfully uploaded. Status: " + statusLine);
-                } else if (statusLine.contains("204")) {
-                    System.out.println("No Content received. Status: " + statusLine);
-                } else {
-                    System.out.println("Failed to upload data. Status: " + statusLine);
-                }
+            byte[] jsonBytes;
+            if (stations.size() == 1) {
+                jsonBytes = jsonParser.toJsonBytes(stations.get(0));
+            } else {
+                JsonWriter writer = new JsonWriter();
+                writer.value(stations);
+                jsonBytes = writer.toByteArray();
+            }
+
+            Map<String, String> headers = new LinkedHashMap<>();
+            headers.put("Content-Type", "application/json; utf-8");
+            HttpClientConnection.Response response = sendRequest(host, port, headers, jsonBytes);
+
+            // Read response
+            if (response == null) {
+                System.out.println("No response from server.");
+                return;
+            }
 
+            String statusLine = response.getStatusLine();
+            if (stations.size() > 1 && statusLine.contains("200")) {
+                System.out.println("Uploaded " + stations.size() + " stations. Status: " + statusLine);
+                System.out.println(new String(response.getBody(), StandardCharsets.UTF_8));
+            } else if (statusLine.contains("201") || statusLine.contains("200")) {
+                System.out.println("Data successfully uploaded. Status: " + statusLine);
+            } else if (statusLine.contains("204")) {
+                System.out.println("No Content received. Status: " + statusLine);
+            } else {
+                System.out.println("Failed to upload data. Status: " + statusLine);
             }
 
         } catch (Exception e) {
             System.out.println("Error during PUT request: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Sends a PUT over the persistent connection, opening one if needed. A reused connection
+     * the server has since closed is replaced and the request retried once.
+     */
+    private HttpClientConnection.Response sendRequest(String host, int port, Map<String, String> headers,
+                                                      byte[] body) throws IOException {
+        boolean reused = connection != null && connection.canReuse(host, port);
+        if (!reused) {
+            close();
+            connection = new HttpClientConnection(createSocket(host, port), host, port);
+        }
+        try {
+            HttpClientConnection.Response response = connection.exchange("PUT", "/weather.json", headers, body);
+            if (response != null || !reused) {
+                return response;
+            }
+        } catch (IOException e) {
+            if (!reused) {
+                throw e;
+            }
+        }
+        close();
+        connection = new HttpClientConnection(createSocket(host, port), host, port);
+        return connection.exchange("PUT", "/weather.json", headers, body);
+    }
+
+    /**
+     * Closes the persistent connection to the Aggregation Server, if one is open.
+     */
+    public void close() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                System.out.println("Error closing connection: " + e.getMessage());
+            }
+            connection = null;
         }
     }
 
@@ -124,13 +165,16 @@ public class ContentServer {
     }
 
     /**
-     * Reads and parses the data file into a Map.
+     * Reads and parses the data file into one Map per station. Each {@code id} line after the
+     * first starts a new station.
      *
      * @param filePath The path to the data file.
-     * @return A Map containing the weather data, or null if parsing fails.
+     * @return The stations' weather data, in file order, or null if reading fails.
      */
-    private Map<String, Object> readDataFromFile(String filePath) {
+    private List<Map<String, Object>> readDataFromFile(String filePath) {
+        List<Map<String, Object>> stations = new ArrayList<>();
         Map<String, Object> data = new HashMap<>();
+        stations.add(data);
         try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
             String line;
             int lineNumber = 0; // To track line numbers for debugging
@@ -156,6 +200,11 @@ public class ContentServer {
                 key = removeSurroundingQuotes(key);
                 value = removeSurroundingQuotes(value);
 
+                if (key.equals("id") && data.containsKey("id")) {
+                    data = new HashMap<>();
+                    stations.add(data);
+                }
+
                 // Convert numerical values appropriately
                 try {
                     if (isDoubleKey(key)) {
@@ -177,7 +226,7 @@ public class ContentServer {
             System.err.println("Error reading data file: " + e.getMessage());
             return null;
         }
-        return data;
+        return stations;
     }
 
     /**
@@ -201,10 +250,7 @@ public class ContentServer {
      * @return True if the key corresponds to a double value, false otherwise.
      */
     private boolean isDoubleKey(String key) {
-        Set<String> doubleKeys = new HashSet<>(Arrays.asList(
-                "lat", "lon", "air_temp", "apparent_t", "dewpt", "press", "wind_spd_kmh", "wind_spd_kt", "temp"
-        ));
-        return doubleKeys.contains(key);
+        return WeatherObservation.isDoubleKey(key);
     }
 
     /**
@@ -214,8 +260,7 @@ public class ContentServer {
      * @return True if the key corresponds to an integer value, false otherwise.
      */
     private boolean isIntegerKey(String key) {
-        Set<String> integerKeys = new HashSet<>(Collections.singletonList("rel_hum"));
-        return integerKeys.contains(key);
+        return WeatherObservation.isIntegerKey(key);
     }
 
     /**
@@ -234,5 +279,6 @@ public class ContentServer {
 
         ContentServer contentServer = new ContentServer();
         contentServer.sendPUT(serverUrl, filePath);
+        contentServer.close();
     }
 }
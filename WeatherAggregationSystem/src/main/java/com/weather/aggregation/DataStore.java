@@ -1,187 +1,1196 @@
 package com.weather.aggregation;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Singleton class that manages weather data storage with thread-safe operations.
  */
 public class DataStore {
+    private static final Logger logger = LoggerFactory.getLogger(DataStore.class);
+    private static final long EXPIRY_MILLIS = 30000; // 30 seconds
+    // Expired station IDs remembered for delta requests; older ones force a full resync
+    private static final int MAX_TOMBSTONES = 100000;
+    private static final byte[] CLOCK_PREFIX = ascii("{\"clock\":");
+    private static final byte[] DELTA_STATIONS = ascii(",\"full\":false,\"stations\":{");
+    private static final byte[] DELTA_EXPIRED = ascii("},\"expired\":[");
+    private static final byte[] DELTA_END = ascii("]}");
+    private static final byte[] FULL_STATIONS = ascii(",\"full\":true,\"stations\":");
+    private static final byte[] FULL_EXPIRED = ascii(",\"expired\":[]}");
+    // About 111 km; a BoM state has tens to hundreds of occupied cells
+    private static final double SPATIAL_CELL_DEGREES = 1.0;
     private static DataStore instance = null;
-    private final String filePath = "data/weather_data.json";
-    private Map<String, Map<String, Object>> weatherData;
-    private Map<String, Long> lastUpdateTime;
+    private final String filePath;
+    private final PersistenceMode persistenceMode;
+    private final SnapshotFormat snapshotFormat;
+    private final int checkpointRecords;
+    private final int historyLength;
+    private final long historyAgeMillis;
+    private final int[] rollupWindowSeconds;
+    private final long[] rollupWindowMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Persister persister;
+    private Journal journal;
+    // Journal records written since the last checkpoint; only touched by the persister thread
+    private int recordsSinceCheckpoint;
     private final SimpleJsonParser jsonParser;
-    private final ReadWriteLock lock;
 
-    private DataStore() {
+    // Current entry per station; each update replaces the entry atomically
+    private final ConcurrentHashMap<String, StationEntry> stations = new ConcurrentHashMap<>();
+    // Stamp given to each change when it is applied, used to order journal records on replay and
+    // as the clock of delta requests
+    private final AtomicLong sequence = new AtomicLong();
+    // Station ID by the stamp of its current entry, so changes since a stamp are found without a scan
+    private final ConcurrentSkipListMap<Long, String> changeIndex = new ConcurrentSkipListMap<>();
+    // Expired station ID by the stamp of its removal
+    private final ConcurrentSkipListMap<Long, String> tombstones = new ConcurrentSkipListMap<>();
+    private final AtomicInteger tombstoneCount = new AtomicInteger();
+    // Deltas are only complete for clocks at or after this; earlier ones get the full document
+    private final AtomicLong deltaHorizon = new AtomicLong();
+    // Changes are applied under the read lock, so that clearing takes the write lock to see none half done
+    private final ReadWriteLock changeLock = new ReentrantReadWriteLock();
+    // Changes still being installed, counted by the stamp read just before each took its own, which
+    // is below any stamp it can take. Readers wanting a clock every change is installed up to use
+    // the lowest of these instead of blocking writers.
+    private final ConcurrentSkipListMap<Long, Integer> pendingChanges = new ConcurrentSkipListMap<>();
+    // Data version, bumped after every change has become visible in stations
+    private final AtomicLong version = new AtomicLong();
+    private volatile VersionedDocument fullDocument;
+    // Distinguishes this store's versions from those of an earlier run, which restart from zero
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    // Pending expiry deadlines, earliest first; entries made stale by a later update are skipped
+    private final DelayQueue<Expiry> expiries = new DelayQueue<>();
+    private final Thread expiryThread;
+    // Pushes changes to stream subscribers
+    private final StationFeed feed;
+    // Station positions, updated together with stations
+    private final SpatialIndex spatialIndex = new SpatialIndex(SPATIAL_CELL_DEGREES);
+    // Stations by the value of each equality-filterable field, updated together with stations
+    private final SecondaryIndex secondaryIndex = new SecondaryIndex();
+
+    /**
+     * Creates a store with the persistence options from the configuration. Outside tests, use
+     * {@link #getInstance()} or {@link #getInstance(ServerConfig)}.
+     *
+     * @param config The configuration naming the data file and persistence mode.
+     */
+    DataStore(ServerConfig config) {
+        filePath = config.getDataFile();
+        persistenceMode = config.getPersistenceMode();
+        snapshotFormat = config.getSnapshotFormat();
+        checkpointRecords = config.getCheckpointRecords();
+        historyLength = config.getHistoryLength();
+        historyAgeMillis = config.getHistoryAgeSeconds() * 1000L;
+        rollupWindowSeconds = config.getRollupWindowSeconds();
+        rollupWindowMillis = Arrays.stream(rollupWindowSeconds).mapToLong(seconds -> seconds * 1000L).toArray();
         jsonParser = new SimpleJsonParser();
-        lock = new ReentrantReadWriteLock();
-        weatherData = new HashMap<>();
-        lastUpdateTime = new HashMap<>();
+        feed = new StationFeed(config.getStreamBufferEvents());
+        scheduler = Executors.newSingleThreadScheduledExecutor();
         loadData();
-        startExpirationTask();
+        persister = new Persister(this::writeBatch, config.getDurability(),
+                config.getCommitIntervalMillis(), config.getCommitBatchSize());
+        if (persistenceMode == PersistenceMode.JOURNAL) {
+            long interval = config.getCheckpointIntervalSeconds();
+            scheduler.scheduleAtFixedRate(this::checkpoint, interval, interval, TimeUnit.SECONDS);
+        }
+        expiryThread = new Thread(this::runExpiry, "expiry");
+        expiryThread.setDaemon(true);
+        expiryThread.start();
     }
 
     /**
-     * Gets the singleton instance of the DataStore.
+     * Gets the singleton instance of the DataStore, creating it with default options if needed.
      *
      * @return The singleton DataStore instance.
      */
     public static synchronized DataStore getInstance() {
         if (instance == null) {
-            instance = new DataStore();
+            instance = new DataStore(new ServerConfig(0));
         }
         return instance;
     }
 
-    // Load data from file
+    /**
+     * Gets the singleton instance of the DataStore, creating it with the given options if it
+     * does not exist yet. Options are ignored if the instance was already created.
+     *
+     * @param config The configuration naming the data file and persistence mode.
+     * @return The singleton DataStore instance.
+     */
+    public static synchronized DataStore getInstance(ServerConfig config) {
+        if (instance == null) {
+            instance = new DataStore(config);
+        }
+        return instance;
+    }
+
+    // Load data from file; runs before the store is shared, so needs no coordination
     private void loadData() {
-        lock.writeLock().lock();
-        try {
-            File file = new File(filePath);
-            if (file.exists()) {
-                StringBuilder sb = new StringBuilder();
-                try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        sb.append(line);
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                String jsonString = sb.toString();
-                try {
-                    Map<String, Object> parsedData = jsonParser.parse(jsonString);
-                    weatherData = (Map<String, Map<String, Object>>) (Map) parsedData;
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                // Initialize lastUpdateTime based on existing data
-                for (String id : weatherData.keySet()) {
-                    lastUpdateTime.put(id, System.currentTimeMillis());
+        File file = new File(filePath);
+        File binaryFile = binarySnapshotFile();
+        if (snapshotFormat == SnapshotFormat.BINARY && binaryFile.exists()) {
+            try {
+                // Binary snapshots keep each station's real last-update time
+                int loaded = BinarySnapshot.read(binaryFile,
+                        (id, lastUpdate, data) -> stations.put(id, new StationEntry(data, lastUpdate, 0)));
+                logger.info("Loaded {} stations from {}", loaded, binaryFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else if (file.exists()) {
+            // Also how a store switched to binary snapshots picks up its old JSON data
+            try (InputStream in = new FileInputStream(file)) {
+                long now = System.currentTimeMillis();
+                jsonParser.parseObservations(in, (id, data) -> stations.put(id, new StationEntry(data, now, 0)));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            // Ensure the data directory exists
+            File dataDir = file.getAbsoluteFile().getParentFile();
+            if (!dataDir.exists()) {
+                dataDir.mkdirs();
+            }
+            saveData(); // Create the file
+        }
+        if (persistenceMode == PersistenceMode.JOURNAL) {
+            openJournal();
+        }
+        // Start each run's stamps past any earlier run's, so a delta clock from before the
+        // restart is recognised as older than this run and answered with the full document
+        sequence.set(Math.max(sequence.get(), System.currentTimeMillis() * 1000));
+        deltaHorizon.set(sequence.get());
+        for (Map.Entry<String, StationEntry> station : stations.entrySet()) {
+            StationEntry entry = station.getValue();
+            expiries.add(new Expiry(station.getKey(), entry.stamp, entry.lastUpdate + EXPIRY_MILLIS));
+            spatialIndex.move(station.getKey(), Double.NaN, Double.NaN, latitude(entry.data), longitude(entry.data));
+            secondaryIndex.update(station.getKey(), null, entry.data);
+        }
+    }
+
+    // Replay changes logged since the last checkpoint on top of the snapshot, then compact
+    private void openJournal() {
+        try {
+            journal = new Journal(journalFile());
+            Map<String, Long> removed = new HashMap<>();
+            long[] snapshotStamp = new long[1];
+            int replayed = journal.replay(record -> applyRecord(record, removed, snapshotStamp));
+            if (replayed > 0) {
+                logger.info("Replayed {} journal records", replayed);
+                // Synced before the journal goes, as in checkpointNow; if it cannot be written the
+                // journal is kept and replayed again next time
+                writeSnapshot(true);
+                // Nothing else is running yet, so no change can be queued late against this snapshot
+                journal.reset();
+            }
+        } catch (IOException e) {
+            logger.error("Failed to open journal", e);
+        }
+    }
+
+    /**
+     * Applies one journal record during startup. Records may be logged out of order, so a record
+     * only applies if its stamp is newer than the station's last change, and newer than the stamp
+     * the snapshot is known to cover: a record queued late, after a checkpoint, can be older than
+     * the value that checkpoint's snapshot already holds.
+     */
+    private void applyRecord(Map<String, Object> record, Map<String, Long> removed, long[] snapshotStamp) {
+        long stamp = record.get("seq") instanceof Number ? ((Number) record.get("seq")).longValue() : 0;
+        sequence.set(Math.max(sequence.get(), stamp));
+        if ("snapshot".equals(record.get("op"))) {
+            snapshotStamp[0] = Math.max(snapshotStamp[0], stamp);
+            return;
+        }
+        if (stamp != 0 && stamp <= snapshotStamp[0]) {
+            return;
+        }
+        Object data = record.get("data");
+        String id = data instanceof Map ? (String) ((Map<String, Object>) data).get("id") : (String) record.get("id");
+        if (id == null) {
+            return;
+        }
+        StationEntry current = stations.get(id);
+        long lastStamp = current != null ? current.stamp : removed.getOrDefault(id, -1L);
+        if (stamp != 0 && stamp <= lastStamp) {
+            return;
+        }
+        if ("put".equals(record.get("op")) && data instanceof Map) {
+            long lastUpdate = record.get("time") instanceof Number
+                    ? ((Number) record.get("time")).longValue() : System.currentTimeMillis();
+            stations.put(id, new StationEntry(WeatherObservation.fromMap((Map<String, Object>) data), lastUpdate, stamp));
+            removed.remove(id);
+        } else if ("remove".equals(record.get("op"))) {
+            stations.remove(id);
+            removed.put(id, stamp);
+        }
+    }
+
+    private File journalFile() {
+        return new File(baseName() + ".journal");
+    }
+
+    private File binarySnapshotFile() {
+        return new File(baseName() + ".bin");
+    }
+
+    private String baseName() {
+        return filePath.endsWith(".json") ? filePath.substring(0, filePath.length() - 5) : filePath;
+    }
+
+    private static Map<String, Object> putRecord(WeatherObservation data, long stamp, long time) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("op", "put");
+        record.put("seq", stamp);
+        record.put("time", time);
+        // Stored observations are never modified, so the record can share it
+        record.put("data", data);
+        return record;
+    }
+
+    private static Map<String, Object> removeRecord(String id, long stamp) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("op", "remove");
+        record.put("seq", stamp);
+        record.put("id", id);
+        return record;
+    }
+
+    // Starts a journal after a checkpoint: changes stamped at or below the stamp are in the snapshot
+    private static Map<String, Object> snapshotRecord(long stamp) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("op", "snapshot");
+        record.put("seq", stamp);
+        return record;
+    }
+
+    private static Map<String, Object> checkpointRecord(boolean force) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("op", "checkpoint");
+        record.put("force", force);
+        return record;
+    }
+
+    // Runs on the persister thread, which is the only thread touching the files after startup
+    private void writeBatch(List<Map<String, Object>> records, boolean sync) throws IOException {
+        if (persistenceMode == PersistenceMode.SNAPSHOT) {
+            // Every record in the batch is covered by one snapshot of the current state
+            writeSnapshot(sync);
+            return;
+        }
+        List<Map<String, Object>> changes = new ArrayList<>(records.size());
+        for (Map<String, Object> record : records) {
+            if ("checkpoint".equals(record.get("op"))) {
+                appendChanges(changes, sync);
+                if (recordsSinceCheckpoint > 0 || Boolean.TRUE.equals(record.get("force"))) {
+                    checkpointNow();
                 }
             } else {
-                weatherData = new HashMap<>();
-                lastUpdateTime = new HashMap<>();
-                // Ensure the data directory exists
-                File dataDir = new File("data");
-                if (!dataDir.exists()) {
-                    dataDir.mkdirs();
-                }
-                saveData(); // Create the file
+                changes.add(record);
+            }
+        }
+        appendChanges(changes, sync);
+        if (recordsSinceCheckpoint >= checkpointRecords) {
+            checkpointNow();
+        }
+    }
+
+    private void appendChanges(List<Map<String, Object>> changes, boolean sync) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        journal.append(changes);
+        if (sync) {
+            journal.sync();
+        }
+        recordsSinceCheckpoint += changes.size();
+        changes.clear();
+    }
+
+    /**
+     * Writes a full snapshot and truncates the journal. Replaying the journal is idempotent, so a
+     * crash between the two steps only means the same records are applied again on startup.
+     */
+    private void checkpointNow() throws IOException {
+        long covered = installedStamp();
+        writeSnapshot(true);
+        resetJournal(covered);
+        recordsSinceCheckpoint = 0;
+    }
+
+    /**
+     * Returns a stamp whose change, and every earlier one, is already installed in stations and
+     * the indexes. A change registers in pendingChanges before it takes its stamp, so one stamped
+     * at or below the sequence read here is either installed or still registered below its stamp.
+     */
+    private long installedStamp() {
+        long stamp = sequence.get();
+        Map.Entry<Long, Integer> oldestPending = pendingChanges.firstEntry();
+        return oldestPending == null ? stamp : Math.min(stamp, oldestPending.getKey());
+    }
+
+    // Registers a change about to take a stamp; returns the key to pass to endChange
+    private long beginChange() {
+        long floor = sequence.get();
+        pendingChanges.merge(floor, 1, Integer::sum);
+        return floor;
+    }
+
+    private void endChange(long floor) {
+        pendingChanges.computeIfPresent(floor, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Empties the journal after a snapshot and records the stamp the snapshot covers, so that a
+     * change queued after the checkpoint but older than the snapshot's value is skipped on replay.
+     */
+    private void resetJournal(long snapshotStamp) throws IOException {
+        journal.reset();
+        journal.append(Collections.singletonList(snapshotRecord(snapshotStamp)));
+    }
+
+    /**
+     * Folds the journal into a fresh snapshot once every change queued so far has been written.
+     * Does nothing in snapshot mode, where every batch already writes a snapshot.
+     */
+    public void checkpoint() {
+        if (persistenceMode != PersistenceMode.JOURNAL) {
+            return;
+        }
+        try {
+            persister.submitAndWait(checkpointRecord(false));
+        } catch (IOException e) {
+            logger.error("Checkpoint failed", e);
+        }
+    }
+
+    /**
+     * Flushes queued changes, stops background tasks and closes the journal. Used when a store is
+     * discarded in tests.
+     */
+    void close() {
+        scheduler.shutdownNow();
+        expiryThread.interrupt();
+        feed.close();
+        checkpoint();
+        persister.close();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.error("Failed to close journal", e);
             }
-        } finally {
-            lock.writeLock().unlock();
         }
     }
 
     // Save data to file atomically
     private void saveData() {
-        lock.readLock().lock();
         try {
-            File tempFile = new File(filePath + ".tmp");
-            String jsonString = jsonParser.toJson((Map<String, Object>) (Map) weatherData);
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
-                writer.write(jsonString);
-            }
-            File actualFile = new File(filePath);
-            if (!tempFile.renameTo(actualFile)) {
-                throw new IOException("Failed to rename temp file to actual data file.");
-            }
+            writeSnapshot(false);
         } catch (IOException e) {
             e.printStackTrace();
+        }
+    }
+
+    // Streams the stations straight to the file; the rename makes the new snapshot atomic
+    private void writeSnapshot(boolean sync) throws IOException {
+        if (snapshotFormat == SnapshotFormat.BINARY) {
+            writeBinarySnapshot(sync);
+            return;
+        }
+        File tempFile = new File(filePath + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            JsonWriter writer = new JsonWriter(out);
+            writer.write('{');
+            boolean first = true;
+            for (Map.Entry<String, StationEntry> station : stations.entrySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                writer.writeString(station.getKey());
+                writer.write(':');
+                writer.value(station.getValue().data);
+                first = false;
+            }
+            writer.write('}');
+            writer.flush();
+            if (sync) {
+                out.getFD().sync();
+            }
+        }
+        File actualFile = new File(filePath);
+        if (!tempFile.renameTo(actualFile)) {
+            throw new IOException("Failed to rename temp file to actual data file.");
+        }
+    }
+
+    private void writeBinarySnapshot(boolean sync) throws IOException {
+        File actualFile = binarySnapshotFile();
+        File tempFile = new File(actualFile.getPath() + ".tmp");
+        BinarySnapshot snapshot = new BinarySnapshot(tempFile);
+        try {
+            for (Map.Entry<String, StationEntry> station : stations.entrySet()) {
+                StationEntry entry = station.getValue();
+                snapshot.add(station.getKey(), entry.lastUpdate, entry.data);
+            }
         } finally {
-            lock.readLock().unlock();
+            snapshot.finish(sync);
+        }
+        if (!tempFile.renameTo(actualFile)) {
+            throw new IOException("Failed to rename temp file to binary snapshot.");
         }
     }
 
     /**
-     * Adds or updates weather data.
+     * Adds or updates weather data, returning once the change is as durable as configured.
      *
      * @param data The weather data to store.
      * @return True if the data is new, false if it was updated.
      */
     public boolean putData(Map<String, Object> data) {
-        lock.writeLock().lock();
         try {
-            String id = (String) data.get("id");
-            if (id == null) {
-                return false;
-            }
-            boolean isNew = !weatherData.containsKey(id);
-            weatherData.put(id, data);
-            lastUpdateTime.put(id, System.currentTimeMillis());
-            saveData();
-            return isNew;
-        } catch (Exception e) {
+            return putDataAsync(data).join();
+        } catch (CompletionException e) {
             e.printStackTrace();
             return false;
+        }
+    }
+
+    /**
+     * Adds or updates weather data. The change is visible to readers immediately; the returned
+     * future completes once it is as durable as the configured {@link Durability} requires.
+     *
+     * @param data The weather data to store.
+     * @return A future of true if the data is new, false if it was updated.
+     */
+    public CompletableFuture<Boolean> putDataAsync(Map<String, Object> data) {
+        return putObservationAsync(WeatherObservation.fromMap(data));
+    }
+
+    /**
+     * Adds or updates a parsed observation, as {@link #putDataAsync(Map)} does. The store keeps
+     * the observation itself, so the caller must not modify it afterwards.
+     *
+     * @param data The weather data to store.
+     * @return A future of true if the data is new, false if it was updated.
+     */
+    public CompletableFuture<Boolean> putObservationAsync(WeatherObservation data) {
+        String id = data.getId();
+        if (id == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        long now = System.currentTimeMillis();
+        boolean[] isNew = new boolean[1];
+        StationEntry entry;
+        changeLock.readLock().lock();
+        try {
+            entry = apply(data, now, isNew, 0);
         } finally {
-            lock.writeLock().unlock();
+            changeLock.readLock().unlock();
         }
+        version.incrementAndGet();
+        expiries.add(new Expiry(id, entry.stamp, now + EXPIRY_MILLIS));
+        // Queued once visible, so a checkpoint taken after the record is written includes the change
+        return persister.submit(putRecord(data, entry.stamp, now)).thenApply(done -> isNew[0]);
     }
 
     /**
-     * Retrieves the current weather data.
+     * Adds or updates several observations as one operation: they are applied in order, bump the
+     * data version once and are persisted in a single write. The caller must not modify the
+     * observations afterwards.
+     *
+     * @param batch The observations to store; each must have an ID.
+     * @return A future of one flag per observation, true if it created its station.
+     */
+    public CompletableFuture<boolean[]> putObservationsAsync(List<WeatherObservation> batch) {
+        long now = System.currentTimeMillis();
+        boolean[] isNew = new boolean[batch.size()];
+        List<Map<String, Object>> records = new ArrayList<>(batch.size());
+        changeLock.readLock().lock();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                WeatherObservation data = batch.get(i);
+                StationEntry entry = apply(data, now, isNew, i);
+                expiries.add(new Expiry(data.getId(), entry.stamp, now + EXPIRY_MILLIS));
+                records.add(putRecord(data, entry.stamp, now));
+            }
+        } finally {
+            changeLock.readLock().unlock();
+        }
+        version.incrementAndGet();
+        return persister.submitAll(records).thenApply(done -> isNew);
+    }
+
+    // Must hold the change read lock; updates to one station are serialized here, others are not blocked
+    private StationEntry apply(WeatherObservation data, long now, boolean[] isNew, int index) {
+        String id = data.getId();
+        long floor = beginChange();
+        try {
+            return install(id, data, now, isNew, index);
+        } finally {
+            endChange(floor);
+        }
+    }
+
+    private StationEntry install(String id, WeatherObservation data, long now, boolean[] isNew, int index) {
+        return stations.compute(id, (key, previous) -> {
+            isNew[index] = previous == null;
+            // History and rollups are carried over from entry to entry, and go when the station expires
+            StationHistory history = previous != null && previous.history != null
+                    ? previous.history : new StationHistory(historyLength, historyAgeMillis);
+            history.append(now, data);
+            StationRollup rollup = previous != null && previous.rollup != null
+                    ? previous.rollup : new StationRollup(rollupWindowMillis);
+            rollup.add(now, data);
+            StationEntry updated = new StationEntry(data, now, sequence.incrementAndGet(), history, rollup);
+            changeIndex.put(updated.stamp, id);
+            if (previous != null) {
+                changeIndex.remove(previous.stamp);
+            }
+            spatialIndex.move(id, previous != null ? latitude(previous.data) : Double.NaN,
+                    previous != null ? longitude(previous.data) : Double.NaN, latitude(data), longitude(data));
+            secondaryIndex.update(id, previous != null ? previous.data : null, data);
+            // Published while the station is locked, so its events keep their order
+            feed.publishUpdate(id, updated.stamp, () -> updated.document(jsonParser).getBytes());
+            return updated;
+        });
+    }
+
+    /**
+     * Retrieves a copy of the current weather data.
      *
      * @return A map of station IDs to their weather data.
      */
     public Map<String, Map<String, Object>> getData() {
-        lock.readLock().lock();
+        Map<String, Map<String, Object>> data = new HashMap<>();
+        for (Map.Entry<String, StationEntry> station : stations.entrySet()) {
+            data.put(station.getKey(), station.getValue().data.toMap());
+        }
+        return data;
+    }
+
+    /**
+     * Retrieves one station's current observation without copying it.
+     *
+     * @param id The station ID.
+     * @return The observation, which must not be modified, or null if absent.
+     */
+    public WeatherObservation getObservation(String id) {
+        StationEntry entry = stations.get(id);
+        return entry == null ? null : entry.data;
+    }
+
+    /**
+     * Returns the full document of all stations as encoded JSON. The document is cached until the
+     * data changes, and is rebuilt from the per-station cache so only changed stations are re-serialized.
+     *
+     * @return The full document and the data version it reflects.
+     */
+    public VersionedDocument getDocument() {
+        VersionedDocument cached = fullDocument;
+        // Read before building: every change counted in it is already visible, and a change that
+        // lands mid-build bumps the version so the result is not reused afterwards
+        long current = version.get();
+        if (cached != null && cached.getVersion() == current) {
+            return cached;
+        }
+        List<VersionedDocument> parts = new ArrayList<>(stations.size());
+        for (StationEntry entry : stations.values()) {
+            parts.add(entry.document(jsonParser));
+        }
+        cached = new VersionedDocument(current, join(parts));
+        fullDocument = cached;
+        return cached;
+    }
+
+    // Joins encoded {"id":{...}} parts into one object
+    private static byte[] join(List<VersionedDocument> parts) {
+        int size = 2 + Math.max(0, parts.size() - 1);
+        for (VersionedDocument part : parts) {
+            size += part.getBytes().length - 2;
+        }
+        byte[] bytes = new byte[size];
+        bytes[0] = '{';
+        int pos = 1;
+        for (VersionedDocument part : parts) {
+            if (pos > 1) {
+                bytes[pos++] = ',';
+            }
+            // Copy the member without the part's surrounding braces
+            byte[] partBytes = part.getBytes();
+            System.arraycopy(partBytes, 1, bytes, pos, partBytes.length - 2);
+            pos += partBytes.length - 2;
+        }
+        bytes[pos] = '}';
+        return bytes;
+    }
+
+    /**
+     * Returns one station as the encoded JSON object {@code {"<id>":{...}}}.
+     *
+     * @param id The station ID.
+     * @return The document and the stamp of the station's last change, or null if absent.
+     */
+    public VersionedDocument getStationDocument(String id) {
+        StationEntry entry = stations.get(id);
+        return entry == null ? null : entry.document(jsonParser);
+    }
+
+    /**
+     * Returns the stations matching equality filters, optionally with only some of their fields,
+     * as an encoded JSON object shaped like {@link #getDocument()}. The candidates come from the
+     * secondary index of the most selective filter, so non-matching stations are never looked at,
+     * and a projection formats only the requested fields.
+     *
+     * @param filters Field values to match exactly, on fields from {@link SecondaryIndex#FIELDS};
+     *                empty for every station.
+     * @param fields  The fields to include, without repeats, or null for all of them.
+     * @return The encoded stations.
+     * @throws IllegalArgumentException If a filter names a field that is not indexed.
+     */
+    public byte[] getStations(Map<String, String> filters, Collection<String> fields) {
+        return getStations(filters, null, fields);
+    }
+
+    /**
+     * Returns the stations matching equality filters and a compiled query, optionally with only
+     * some of their fields, as an encoded JSON object shaped like {@link #getDocument()}. The
+     * candidates come from whichever is smallest of the secondary index entries for the filters
+     * and the query's equalities, and the spatial index cells for the query's position bounds;
+     * only those stations are tested against the query.
+     *
+     * @param filters Field values to match exactly, on fields from {@link SecondaryIndex#FIELDS};
+     *                empty for every station.
+     * @param where   The query to match, or null.
+     * @param fields  The fields to include, without repeats, or null for all of them.
+     * @return The encoded stations.
+     * @throws IllegalArgumentException If a filter names a field that is not indexed.
+     */
+    public byte[] getStations(Map<String, String> filters, StationQuery where, Collection<String> fields) {
+        Collection<String> candidates = stations.keySet();
+        List<Map<String, String>> equalities = new ArrayList<>(2);
+        equalities.add(filters);
+        if (where != null) {
+            equalities.add(where.getIndexedEqualities());
+        }
+        for (Map<String, String> terms : equalities) {
+            for (Map.Entry<String, String> term : terms.entrySet()) {
+                Set<String> ids = secondaryIndex.lookup(term.getKey(), term.getValue());
+                if (ids.size() < candidates.size()) {
+                    candidates = ids;
+                }
+            }
+        }
+        double[] box = where != null ? where.getBox() : null;
+        if (box != null && candidates.size() > 1) {
+            // A box whose edges cross can match nothing; the query never describes one crossing the antimeridian
+            List<String> inBox = box[0] > box[2] || box[1] > box[3]
+                    ? Collections.emptyList() : spatialIndex.withinBox(box[0], box[1], box[2], box[3]);
+            if (inBox.size() < candidates.size()) {
+                candidates = inBox;
+            }
+        }
+        List<VersionedDocument> parts = fields == null ? new ArrayList<>() : null;
+        JsonWriter writer = fields == null ? null : new JsonWriter();
         try {
-            return new HashMap<>(weatherData);
-        } finally {
-            lock.readLock().unlock();
+            if (writer != null) {
+                writer.write('{');
+            }
+            boolean first = true;
+            for (String id : candidates) {
+                StationEntry entry = stations.get(id);
+                // Check every filter against the entry itself, which may have changed since the index was read
+                if (entry == null || !matches(entry.data, filters) || (where != null && !where.test(entry.data))) {
+                    continue;
+                }
+                if (writer == null) {
+                    parts.add(entry.document(jsonParser));
+                    continue;
+                }
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writer.writeString(id);
+                writer.write(':');
+                entry.data.writeTo(writer, fields);
+            }
+            if (writer == null) {
+                return join(parts);
+            }
+            writer.write('}');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // an in-memory writer does not do I/O
         }
+        return writer.toByteArray();
+    }
+
+    private static boolean matches(WeatherObservation data, Map<String, String> filters) {
+        for (Map.Entry<String, String> filter : filters.entrySet()) {
+            if (!filter.getValue().equals(data.get(filter.getKey()))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * Expires data not updated within 30 seconds.
+     * Returns the stations inside a latitude/longitude box, as an encoded JSON object shaped like
+     * {@link #getDocument()}. Only the index cells the box overlaps are looked at.
+     *
+     * @param south Southern edge, in degrees latitude.
+     * @param west  Western edge, in degrees longitude; east of the eastern edge for a box that
+     *              crosses the antimeridian.
+     * @param north Northern edge, in degrees latitude.
+     * @param east  Eastern edge, in degrees longitude.
+     * @return The encoded stations.
      */
-    public void expireData() {
-        lock.writeLock().lock();
-        try {
-            long currentTime = System.currentTimeMillis();
-            Iterator<String> iterator = lastUpdateTime.keySet().iterator();
-            while (iterator.hasNext()) {
-                String id = iterator.next();
-                long lastTime = lastUpdateTime.get(id);
-                if (currentTime - lastTime > 30000) { // 30 seconds
-                    iterator.remove();
-                    weatherData.remove(id);
-                    System.out.println("Expired data for ID: " + id);
+    public byte[] getStationsInBox(double south, double west, double north, double east) {
+        List<VersionedDocument> parts = new ArrayList<>();
+        for (String id : spatialIndex.withinBox(south, west, north, east)) {
+            StationEntry entry = stations.get(id);
+            // The station may have expired since the index was read
+            if (entry != null) {
+                parts.add(entry.document(jsonParser));
+            }
+        }
+        return join(parts);
+    }
+
+    /**
+     * Returns the stations nearest a point by great-circle distance, as the encoded JSON object
+     * {@code {"stations":[{"id":"<id>","distance_km":D,"observation":{...}},...]}}, nearest first.
+     * The index is searched outwards from the point, so distant stations are never looked at.
+     *
+     * @param lat Latitude in degrees.
+     * @param lon Longitude in degrees.
+     * @param k   The most stations to return.
+     * @return The encoded stations.
+     */
+    public byte[] getStationsNear(double lat, double lon, int k) {
+        JsonWriter writer = new JsonWriter();
+        try {
+            writer.write('{');
+            writer.writeString("stations");
+            writer.write(':');
+            writer.write('[');
+            boolean first = true;
+            for (SpatialIndex.Match match : spatialIndex.nearest(lat, lon, k)) {
+                StationEntry entry = stations.get(match.getId());
+                if (entry == null) {
+                    continue;
+                }
+                if (!first) {
+                    writer.write(',');
                 }
+                first = false;
+                writer.write('{');
+                writer.writeString("id");
+                writer.write(':');
+                writer.writeString(match.getId());
+                writer.write(',');
+                writer.writeString("distance_km");
+                writer.write(':');
+                writer.writeDouble(Math.round(match.getDistanceKm() * 10) / 10.0);
+                writer.write(',');
+                writer.writeString("observation");
+                writer.write(':');
+                writer.value(entry.data);
+                writer.write('}');
             }
-            saveData();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            lock.writeLock().unlock();
+            writer.write(']');
+            writer.write('}');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // an in-memory writer does not do I/O
+        }
+        return writer.toByteArray();
+    }
+
+    private static double latitude(WeatherObservation data) {
+        return data.getDouble("lat");
+    }
+
+    private static double longitude(WeatherObservation data) {
+        return data.getDouble("lon");
+    }
+
+    /**
+     * Returns a station's recent readings received in a time range, as the encoded JSON object
+     * {@code {"id":"<id>","readings":[{"time":T,...},...]}}, oldest first. History is kept in
+     * memory only, so readings from before a restart are not included.
+     *
+     * @param id   The station ID.
+     * @param from Earliest receipt time to include, in epoch milliseconds.
+     * @param to   Latest receipt time to include, in epoch milliseconds.
+     * @return The encoded readings, or null if the station is not present.
+     */
+    public byte[] getHistory(String id, long from, long to) {
+        StationEntry entry = stations.get(id);
+        if (entry == null) {
+            return null;
+        }
+        JsonWriter writer = new JsonWriter();
+        try {
+            writer.write('{');
+            writer.writeString("id");
+            writer.write(':');
+            writer.writeString(id);
+            writer.write(',');
+            writer.writeString("readings");
+            writer.write(':');
+            if (entry.history != null) {
+                entry.history.writeTo(from, to, System.currentTimeMillis(), writer);
+            } else {
+                writer.write('[');
+                writer.write(']');
+            }
+            writer.write('}');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // an in-memory writer does not do I/O
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Returns the widths of the windows that rollups are kept over.
+     *
+     * @return The window widths in seconds.
+     */
+    public int[] getRollupWindows() {
+        return rollupWindowSeconds.clone();
+    }
+
+    /**
+     * Returns a station's rollups over one window width, as the encoded JSON object
+     * {@code {"id":"<id>","window":W,"buckets":[...]}} described by
+     * {@link StationRollup#writeTo(int, long, JsonWriter)}. The rollups are maintained as readings
+     * arrive, so nothing is rescanned. Like the history, they are kept in memory only.
+     *
+     * @param id            The station ID.
+     * @param windowSeconds A width from {@link #getRollupWindows()}.
+     * @return The encoded rollups, or null if the station is not present.
+     * @throws IllegalArgumentException If the width is not one rollups are kept over.
+     */
+    public byte[] getRollup(String id, int windowSeconds) {
+        int width = -1;
+        for (int i = 0; i < rollupWindowSeconds.length; i++) {
+            if (rollupWindowSeconds[i] == windowSeconds) {
+                width = i;
+            }
+        }
+        if (width < 0) {
+            throw new IllegalArgumentException("No rollups over " + windowSeconds + " s windows");
+        }
+        StationEntry entry = stations.get(id);
+        if (entry == null) {
+            return null;
+        }
+        JsonWriter writer = new JsonWriter();
+        try {
+            writer.write('{');
+            writer.writeString("id");
+            writer.write(':');
+            writer.writeString(id);
+            writer.write(',');
+            writer.writeString("window");
+            writer.write(':');
+            writer.writeLong(windowSeconds);
+            writer.write(',');
+            writer.writeString("buckets");
+            writer.write(':');
+            if (entry.rollup != null) {
+                entry.rollup.writeTo(width, System.currentTimeMillis(), writer);
+            } else {
+                writer.write('[');
+                writer.write(']');
+            }
+            writer.write('}');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // an in-memory writer does not do I/O
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Subscribes to station updates and expiries. Events are delivered from a dispatcher thread,
+     * so subscribers never slow down a PUT.
+     *
+     * @param stationId The station to follow, or null for every station.
+     * @param onReady   Called when events become available or the subscriber falls too far
+     *                  behind, or null if the subscriber waits for events itself.
+     * @return The subscription; cancel it when the subscriber goes away.
+     */
+    public StationFeed.Subscription subscribe(String stationId, Runnable onReady) {
+        return feed.subscribe(stationId, onReady);
+    }
+
+    /**
+     * Returns the current data version, which increases whenever stations are added, updated or expired.
+     *
+     * @return The data version.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns a token that differs between runs of the server. Versions and stamps restart on
+     * every run, so validators built from them must include it.
+     *
+     * @return The epoch token.
+     */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the stations changed after a clock, as the encoded JSON object
+     * {@code {"clock":N,"full":false,"stations":{...},"expired":[...]}}. The work is proportional to
+     * the number of changes since the clock, not to the number of stations. If the clock is older
+     * than the changes this store remembers, or from another run, the reply holds every station
+     * and {@code "full":true}, and the caller should replace its copy instead of merging.
+     *
+     * @param since The {@code clock} of an earlier reply, or 0 for everything.
+     * @return The delta, tagged with the clock to pass next time.
+     */
+    public VersionedDocument getChangesSince(long since) {
+        // Every change stamped up to here is already indexed
+        long clock = installedStamp();
+        if (since < deltaHorizon.get() || since > clock) {
+            return fullDelta(clock);
+        }
+        JsonWriter writer = new JsonWriter();
+        try {
+            writer.raw(CLOCK_PREFIX, 0, CLOCK_PREFIX.length);
+            writer.writeLong(clock);
+            writer.raw(DELTA_STATIONS, 0, DELTA_STATIONS.length);
+            boolean first = true;
+            for (Map.Entry<Long, String> change : changeIndex.tailMap(since, false).entrySet()) {
+                StationEntry entry = stations.get(change.getValue());
+                // Skip entries replaced after the index was read; their newer stamp is listed too
+                if (entry == null || entry.stamp != change.getKey()) {
+                    continue;
+                }
+                if (!first) {
+                    writer.write(',');
+                }
+                byte[] part = entry.document(jsonParser).getBytes();
+                writer.raw(part, 1, part.length - 2);
+                first = false;
+            }
+            writer.raw(DELTA_EXPIRED, 0, DELTA_EXPIRED.length);
+            Set<String> expired = new LinkedHashSet<>();
+            for (String id : tombstones.tailMap(since, false).values()) {
+                // A station added back since it expired is in the stations list instead
+                if (!stations.containsKey(id) && expired.add(id)) {
+                    if (expired.size() > 1) {
+                        writer.write(',');
+                    }
+                    writer.writeString(id);
+                }
+            }
+            writer.raw(DELTA_END, 0, DELTA_END.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // an in-memory writer does not do I/O
+        }
+        // Tombstones trimmed while reading may have been needed
+        if (since < deltaHorizon.get()) {
+            return fullDelta(clock);
         }
+        return new VersionedDocument(clock, writer.toByteArray());
     }
 
-    // Start a scheduled task to expire data every 10 seconds
-    private void startExpirationTask() {
-        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-        scheduler.scheduleAtFixedRate(this::expireData, 10, 10, TimeUnit.SECONDS);
+    private VersionedDocument fullDelta(long clock) {
+        byte[] document = getDocument().getBytes();
+        JsonWriter writer = new JsonWriter();
+        try {
+            writer.raw(CLOCK_PREFIX, 0, CLOCK_PREFIX.length);
+            writer.writeLong(clock);
+            writer.raw(FULL_STATIONS, 0, FULL_STATIONS.length);
+            writer.raw(document, 0, document.length);
+            writer.raw(FULL_EXPIRED, 0, FULL_EXPIRED.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new VersionedDocument(clock, writer.toByteArray());
+    }
+
+    // Forgets the oldest tombstones once there are too many, moving the delta horizon past them
+    private void trimTombstones() {
+        if (tombstoneCount.incrementAndGet() > MAX_TOMBSTONES) {
+            Map.Entry<Long, String> oldest = tombstones.pollFirstEntry();
+            if (oldest != null) {
+                tombstoneCount.decrementAndGet();
+                deltaHorizon.accumulateAndGet(oldest.getKey(), Math::max);
+            }
+        }
+    }
+
+    /**
+     * Expires every station whose data has not been updated within 30 seconds. The expiry thread
+     * does this as deadlines pass; calling it directly only catches up on anything overdue.
+     */
+    public void expireData() {
+        expireDue(null);
+    }
+
+    // Wakes at each deadline, so stations expire on time rather than at the next periodic scan
+    private void runExpiry() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                expireDue(expiries.take());
+            }
+        } catch (InterruptedException e) {
+            // Store closed
+        }
+    }
+
+    // Cost is proportional to the deadlines that have passed, not to the number of stations
+    private void expireDue(Expiry first) {
+        int expired = 0;
+        Expiry due = first != null ? first : expiries.poll();
+        while (due != null) {
+            if (expire(due)) {
+                expired++;
+            }
+            due = expiries.poll();
+        }
+        // Only touch the disk if something actually went away
+        if (expired > 0 && persistenceMode == PersistenceMode.SNAPSHOT) {
+            persister.submit(checkpointRecord(true));
+        }
+    }
+
+    private boolean expire(Expiry due) {
+        long[] removal = new long[1];
+        long floor = beginChange();
+        changeLock.readLock().lock();
+        try {
+            // The deadline only applies if the station has not changed since it was set
+            stations.computeIfPresent(due.id, (key, entry) -> {
+                if (entry.stamp != due.stamp) {
+                    return entry;
+                }
+                removal[0] = sequence.incrementAndGet();
+                changeIndex.remove(entry.stamp);
+                tombstones.put(removal[0], key);
+                spatialIndex.remove(key, latitude(entry.data), longitude(entry.data));
+                secondaryIndex.remove(key, entry.data);
+                feed.publishExpiry(key, removal[0]);
+                return null;
+            });
+        } finally {
+            changeLock.readLock().unlock();
+            endChange(floor);
+        }
+        if (removal[0] == 0) {
+            return false;
+        }
+        trimTombstones();
+        version.incrementAndGet();
+        if (persistenceMode == PersistenceMode.JOURNAL) {
+            persister.submit(removeRecord(due.id, removal[0]));
+        }
+        System.out.println("Expired data for ID: " + due.id);
+        return true;
     }
 
     /**
      * Clears all data from the DataStore (for testing purposes).
      */
     public void clearData() {
-        lock.writeLock().lock();
+        changeLock.writeLock().lock();
         try {
-            weatherData.clear();
-            lastUpdateTime.clear();
-            saveData();
-        } catch (Exception e) {
-            e.printStackTrace();
+            stations.clear();
+            changeIndex.clear();
+            spatialIndex.clear();
+            secondaryIndex.clear();
+            tombstones.clear();
+            tombstoneCount.set(0);
+            deltaHorizon.set(sequence.incrementAndGet());
         } finally {
-            lock.writeLock().unlock();
+            changeLock.writeLock().unlock();
+        }
+        version.incrementAndGet();
+        try {
+            persister.submitAndWait(checkpointRecord(true));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The moment a station expires unless it is updated again first.
+     */
+    private static final class Expiry implements Delayed {
+        final String id;
+        final long stamp;
+        final long deadline;
+
+        Expiry(String id, long stamp, long deadline) {
+            this.id = id;
+            this.stamp = stamp;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadline, ((Expiry) other).deadline);
+        }
+    }
+
+    /**
+     * One station's latest reading. Entries are immutable apart from the lazily encoded document,
+     * so readers never need a lock.
+     */
+    private static final class StationEntry {
+        final WeatherObservation data;
+        final long lastUpdate;
+        final long stamp;
+        // Null for stations loaded at startup until their next update
+        final StationHistory history;
+        final StationRollup rollup;
+        private volatile VersionedDocument document;
+
+        StationEntry(WeatherObservation data, long lastUpdate, long stamp) {
+            this(data, lastUpdate, stamp, null, null);
+        }
+
+        StationEntry(WeatherObservation data, long lastUpdate, long stamp, StationHistory history,
+                     StationRollup rollup) {
+            this.data = data;
+            this.lastUpdate = lastUpdate;
+            this.stamp = stamp;
+            this.history = history;
+            this.rollup = rollup;
+        }
+
+        // Encoded {"id":{...}}; racing readers may both encode, which is harmless
+        VersionedDocument document(SimpleJsonParser jsonParser) {
+            VersionedDocument encoded = document;
+            if (encoded == null) {
+                Map<String, Object> wrapper = Collections.singletonMap(data.getId(), data);
+                encoded = new VersionedDocument(stamp, jsonParser.toJsonBytes(wrapper));
+                document = encoded;
+            }
+            return encoded;
         }
     }
 }
@@ -0,0 +1,13 @@
+package com.weather.aggregation;
+
+/**
+ * When a PUT is acknowledged relative to its change reaching stable storage.
+ */
+public enum Durability {
+    /** Acknowledge once applied in memory; changes are written in the background without fsync. */
+    NONE,
+    /** Acknowledge once the batch holding the change has been written and fsynced. */
+    BATCHED,
+    /** Write and fsync every change on its own before acknowledging it. */
+    PER_REQUEST
+}
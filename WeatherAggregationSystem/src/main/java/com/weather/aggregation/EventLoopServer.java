@@ -0,0 +1,405 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking server built on a {@link ServerSocketChannel} and a fixed set of selector-driven
+ * event loops. The thread count stays at one acceptor plus the configured number of loops no matter
+ * how many connections are open.
+ */
+public class EventLoopServer {
+    private static final Logger logger = LoggerFactory.getLogger(EventLoopServer.class);
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+    // Stream events gathered into one write
+    private static final int MAX_EVENTS_PER_WRITE = 64;
+
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final Thread acceptThread;
+    private final RequestProcessor processor;
+    private final long idleTimeoutMillis;
+    private final int maxRequests;
+    private volatile boolean running = true;
+
+    /**
+     * Binds the server channel and starts the acceptor and event-loop threads.
+     *
+     * @param config    The server configuration (port, loop count and keep-alive limits).
+     * @param processor The processor that applies requests to the data store.
+     * @throws IOException If the channel cannot be opened or bound.
+     */
+    public EventLoopServer(ServerConfig config, RequestProcessor processor) throws IOException {
+        this.processor = processor;
+        this.idleTimeoutMillis = config.getIdleTimeoutMillis();
+        this.maxRequests = config.getMaxRequestsPerConnection();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.getPort()));
+
+        int loopCount = config.getEventLoopThreads();
+        loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop("event-loop-" + i);
+        }
+        acceptThread = new Thread(this::acceptConnections, "nio-acceptor");
+        acceptThread.start();
+    }
+
+    /**
+     * Accepts connections in blocking mode and hands them to the event loops round-robin.
+     */
+    private void acceptConnections() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (ClosedChannelException e) {
+                logger.info("Server channel closed.");
+                return;
+            } catch (IOException e) {
+                logger.error("Error accepting client connection", e);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections, closes every open connection and waits for the loops to exit.
+     *
+     * @throws IOException          If the server channel cannot be closed.
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     */
+    public void shutdown() throws IOException, InterruptedException {
+        running = false;
+        serverChannel.close();
+        acceptThread.join(5000);
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        for (EventLoop loop : loops) {
+            loop.thread.join(5000);
+        }
+    }
+
+    /**
+     * A single selector thread multiplexing many connections.
+     */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Receives whatever a streaming client sends, which is ignored
+        private final ByteBuffer discard = ByteBuffer.allocate(512);
+        private final Thread thread;
+
+        EventLoop(String name) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.start();
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        // Runs a task on this loop's thread, e.g. to write a response completed elsewhere
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long lastSweep = System.currentTimeMillis();
+            while (running) {
+                try {
+                    selector.select(SWEEP_INTERVAL_MILLIS);
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ, new Connection(this, channel));
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        // One failing task must not take down the loop and every connection on it
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            logger.error("Event loop task failed", e);
+                        }
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handleKey(key);
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastSweep >= SWEEP_INTERVAL_MILLIS) {
+                        closeIdle(now);
+                        lastSweep = now;
+                    }
+                } catch (IOException e) {
+                    logger.error("Error in event loop", e);
+                }
+            }
+            closeAll();
+        }
+
+        private void handleKey(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable(key);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable(key);
+                }
+            } catch (IOException e) {
+                logger.debug("Closing connection after I/O error", e);
+                connection.close(key);
+            } catch (RuntimeException e) {
+                // Only this connection is affected; the loop goes on serving the others
+                logger.error("Closing connection after unexpected error", e);
+                connection.close(key);
+            }
+        }
+
+        private void closeIdle(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (key.isValid() && connection.isIdle(now)) {
+                    logger.debug("Closing idle connection");
+                    connection.close(key);
+                } else if (key.isValid()) {
+                    connection.heartbeat(key, now);
+                }
+            }
+        }
+
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close(key);
+            }
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logger.error("Failed to close client channel", e);
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.error("Failed to close selector", e);
+            }
+        }
+    }
+
+    /**
+     * Per-connection read and write state. Complete requests are answered in arrival order, so
+     * pipelined requests sharing one read are all processed before the responses are written. A PUT
+     * waiting for its change to become durable holds back the responses queued behind it; the loop
+     * is woken to write them once it completes.
+     * <p>
+     * A stream request turns the connection into an event stream: nothing more is read from it, and
+     * whenever the write queue drains, the subscription's buffered events are gathered into the next
+     * write. A client that reads too slowly lets its subscription overflow and is disconnected.
+     */
+    private class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final HttpRequestParser parser = new HttpRequestParser();
+        private final Deque<CompletableFuture<HttpResponse>> inFlight = new ArrayDeque<>();
+        private final Deque<ByteBuffer[]> out = new ArrayDeque<>();
+        private int served;
+        private boolean closeAfterWrite;
+        private StationFeed.Subscription stream;
+        private long lastActivity = System.currentTimeMillis();
+
+        Connection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        void onReadable(SelectionKey key) throws IOException {
+            if (stream != null) {
+                loop.discard.clear();
+                if (channel.read(loop.discard) == -1) {
+                    close(key);
+                }
+                return;
+            }
+            int read = channel.read(parser.readBuffer());
+            if (read == -1) {
+                if (inFlight.isEmpty() && out.isEmpty()) {
+                    close(key);
+                } else {
+                    // The client half-closed; finish answering what it already sent
+                    closeAfterWrite = true;
+                    key.interestOps(out.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+                }
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+
+            while (!closeAfterWrite && stream == null) {
+                CompletableFuture<HttpResponse> response;
+                try {
+                    HttpRequest request = parser.next();
+                    if (request == null) {
+                        break;
+                    }
+                    served++;
+                    if (processor.isStream(request)) {
+                        response = openStream(key, request);
+                        inFlight.add(response);
+                        break;
+                    }
+                    response = processor.processAsync(request, false);
+                    if (!request.isKeepAlive() || served >= maxRequests) {
+                        closeAfterWrite = true;
+                        response = response.thenApply(r -> {
+                            r.setHeader("Connection", "close");
+                            return r;
+                        });
+                    }
+                } catch (HttpParseException e) {
+                    closeAfterWrite = true;
+                    response = CompletableFuture.completedFuture(e.toResponse());
+                }
+                inFlight.add(response);
+                if (!response.isDone()) {
+                    response.whenComplete((r, error) -> loop.execute(() -> onCompleted(key)));
+                }
+            }
+            writeCompleted(key);
+        }
+
+        // The event stream head is queued like any response, so earlier responses are sent first
+        private CompletableFuture<HttpResponse> openStream(SelectionKey key, HttpRequest request) {
+            try {
+                stream = processor.openStream(request, () -> loop.execute(() -> onCompleted(key)));
+                return CompletableFuture.completedFuture(HttpResponse.eventStream());
+            } catch (IOException e) {
+                closeAfterWrite = true;
+                HttpResponse response = HttpResponse.text("400 Bad Request", "Invalid query");
+                response.setHeader("Connection", "close");
+                return CompletableFuture.completedFuture(response);
+            }
+        }
+
+        void onCompleted(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            try {
+                writeCompleted(key);
+            } catch (IOException e) {
+                logger.debug("Closing connection after I/O error", e);
+                close(key);
+            } catch (RuntimeException e) {
+                logger.error("Closing connection after unexpected error", e);
+                close(key);
+            }
+        }
+
+        // Move finished responses, in request order, to the write queue
+        private void writeCompleted(SelectionKey key) throws IOException {
+            while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+                out.add(inFlight.poll().join().toByteBuffers());
+            }
+            if (!out.isEmpty()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                onWritable(key);
+            } else if (stream != null && inFlight.isEmpty()) {
+                onWritable(key);
+            }
+        }
+
+        void onWritable(SelectionKey key) throws IOException {
+            do {
+                while (!out.isEmpty()) {
+                    ByteBuffer[] buffers = out.peek();
+                    channel.write(buffers);
+                    for (ByteBuffer buffer : buffers) {
+                        if (buffer.hasRemaining()) {
+                            key.interestOps(SelectionKey.OP_WRITE);
+                            return;
+                        }
+                    }
+                    out.poll();
+                }
+            } while (stream != null && inFlight.isEmpty() && pollEvents());
+            lastActivity = System.currentTimeMillis();
+            if (stream != null && stream.isOverflowed()) {
+                logger.debug("Disconnecting stream subscriber that fell behind");
+                close(key);
+            } else if (closeAfterWrite && inFlight.isEmpty()) {
+                close(key);
+            } else if (closeAfterWrite) {
+                // Nothing more will be read; wait for the remaining responses
+                key.interestOps(0);
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        // Queues the next batch of stream events, if any are buffered
+        private boolean pollEvents() {
+            List<ByteBuffer> batch = new ArrayList<>();
+            byte[] event;
+            while (batch.size() < MAX_EVENTS_PER_WRITE && (event = stream.poll()) != null) {
+                batch.add(ByteBuffer.wrap(event));
+            }
+            if (batch.isEmpty()) {
+                return false;
+            }
+            out.add(batch.toArray(new ByteBuffer[0]));
+            return true;
+        }
+
+        void heartbeat(SelectionKey key, long now) {
+            if (stream == null || !out.isEmpty() || !inFlight.isEmpty() || now - lastActivity < StationFeed.HEARTBEAT_MILLIS) {
+                return;
+            }
+            out.add(new ByteBuffer[]{ByteBuffer.wrap(StationFeed.HEARTBEAT)});
+            try {
+                onWritable(key);
+            } catch (IOException e) {
+                logger.debug("Closing stream after I/O error", e);
+                close(key);
+            }
+        }
+
+        boolean isIdle(long now) {
+            if (stream != null) {
+                return false;
+            }
+            return out.isEmpty() && inFlight.isEmpty() && now - lastActivity > idleTimeoutMillis;
+        }
+
+        void close(SelectionKey key) {
+            if (stream != null) {
+                stream.cancel();
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.error("Failed to close client channel", e);
+            }
+        }
+    }
+}
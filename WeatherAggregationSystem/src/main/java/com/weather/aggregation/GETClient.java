@@ -11,6 +11,9 @@ import java.util.*;
 public class GETClient {
     private static final SimpleJsonParser jsonParser = new SimpleJsonParser();
     private LamportClock lamportClock;
+    private HttpClientConnection connection;
+    // Last validated response per request path, reused when the server answers 304
+    private final Map<String, CachedResponse> cache = new HashMap<>();
 
     /**
      * Initializes the GET Client.
@@ -20,7 +23,8 @@ public class GETClient {
     }
 
     /**
-     * Sends a GET request to the Aggregation Server.
+     * Sends a GET request to the Aggregation Server. The connection is kept open and reused
+     * by later calls; call {@link #close()} when done.
      *
      * @param serverUrl The URL of the Aggregation Server.
      * @param stationId The station ID to retrieve data for (optional).
@@ -32,89 +36,113 @@ public class GETClient {
             String host = url.getHost();
             int port = url.getPort() != -1 ? url.getPort() : 80;
 
-            // Use the createSocket method (can be mocked in tests)
-            try (Socket socket = createSocket(host, port);
-                 BufferedWriter out = new BufferedWriter(
-                         new OutputStreamWriter(socket.getOutputStream()));
-                 BufferedReader in = new BufferedReader(
-                         new InputStreamReader(socket.getInputStream()))
-            ) {
-                // Handle Lamport Clock
-                lamportClock.tick();
-
-                // Construct GET request with or without stationId
-                String requestPath = "/weather.json";
-                if (stationId != null && !stationId.trim().isEmpty()) {
-                    // Encode stationId to handle special characters
-                    String encodedStationId = java.net.URLEncoder.encode(stationId, "UTF-8");
-                    requestPath += "?station_id=" + encodedStationId;
-                }
-
-                out.write("GET " + requestPath + " HTTP/1.1\r\n");
-                out.write("Host: " + host + ":" + port + "\r\n");
-                out.write("Connection: close\r\n");
-                out.write("\r\n");
-                out.flush();
-
-                // Read response
-                String statusLine = in.readLine();
-                if (statusLine == null || !statusLine.contains("200")) {
-                    System.out.println("Failed to get data. Status: " + statusLine);
-                    return;
-                }
+            // Handle Lamport Clock
+            lamportClock.tick();
 
-                // Read headers
-                String line;
-                int contentLength = 0;
-                while (!(line = in.readLine()).isEmpty()) {
-                    String[] headerParts = line.split(": ", 2);
-                    if (headerParts.length == 2) {
-                        if (headerParts[0].equalsIgnoreCase("Content-Length")) {
-                            contentLength = Integer.parseInt(headerParts[1]);
-                        }
-                    }
-                }
+            // Construct GET request with or without stationId
+            String requestPath = "/weather.json";
+            if (stationId != null && !stationId.trim().isEmpty()) {
+                // Encode stationId to handle special characters
+                String encodedStationId = java.net.URLEncoder.encode(stationId, "UTF-8");
+                requestPath += "?station_id=" + encodedStationId;
+            }
 
-                // Read body
-                StringBuilder bodyBuilder = new StringBuilder();
-                char[] bodyChars = new char[contentLength];
-                int read = in.read(bodyChars, 0, contentLength);
-                if (read > 0) {
-                    bodyBuilder.append(bodyChars, 0, read);
+            // Read response
+            CachedResponse cached = cache.get(requestPath);
+            HttpClientConnection.Response response = sendRequest(host, port, requestPath,
+                    cached != null ? cached.etag : null);
+            String statusLine = response != null ? response.getStatusLine() : null;
+            Map<String, Object> parsedData;
+            if (statusLine != null && statusLine.contains("304") && cached != null) {
+                // Unchanged since the last poll: nothing was sent, and nothing needs parsing
+                parsedData = cached.data;
+            } else if (statusLine != null && statusLine.contains("200")) {
+                // Decompress and parse JSON
+                ContentEncoding encoding = ContentEncoding.fromHeader(response.getHeader("Content-Encoding"));
+                parsedData = jsonParser.parse(encoding.decode(new ByteArrayInputStream(response.getBody())));
+                String etag = response.getHeader("ETag");
+                if (etag != null) {
+                    cache.put(requestPath, new CachedResponse(etag, parsedData));
+                } else {
+                    cache.remove(requestPath);
                 }
-                String body = bodyBuilder.toString();
-
-                // Parse JSON
-                Map<String, Object> parsedData = jsonParser.parse(body);
-                Map<String, Map<String, Object>> weatherData = (Map<String, Map<String, Object>>) (Map) parsedData;
-
-                // If stationId is provided, filter the data
-                if (stationId != null && !stationId.trim().isEmpty()) {
-                    Map<String, Object> stationData = weatherData.get(stationId);
-                    if (stationData != null) {
-                        System.out.println("Station ID: " + stationId);
-                        for (Map.Entry<String, Object> dataEntry : stationData.entrySet()) {
-                            System.out.println("  " + dataEntry.getKey() + ": " + dataEntry.getValue());
-                        }
-                        System.out.println();
-                    } else {
-                        System.out.println("No data found for Station ID: " + stationId);
+            } else {
+                System.out.println("Failed to get data. Status: " + statusLine);
+                return;
+            }
+            Map<String, Map<String, Object>> weatherData = (Map<String, Map<String, Object>>) (Map) parsedData;
+
+            // If stationId is provided, filter the data
+            if (stationId != null && !stationId.trim().isEmpty()) {
+                Map<String, Object> stationData = weatherData.get(stationId);
+                if (stationData != null) {
+                    System.out.println("Station ID: " + stationId);
+                    for (Map.Entry<String, Object> dataEntry : stationData.entrySet()) {
+                        System.out.println("  " + dataEntry.getKey() + ": " + dataEntry.getValue());
                     }
+                    System.out.println();
                 } else {
-                    // Display all data
-                    for (Map.Entry<String, Map<String, Object>> entry : weatherData.entrySet()) {
-                        System.out.println("Station ID: " + entry.getKey());
-                        for (Map.Entry<String, Object> dataEntry : entry.getValue().entrySet()) {
-                            System.out.println("  " + dataEntry.getKey() + ": " + dataEntry.getValue());
-                        }
-                        System.out.println();
+                    System.out.println("No data found for Station ID: " + stationId);
+                }
+            } else {
+                // Display all data
+                for (Map.Entry<String, Map<String, Object>> entry : weatherData.entrySet()) {
+                    System.out.println("Station ID: " + entry.getKey());
+                    for (Map.Entry<String, Object> dataEntry : entry.getValue().entrySet()) {
+                        System.out.println("  " + dataEntry.getKey() + ": " + dataEntry.getValue());
                     }
+                    System.out.println();
                 }
-
             }
 
         } catch (Exception e) {
             System.out.println("Error during GET request: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Sends a GET over the persistent connection, opening one if needed. A reused connection
+     * the server has since closed is replaced and the request retried once.
+     */
+    private HttpClientConnection.Response sendRequest(String host, int port, String path, String etag)
+            throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Accept-Encoding", "gzip, deflate");
+        if (etag != null) {
+            headers.put("If-None-Match", etag);
+        }
+        boolean reused = connection != null && connection.canReuse(host, port);
+        if (!reused) {
+            close();
+            connection = new HttpClientConnection(createSocket(host, port), host, port);
+        }
+        try {
+            HttpClientConnection.Response response = connection.exchange("GET", path, headers, null);
+            if (response != null || !reused) {
+                return response;
+            }
+        } catch (IOException e) {
+            if (!reused) {
+                throw e;
+            }
+        }
+        close();
+        connection = new HttpClientConnection(createSocket(host, port), host, port);
+        return connection.exchange("GET", path, headers, null);
+    }
+
+    /**
+     * Closes the persistent connection to the Aggregation Server, if one is open.
+     */
+    public void close() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                System.out.println("Error closing connection: " + e.getMessage());
+            }
+            connection = null;
         }
     }
 
@@ -131,6 +159,19 @@ public class GETClient {
         return new Socket(host, port);
     }
 
+    /**
+     * A parsed response body and the ETag that validates it.
+     */
+    private static final class CachedResponse {
+        final String etag;
+        final Map<String, Object> data;
+
+        CachedResponse(String etag, Map<String, Object> data) {
+            this.etag = etag;
+            this.data = data;
+        }
+    }
+
     /**
      * Main method to run the GET Client.
      *
@@ -147,5 +188,6 @@ public class GETClient {
 
         GETClient client = new GETClient();
         client.sendGET(serverUrl, stationId);
+        client.close();
     }
 }
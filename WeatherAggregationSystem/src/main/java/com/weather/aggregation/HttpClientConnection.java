@@ -0,0 +1,159 @@
+package com.weather.aggregation;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A client-side HTTP/1.1 connection that can carry many request/response exchanges.
+ * Used by the Content Server and GET Client to avoid a TCP handshake per request.
+ */
+public class HttpClientConnection implements Closeable {
+    private final Socket socket;
+    private final String host;
+    private final int port;
+    private final InputStream in;
+    private final OutputStream out;
+    private boolean reusable = true;
+
+    /**
+     * Wraps an already connected socket.
+     *
+     * @param socket The connected socket.
+     * @param host   The host the socket is connected to.
+     * @param port   The port the socket is connected to.
+     * @throws IOException If the socket streams cannot be opened.
+     */
+    public HttpClientConnection(Socket socket, String host, int port) throws IOException {
+        this.socket = socket;
+        this.host = host;
+        this.port = port;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * Checks whether this connection is open to the given server and can take another request.
+     *
+     * @param host The server host.
+     * @param port The server port.
+     * @return True if the connection can be reused for that server.
+     */
+    public boolean canReuse(String host, int port) {
+        return reusable && !socket.isClosed() && this.host.equals(host) && this.port == port;
+    }
+
+    /**
+     * Sends a request and reads the complete response.
+     *
+     * @param method  The request method.
+     * @param path    The request target.
+     * @param headers Extra request headers (Host and Content-Length are added automatically).
+     * @param body    The request body, or null for none.
+     * @return The response, or null if the server closed the connection without answering.
+     * @throws IOException If an I/O error occurs.
+     */
+    public Response exchange(String method, String path, Map<String, String> headers, byte[] body) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(host).append(':').append(port).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (body != null) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (body != null) {
+            out.write(body);
+        }
+        out.flush();
+
+        String statusLine = readLine();
+        if (statusLine == null) {
+            reusable = false;
+            return null;
+        }
+
+        // Read headers
+        Map<String, String> responseHeaders = new HashMap<>();
+        String line;
+        while ((line = readLine()) != null && !line.isEmpty()) {
+            String[] headerParts = line.split(": ", 2);
+            if (headerParts.length == 2) {
+                responseHeaders.put(headerParts[0].toLowerCase(), headerParts[1]);
+            }
+        }
+
+        // Read body by byte count; a 304 never has one, whatever its headers say
+        int contentLength = 0;
+        String lengthHeader = responseHeaders.get("content-length");
+        if (lengthHeader != null && !statusLine.contains(" 304 ")) {
+            contentLength = Integer.parseInt(lengthHeader.trim());
+        }
+        byte[] responseBody = in.readNBytes(contentLength);
+        if (line == null || responseBody.length < contentLength
+                || "close".equalsIgnoreCase(responseHeaders.get("connection"))) {
+            reusable = false;
+        }
+        return new Response(statusLine, responseHeaders, responseBody);
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                buffer.write(b);
+            }
+        }
+        if (b == -1 && buffer.size() == 0) {
+            return null;
+        }
+        return buffer.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reusable = false;
+        socket.close();
+    }
+
+    /**
+     * A response read from the server.
+     */
+    public static class Response {
+        private final String statusLine;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        Response(String statusLine, Map<String, String> headers, byte[] body) {
+            this.statusLine = statusLine;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public String getStatusLine() {
+            return statusLine;
+        }
+
+        /**
+         * Returns a header value by case-insensitive name.
+         *
+         * @param name The header name.
+         * @return The header value, or null if absent.
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request cannot be parsed. Carries the HTTP status to answer with before
+ * the connection is closed.
+ */
+public class HttpParseException extends IOException {
+    private final String status;
+
+    /**
+     * Creates a new parse failure.
+     *
+     * @param status  HTTP status to respond with (e.g., "400 Bad Request").
+     * @param message Response body text.
+     */
+    public HttpParseException(String status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Builds the error response for this failure.
+     *
+     * @return A response that also closes the connection.
+     */
+    public HttpResponse toResponse() {
+        HttpResponse response = HttpResponse.text(status, getMessage());
+        response.setHeader("Connection", "close");
+        return response;
+    }
+}
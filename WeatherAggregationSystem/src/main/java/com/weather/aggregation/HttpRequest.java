@@ -0,0 +1,85 @@
+package com.weather.aggregation;
+
+/**
+ * A parsed HTTP request, independent of the transport it arrived on. Only the parts of the
+ * request the server acts on are kept.
+ */
+public class HttpRequest {
+    private final String method;
+    private final String path;
+    private final String query;
+    private final boolean keepAlive;
+    private final String acceptEncoding;
+    private final String ifNoneMatch;
+    private final byte[] body;
+
+    /**
+     * Creates a new request.
+     *
+     * @param method    The request method (e.g., "GET").
+     * @param path      The request path, without the query string.
+     * @param query     The raw query string after '?', or null if there is none.
+     * @param keepAlive Whether the client wants the connection kept open afterwards.
+     * @param body      The request body, empty if there is none.
+     */
+    public HttpRequest(String method, String path, String query, boolean keepAlive, byte[] body) {
+        this(method, path, query, keepAlive, null, null, body);
+    }
+
+    /**
+     * Creates a new request.
+     *
+     * @param method         The request method (e.g., "GET").
+     * @param path           The request path, without the query string.
+     * @param query          The raw query string after '?', or null if there is none.
+     * @param keepAlive      Whether the client wants the connection kept open afterwards.
+     * @param acceptEncoding The Accept-Encoding header, or null if there is none.
+     * @param ifNoneMatch    The If-None-Match header, or null if there is none.
+     * @param body           The request body, empty if there is none.
+     */
+    public HttpRequest(String method, String path, String query, boolean keepAlive, String acceptEncoding,
+                       String ifNoneMatch, byte[] body) {
+        this.method = method;
+        this.path = path;
+        this.query = query;
+        this.keepAlive = keepAlive;
+        this.acceptEncoding = acceptEncoding;
+        this.ifNoneMatch = ifNoneMatch;
+        this.body = body;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Determines whether the client wants the connection kept open after this request.
+     * HTTP/1.1 connections are persistent unless the client sends {@code Connection: close};
+     * HTTP/1.0 connections are persistent only with {@code Connection: keep-alive}.
+     *
+     * @return True if the connection may be reused.
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public String getAcceptEncoding() {
+        return acceptEncoding;
+    }
+
+    public String getIfNoneMatch() {
+        return ifNoneMatch;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+}
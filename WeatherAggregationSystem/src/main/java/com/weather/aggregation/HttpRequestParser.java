@@ -0,0 +1,275 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental HTTP/1.1 request parser working on raw bytes in a reusable per-connection buffer.
+ * Only the request line and the headers the server acts on are decoded; every other header is
+ * skipped without being copied. The body is read exactly by its Content-Length in bytes.
+ */
+public class HttpRequestParser {
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+    private static final int MAX_BODY_SIZE = 16 * 1024 * 1024;
+
+    private static final byte[] GET = ascii("GET");
+    private static final byte[] PUT = ascii("PUT");
+    private static final byte[] WEATHER_PATH = ascii("/weather.json");
+    private static final byte[] HTTP_1_0 = ascii("HTTP/1.0");
+    private static final byte[] CONTENT_LENGTH = ascii("content-length");
+    private static final byte[] CONNECTION = ascii("connection");
+    private static final byte[] TRANSFER_ENCODING = ascii("transfer-encoding");
+    private static final byte[] ACCEPT_ENCODING = ascii("accept-encoding");
+    private static final byte[] IF_NONE_MATCH = ascii("if-none-match");
+    private static final byte[] CLOSE = ascii("close");
+    private static final byte[] KEEP_ALIVE = ascii("keep-alive");
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private int scanFrom;
+
+    // State of the request whose head has been parsed but whose body is still arriving
+    private int headEnd = -1;
+    private String method;
+    private String path;
+    private String query;
+    private boolean http10;
+    private int connectionToken; // 0 = absent, 1 = close, 2 = keep-alive
+    private String acceptEncoding;
+    private String ifNoneMatch;
+    private int contentLength;
+
+    /**
+     * Returns the buffer to read network bytes into, growing it if it is full. The buffer is in
+     * write mode: bytes between 0 and its position are pending input.
+     *
+     * @return The buffer, with at least one byte remaining.
+     */
+    public ByteBuffer readBuffer() {
+        if (!buffer.hasRemaining()) {
+            int required = headEnd >= 0 ? headEnd + contentLength : buffer.capacity() * 2;
+            grow(Math.max(required, buffer.capacity() * 2));
+        }
+        return buffer;
+    }
+
+    /**
+     * Reads available bytes from a blocking stream into the buffer.
+     *
+     * @param in The stream to read from.
+     * @return The number of bytes read, or -1 at end of stream.
+     * @throws IOException If an I/O error occurs (including socket timeouts).
+     */
+    public int fill(InputStream in) throws IOException {
+        ByteBuffer target = readBuffer();
+        int read = in.read(target.array(), target.position(), target.remaining());
+        if (read > 0) {
+            target.position(target.position() + read);
+        }
+        return read;
+    }
+
+    /**
+     * Checks whether unparsed bytes (such as a pipelined request) are already buffered.
+     *
+     * @return True if the buffer holds pending input.
+     */
+    public boolean hasBufferedBytes() {
+        return buffer.position() > 0;
+    }
+
+    /**
+     * Parses the next complete request from the buffer and removes it, leaving any pipelined
+     * bytes that follow in place.
+     *
+     * @return The request, or null if more bytes are needed.
+     * @throws HttpParseException If the buffered bytes are not a valid request.
+     */
+    public HttpRequest next() throws HttpParseException {
+        byte[] data = buffer.array();
+        int limit = buffer.position();
+
+        if (headEnd < 0) {
+            int end = indexOfHeadEnd(data, limit);
+            if (end < 0) {
+                if (limit >= MAX_HEAD_SIZE) {
+                    throw new HttpParseException("431 Request Header Fields Too Large", "Request headers too large");
+                }
+                return null;
+            }
+            parseHead(data, end);
+            headEnd = end + 4;
+        }
+
+        int total = headEnd + contentLength;
+        if (limit < total) {
+            if (buffer.capacity() < total) {
+                grow(total);
+            }
+            return null;
+        }
+
+        byte[] body = contentLength == 0 ? new byte[0] : Arrays.copyOfRange(data, headEnd, total);
+        boolean keepAlive = http10 ? connectionToken == 2 : connectionToken != 1;
+        HttpRequest request = new HttpRequest(method, path, query, keepAlive, acceptEncoding, ifNoneMatch, body);
+        consume(total);
+        return request;
+    }
+
+    private void parseHead(byte[] data, int end) throws HttpParseException {
+        // Request line: METHOD SP TARGET SP VERSION
+        int lineEnd = indexOf(data, 0, end, (byte) '\r');
+        if (lineEnd < 0) {
+            lineEnd = end;
+        }
+        int sp1 = indexOf(data, 0, lineEnd, (byte) ' ');
+        int sp2 = sp1 < 0 ? -1 : indexOf(data, sp1 + 1, lineEnd, (byte) ' ');
+        if (sp1 <= 0 || sp2 < 0 || sp2 == sp1 + 1 || sp2 + 1 >= lineEnd) {
+            throw new HttpParseException("400 Bad Request", "Invalid request line");
+        }
+
+        method = regionEquals(data, 0, sp1, GET) ? "GET"
+                : regionEquals(data, 0, sp1, PUT) ? "PUT"
+                : new String(data, 0, sp1, StandardCharsets.ISO_8859_1);
+
+        int question = indexOf(data, sp1 + 1, sp2, (byte) '?');
+        int pathEnd = question < 0 ? sp2 : question;
+        path = regionEquals(data, sp1 + 1, pathEnd, WEATHER_PATH) ? "/weather.json"
+                : new String(data, sp1 + 1, pathEnd - sp1 - 1, StandardCharsets.ISO_8859_1);
+        query = question < 0 ? null : new String(data, question + 1, sp2 - question - 1, StandardCharsets.ISO_8859_1);
+        http10 = regionEquals(data, sp2 + 1, lineEnd, HTTP_1_0);
+
+        // Headers: only the ones the server acts on are decoded
+        connectionToken = 0;
+        contentLength = 0;
+        acceptEncoding = null;
+        ifNoneMatch = null;
+        int pos = lineEnd + 2;
+        while (pos < end) {
+            int eol = indexOf(data, pos, end, (byte) '\r');
+            if (eol < 0) {
+                eol = end;
+            }
+            int colon = indexOf(data, pos, eol, (byte) ':');
+            if (colon > pos) {
+                int valueStart = colon + 1;
+                int valueEnd = eol;
+                while (valueStart < valueEnd && (data[valueStart] == ' ' || data[valueStart] == '\t')) {
+                    valueStart++;
+                }
+                while (valueEnd > valueStart && (data[valueEnd - 1] == ' ' || data[valueEnd - 1] == '\t')) {
+                    valueEnd--;
+                }
+                if (equalsIgnoreCase(data, pos, colon, CONTENT_LENGTH)) {
+                    contentLength = parseContentLength(data, valueStart, valueEnd);
+                } else if (equalsIgnoreCase(data, pos, colon, CONNECTION)) {
+                    if (equalsIgnoreCase(data, valueStart, valueEnd, CLOSE)) {
+                        connectionToken = 1;
+                    } else if (equalsIgnoreCase(data, valueStart, valueEnd, KEEP_ALIVE)) {
+                        connectionToken = 2;
+                    }
+                } else if (equalsIgnoreCase(data, pos, colon, ACCEPT_ENCODING)) {
+                    acceptEncoding = new String(data, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1);
+                } else if (equalsIgnoreCase(data, pos, colon, IF_NONE_MATCH)) {
+                    ifNoneMatch = new String(data, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1);
+                } else if (equalsIgnoreCase(data, pos, colon, TRANSFER_ENCODING)) {
+                    throw new HttpParseException("501 Not Implemented", "Transfer-Encoding is not supported");
+                }
+            }
+            pos = eol + 2;
+        }
+    }
+
+    private static int parseContentLength(byte[] data, int start, int end) throws HttpParseException {
+        if (start == end) {
+            throw new HttpParseException("400 Bad Request", "Invalid Content-Length");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new HttpParseException("400 Bad Request", "Invalid Content-Length");
+            }
+            value = value * 10 + digit;
+            if (value > MAX_BODY_SIZE) {
+                throw new HttpParseException("413 Payload Too Large", "Request body too large");
+            }
+        }
+        return (int) value;
+    }
+
+    private int indexOfHeadEnd(byte[] data, int limit) {
+        for (int i = Math.max(0, scanFrom - 3); i + 3 < limit; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+                return i;
+            }
+        }
+        scanFrom = limit;
+        return -1;
+    }
+
+    /**
+     * Discards the first {@code count} bytes and resets per-request state.
+     */
+    private void consume(int count) {
+        buffer.flip();
+        buffer.position(count);
+        buffer.compact();
+        headEnd = -1;
+        scanFrom = 0;
+    }
+
+    private void grow(int capacity) {
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    private static int indexOf(byte[] data, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(byte[] data, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (data[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares an ASCII region against a lower-case constant, ignoring case.
+     */
+    private static boolean equalsIgnoreCase(byte[] data, int start, int end, byte[] lowerCase) {
+        if (end - start != lowerCase.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length; i++) {
+            byte b = data[start + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,116 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An HTTP response ready to be written to a socket or channel.
+ */
+public class HttpResponse {
+    private final String status;
+    private final Map<String, String> headers;
+    private final byte[] body;
+
+    /**
+     * Creates a new response. The Content-Length header is always set from the body.
+     *
+     * @param status  HTTP status (e.g., "200 OK").
+     * @param headers Response headers.
+     * @param body    Response body, empty if there is none.
+     */
+    public HttpResponse(String status, Map<String, String> headers, byte[] body) {
+        this.status = status;
+        this.headers = new LinkedHashMap<>(headers);
+        this.body = body;
+        this.headers.put("Content-Length", String.valueOf(body.length));
+    }
+
+    /**
+     * Creates a plain text response with no extra headers.
+     *
+     * @param status HTTP status (e.g., "400 Bad Request").
+     * @param body   Response body text.
+     * @return The response.
+     */
+    public static HttpResponse text(String status, String body) {
+        return new HttpResponse(status, new LinkedHashMap<>(), body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates the head of a Server-Sent Events stream. It has no Content-Length, since events
+     * follow until the connection closes, and no other request is read on that connection.
+     *
+     * @return The response, with an empty body.
+     */
+    public static HttpResponse eventStream() {
+        HttpResponse response = text("200 OK", "");
+        response.headers.remove("Content-Length");
+        response.setHeader("Content-Type", "text/event-stream");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Connection", "close");
+        return response;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Sets or replaces a header.
+     *
+     * @param name  Header name.
+     * @param value Header value.
+     */
+    public void setHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    /**
+     * Encodes the status line and headers, including the terminating blank line.
+     *
+     * @return The response head as bytes.
+     */
+    public byte[] headBytes() {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("HTTP/1.1 ").append(status).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        sb.append("\r\n");
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Writes the full response to a stream. The caller decides when to flush, so that
+     * pipelined responses can share a single flush.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(headBytes());
+        out.write(body);
+    }
+
+    /**
+     * Encodes the response for a gathering channel write. The body is wrapped, not copied, so a
+     * cached document is written straight from its shared array.
+     *
+     * @return The head and body buffers, ready to be written.
+     */
+    public ByteBuffer[] toByteBuffers() {
+        return new ByteBuffer[]{ByteBuffer.wrap(headBytes()), ByteBuffer.wrap(body)};
+    }
+}
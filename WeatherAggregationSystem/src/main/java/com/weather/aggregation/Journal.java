@@ -0,0 +1,163 @@
+package com.weather.aggregation;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only write-ahead log of data store changes. Each record is framed as a 4-byte length,
+ * a 4-byte CRC32 of the payload and the payload itself (a compact JSON object), so a record torn
+ * by a crash mid-write is detected on replay and cut off.
+ */
+public class Journal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(Journal.class);
+    private static final int HEADER_SIZE = 8;
+
+    private final File file;
+    private final SimpleJsonParser jsonParser = new SimpleJsonParser();
+    private final FileChannel channel;
+
+    /**
+     * Opens (or creates) the journal file for appending.
+     *
+     * @param file The journal file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public Journal(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        channel.position(channel.size());
+    }
+
+    /**
+     * Replays every intact record in order. A torn or corrupt tail is truncated so that later
+     * appends follow the last good record.
+     *
+     * @param consumer Receives each decoded record.
+     * @return The number of records replayed.
+     * @throws IOException If the file cannot be read.
+     */
+    public int replay(Consumer<Map<String, Object>> consumer) throws IOException {
+        long goodEnd = 0;
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0 || goodEnd + HEADER_SIZE + length > file.length()) {
+                    logger.warn("Journal {} has a torn record at offset {}", file, goodEnd);
+                    break;
+                }
+                int checksum = in.readInt();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (checksum != crc(payload)) {
+                    logger.warn("Journal {} has a corrupt record at offset {}", file, goodEnd);
+                    break;
+                }
+                consumer.accept(jsonParser.parse(payload));
+                goodEnd += HEADER_SIZE + length;
+                count++;
+            }
+        } catch (EOFException e) {
+            logger.warn("Journal {} ends mid-record at offset {}", file, goodEnd);
+        }
+        if (channel.size() > goodEnd) {
+            channel.truncate(goodEnd);
+        }
+        channel.position(goodEnd);
+        return count;
+    }
+
+    /**
+     * Appends one record.
+     *
+     * @param record The record to append.
+     * @throws IOException If the write fails.
+     */
+    public void append(Map<String, Object> record) throws IOException {
+        append(Collections.singletonList(record));
+    }
+
+    /**
+     * Appends a batch of records with a single write.
+     *
+     * @param records The records to append, in order.
+     * @throws IOException If the write fails.
+     */
+    public void append(List<Map<String, Object>> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<byte[]> payloads = new ArrayList<>(records.size());
+        int total = 0;
+        for (Map<String, Object> record : records) {
+            byte[] payload = jsonParser.toJsonBytes(record);
+            payloads.add(payload);
+            total += HEADER_SIZE + payload.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for (byte[] payload : payloads) {
+            buffer.putInt(payload.length).putInt(crc(payload)).put(payload);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Forces appended records to stable storage.
+     *
+     * @throws IOException If the fsync fails.
+     */
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Discards every record, typically right after a checkpoint has captured them in a snapshot.
+     *
+     * @throws IOException If the file cannot be truncated.
+     */
+    public void reset() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+    }
+
+    /**
+     * Returns the current size of the journal file.
+     *
+     * @return The size in bytes.
+     * @throws IOException If the size cannot be read.
+     */
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,436 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pull-style JSON tokenizer that reads UTF-8 bytes directly from a {@code byte[]}, {@link ByteBuffer}
+ * or {@link InputStream}. {@link #next()} returns an {@code int} token type instead of a token object;
+ * the value of the current string or number token is only decoded when asked for, so skipped values
+ * and punctuation cost no allocation.
+ */
+public class JsonReader {
+    public static final int EOF = 0;
+    public static final int LEFT_BRACE = 1;
+    public static final int RIGHT_BRACE = 2;
+    public static final int LEFT_BRACKET = 3;
+    public static final int RIGHT_BRACKET = 4;
+    public static final int COMMA = 5;
+    public static final int COLON = 6;
+    public static final int STRING = 7;
+    public static final int NUMBER = 8;
+    public static final int TRUE = 9;
+    public static final int FALSE = 10;
+    public static final int NULL = 11;
+
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    // Powers of ten that are exact doubles, for the fast decimal path
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final InputStream in;
+    private final ByteBuffer source;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    // Start of the token being scanned; bytes from here on survive a refill
+    private int mark = -1;
+
+    // Current STRING token: the bytes between the quotes
+    private int tokenStart;
+    private int tokenEnd;
+    private boolean tokenEscaped;
+    private boolean tokenAscii;
+    // Current NUMBER token
+    private boolean tokenInteger;
+    private char[] chars;
+
+    /**
+     * Reads from part of a byte array.
+     *
+     * @param bytes  The UTF-8 encoded JSON.
+     * @param offset The first byte to read.
+     * @param length The number of bytes to read.
+     */
+    public JsonReader(byte[] bytes, int offset, int length) {
+        this.in = null;
+        this.source = null;
+        this.buf = bytes;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer without changing its position. Heap buffers are read
+     * in place; direct buffers are copied in chunks.
+     *
+     * @param buffer The UTF-8 encoded JSON.
+     */
+    public JsonReader(ByteBuffer buffer) {
+        this.in = null;
+        if (buffer.hasArray()) {
+            this.source = null;
+            this.buf = buffer.array();
+            this.pos = buffer.arrayOffset() + buffer.position();
+            this.limit = buffer.arrayOffset() + buffer.limit();
+        } else {
+            this.source = buffer.duplicate();
+            this.buf = new byte[STREAM_BUFFER_SIZE];
+        }
+    }
+
+    /**
+     * Reads from a stream, buffering as needed. The stream is not closed.
+     *
+     * @param in The UTF-8 encoded JSON.
+     */
+    public JsonReader(InputStream in) {
+        this.in = in;
+        this.source = null;
+        this.buf = new byte[STREAM_BUFFER_SIZE];
+    }
+
+    /**
+     * Advances to the next token.
+     *
+     * @return The token type, one of the constants of this class.
+     * @throws IOException If the input is not valid JSON or cannot be read.
+     */
+    public int next() throws IOException {
+        if (!skipWhitespace()) {
+            return EOF;
+        }
+        byte b = buf[pos];
+        switch (b) {
+            case '{':
+                pos++;
+                return LEFT_BRACE;
+            case '}':
+                pos++;
+                return RIGHT_BRACE;
+            case '[':
+                pos++;
+                return LEFT_BRACKET;
+            case ']':
+                pos++;
+                return RIGHT_BRACKET;
+            case ',':
+                pos++;
+                return COMMA;
+            case ':':
+                pos++;
+                return COLON;
+            case '"':
+                scanString();
+                return STRING;
+            case 't':
+                expectLiteral("true");
+                return TRUE;
+            case 'f':
+                expectLiteral("false");
+                return FALSE;
+            case 'n':
+                expectLiteral("null");
+                return NULL;
+            default:
+                if (b == '-' || isDigit(b)) {
+                    scanNumber();
+                    return NUMBER;
+                }
+                throw new IOException("Unexpected character at position " + pos + ": " + (char) (b & 0xFF));
+        }
+    }
+
+    /**
+     * Decodes the current {@link #STRING} token.
+     *
+     * @return The string value.
+     * @throws IOException If the string contains an invalid escape.
+     */
+    public String stringValue() throws IOException {
+        int length = tokenEnd - tokenStart;
+        if (!tokenEscaped) {
+            // ISO-8859-1 maps ASCII bytes straight to chars, which is the cheapest decode
+            return new String(buf, tokenStart, length,
+                    tokenAscii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+        }
+        return decodeEscaped();
+    }
+
+    /**
+     * Returns the current {@link #NUMBER} token as an {@link Integer} when it is a whole number that
+     * fits, a {@link Long} when it is a larger whole number, and a {@link Double} otherwise.
+     *
+     * @return The number value.
+     */
+    public Number numberValue() {
+        if (tokenInteger && tokenEnd - tokenStart <= 18) {
+            long value = parseLong();
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                return (int) value;
+            }
+            return value;
+        }
+        return doubleValue();
+    }
+
+    /**
+     * Returns the current {@link #NUMBER} token as a double.
+     *
+     * @return The number value.
+     */
+    public double doubleValue() {
+        // Exact when the digits fit in a double's mantissa and the power of ten is exact
+        boolean negative = buf[tokenStart] == '-';
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        int i = negative ? tokenStart + 1 : tokenStart;
+        for (; i < tokenEnd; i++) {
+            byte b = buf[i];
+            if (b == '.') {
+                fraction = true;
+            } else if (isDigit(b)) {
+                if (mantissa != 0 || b != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (fraction) {
+                    fractionDigits++;
+                }
+            } else {
+                break; // exponent
+            }
+        }
+        if (i == tokenEnd && digits <= 15 && fractionDigits < POWERS_OF_TEN.length) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(new String(buf, tokenStart, tokenEnd - tokenStart, StandardCharsets.ISO_8859_1));
+    }
+
+    private long parseLong() {
+        boolean negative = buf[tokenStart] == '-';
+        long value = 0;
+        for (int i = negative ? tokenStart + 1 : tokenStart; i < tokenEnd; i++) {
+            value = value * 10 + (buf[i] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private boolean skipWhitespace() throws IOException {
+        while (true) {
+            if (pos >= limit && !fill()) {
+                return false;
+            }
+            byte b = buf[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return true;
+            }
+            pos++;
+        }
+    }
+
+    private void scanString() throws IOException {
+        mark = pos;
+        pos++; // skip opening quote
+        boolean escaped = false;
+        boolean ascii = true;
+        while (true) {
+            // Loop, as skipping an escaped byte can step past the bytes read so far
+            while (pos >= limit) {
+                if (!fill()) {
+                    throw new IOException("Unterminated string");
+                }
+            }
+            byte b = buf[pos];
+            if (b == '"') {
+                break;
+            }
+            if (b == '\\') {
+                escaped = true;
+                pos++; // the escaped byte is never a closing quote
+            } else if (b < 0) {
+                ascii = false;
+            }
+            pos++;
+        }
+        tokenStart = mark + 1;
+        tokenEnd = pos;
+        tokenEscaped = escaped;
+        tokenAscii = ascii;
+        pos++; // skip closing quote
+        mark = -1;
+    }
+
+    private void scanNumber() throws IOException {
+        mark = pos;
+        boolean integer = true;
+        if (buf[pos] == '-') {
+            pos++;
+        }
+        int digitsStart = pos;
+        scanDigits();
+        if (pos == digitsStart) {
+            throw new IOException("Invalid number at position " + mark);
+        }
+        if (peekByte() == '.') {
+            integer = false;
+            pos++;
+            scanDigits();
+        }
+        int b = peekByte();
+        if (b == 'e' || b == 'E') {
+            integer = false;
+            pos++;
+            b = peekByte();
+            if (b == '+' || b == '-') {
+                pos++;
+            }
+            scanDigits();
+        }
+        tokenStart = mark;
+        tokenEnd = pos;
+        tokenInteger = integer;
+        mark = -1;
+    }
+
+    private void scanDigits() throws IOException {
+        while ((pos < limit || fill()) && isDigit(buf[pos])) {
+            pos++;
+        }
+    }
+
+    private int peekByte() throws IOException {
+        return pos < limit || fill() ? buf[pos] : -1;
+    }
+
+    private void expectLiteral(String literal) throws IOException {
+        int start = pos;
+        for (int i = 0; i < literal.length(); i++) {
+            if ((pos >= limit && !fill()) || buf[pos] != literal.charAt(i)) {
+                throw new IOException("Unexpected character at position " + start);
+            }
+            pos++;
+        }
+    }
+
+    // Reads more input, keeping the token being scanned; returns false at the end of input
+    private boolean fill() throws IOException {
+        if (in == null && source == null) {
+            return false;
+        }
+        int keep = mark >= 0 ? mark : pos;
+        if (keep > 0) {
+            System.arraycopy(buf, keep, buf, 0, limit - keep);
+            limit -= keep;
+            pos -= keep;
+            if (mark >= 0) {
+                mark = 0;
+            }
+        }
+        if (limit == buf.length) {
+            byte[] grown = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, grown, 0, limit);
+            buf = grown;
+        }
+        int read;
+        if (in != null) {
+            read = in.read(buf, limit, buf.length - limit);
+        } else {
+            read = Math.min(source.remaining(), buf.length - limit);
+            source.get(buf, limit, read);
+            if (read == 0) {
+                read = -1;
+            }
+        }
+        if (read <= 0) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    private String decodeEscaped() throws IOException {
+        int length = tokenEnd - tokenStart;
+        if (chars == null || chars.length < length) {
+            chars = new char[Math.max(length, 64)];
+        }
+        int count = 0;
+        int i = tokenStart;
+        while (i < tokenEnd) {
+            int b = buf[i++];
+            if (b == '\\') {
+                byte e = buf[i++];
+                switch (e) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        chars[count++] = (char) e;
+                        break;
+                    case 'b':
+                        chars[count++] = '\b';
+                        break;
+                    case 'f':
+                        chars[count++] = '\f';
+                        break;
+                    case 'n':
+                        chars[count++] = '\n';
+                        break;
+                    case 'r':
+                        chars[count++] = '\r';
+                        break;
+                    case 't':
+                        chars[count++] = '\t';
+                        break;
+                    case 'u':
+                        if (i + 4 > tokenEnd) {
+                            throw new IOException("Invalid Unicode escape sequence");
+                        }
+                        int code = 0;
+                        for (int j = 0; j < 4; j++) {
+                            int digit = Character.digit(buf[i++], 16);
+                            if (digit < 0) {
+                                throw new IOException("Invalid Unicode escape sequence");
+                            }
+                            code = (code << 4) | digit;
+                        }
+                        chars[count++] = (char) code;
+                        break;
+                    default:
+                        throw new IOException("Invalid escape character: \\" + (char) (e & 0xFF));
+                }
+            } else if (b >= 0) {
+                chars[count++] = (char) b;
+            } else {
+                // Multi-byte UTF-8 sequence
+                int codePoint;
+                int extra;
+                if ((b & 0xE0) == 0xC0) {
+                    codePoint = b & 0x1F;
+                    extra = 1;
+                } else if ((b & 0xF0) == 0xE0) {
+                    codePoint = b & 0x0F;
+                    extra = 2;
+                } else {
+                    codePoint = b & 0x07;
+                    extra = 3;
+                }
+                for (int j = 0; j < extra && i < tokenEnd; j++) {
+                    codePoint = (codePoint << 6) | (buf[i++] & 0x3F);
+                }
+                count += Character.toChars(codePoint, chars, count);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static boolean isDigit(int b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,375 @@
+package com.weather.aggregation;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes maps, lists, strings, numbers and booleans as UTF-8 JSON straight into a byte buffer
+ * that is drained to an {@link OutputStream}, {@link WritableByteChannel} or {@link ByteBuffer}.
+ * Strings are escaped and encoded char by char, and whole numbers and most decimals are formatted
+ * digit by digit, so no intermediate {@code String} or {@code StringBuilder} holds the document.
+ * Without a target, the bytes are collected in memory and returned by {@link #toByteArray()}.
+ */
+public class JsonWriter implements Flushable {
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+    // Range Double.toString writes in plain notation; outside it doubles fall back to Double.toString
+    private static final double MAX_PLAIN_DOUBLE = 1e7;
+    private static final double MIN_PLAIN_DOUBLE = 1e-3;
+
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private final ByteBuffer target;
+    private byte[] buf;
+    private int count;
+
+    /**
+     * Creates a writer that collects the bytes in memory.
+     */
+    public JsonWriter() {
+        this(null, null, null, 256);
+    }
+
+    /**
+     * Creates a writer that drains to a stream. Call {@link #flush()} when done.
+     *
+     * @param out The stream to write to; it is not closed.
+     */
+    public JsonWriter(OutputStream out) {
+        this(out, null, null, BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a writer that drains to a channel. Call {@link #flush()} when done.
+     *
+     * @param channel The channel to write to; it is not closed.
+     */
+    public JsonWriter(WritableByteChannel channel) {
+        this(null, channel, null, BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a writer that drains into a buffer. Call {@link #flush()} when done.
+     *
+     * @param target The buffer to fill from its position.
+     * @throws java.nio.BufferOverflowException On flush, if the document does not fit.
+     */
+    public JsonWriter(ByteBuffer target) {
+        this(null, null, target, BUFFER_SIZE);
+    }
+
+    private JsonWriter(OutputStream out, WritableByteChannel channel, ByteBuffer target, int bufferSize) {
+        this.out = out;
+        this.channel = channel;
+        this.target = target;
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * Writes any supported value: {@code null}, a {@link Map} with string keys, a {@link List},
+     * a {@link WeatherObservation}, a {@link String}, a {@link Number} or a {@link Boolean}.
+     * Anything else is written as the string form of {@code toString()}.
+     *
+     * @param value The value to write.
+     * @return This writer.
+     * @throws IOException If draining to the target fails.
+     */
+    public JsonWriter value(Object value) throws IOException {
+        if (value == null) {
+            raw(NULL, 0, NULL.length);
+        } else if (value instanceof Map) {
+            writeObject((Map<String, Object>) value);
+        } else if (value instanceof WeatherObservation) {
+            ((WeatherObservation) value).writeTo(this);
+        } else if (value instanceof List) {
+            writeArray((List<Object>) value);
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            writeAscii(value.toString());
+        } else if (value instanceof Boolean) {
+            byte[] literal = (Boolean) value ? TRUE : FALSE;
+            raw(literal, 0, literal.length);
+        } else {
+            writeString(value.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Writes a quoted, escaped string.
+     *
+     * @param value The string.
+     * @throws IOException If draining to the target fails.
+     */
+    public void writeString(String value) throws IOException {
+        write('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    write('\\');
+                }
+                write(c);
+            } else if (c < 0x20) {
+                writeControl(c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buf[count++] = (byte) (0xC0 | (c >> 6));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensure(4);
+                buf[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                write('?'); // unpaired surrogate, not representable in UTF-8
+            } else {
+                ensure(3);
+                buf[count++] = (byte) (0xE0 | (c >> 12));
+                buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        write('"');
+    }
+
+    /**
+     * Writes a whole number.
+     *
+     * @param value The number.
+     * @throws IOException If draining to the target fails.
+     */
+    public void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buf[count++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = count + digits;
+        for (int i = end - 1; i >= count; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count = end;
+    }
+
+    /**
+     * Writes a double using the shortest decimal with up to nine fraction digits that reads back
+     * as the same value, in the plain notation {@link Double#toString(double)} uses for this
+     * range (e.g. {@code 13.3}, {@code 15.0}). Other values fall back to {@code Double.toString}.
+     *
+     * @param value The number.
+     * @throws IOException If draining to the target fails.
+     */
+    public void writeDouble(double value) throws IOException {
+        double magnitude = Math.abs(value);
+        if (magnitude < MAX_PLAIN_DOUBLE && (magnitude >= MIN_PLAIN_DOUBLE || value == 0)) {
+            for (int scale = 1; scale < POWERS_OF_TEN.length; scale++) {
+                double scaled = Math.rint(magnitude * POWERS_OF_TEN[scale]);
+                if (scaled / POWERS_OF_TEN[scale] == magnitude) {
+                    writeDecimal(value < 0 || (value == 0 && 1 / value < 0), (long) scaled, scale);
+                    return;
+                }
+            }
+        }
+        writeAscii(Double.toString(value));
+    }
+
+    // Writes unscaled / 10^scale, trimming trailing zeros but keeping one fraction digit
+    private void writeDecimal(boolean negative, long unscaled, int scale) throws IOException {
+        while (scale > 1 && unscaled % 10 == 0) {
+            unscaled /= 10;
+            scale--;
+        }
+        if (negative) {
+            write('-');
+        }
+        writeLong(unscaled / POWERS_OF_TEN[scale]);
+        write('.');
+        long fraction = unscaled % POWERS_OF_TEN[scale];
+        ensure(scale);
+        for (int i = scale - 1; i >= 0; i--) {
+            buf[count + i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        count += scale;
+    }
+
+    /**
+     * Copies already-encoded JSON, such as a cached document, into the output.
+     *
+     * @param bytes  The encoded bytes.
+     * @param offset The first byte to copy.
+     * @param length The number of bytes to copy.
+     * @throws IOException If draining to the target fails.
+     */
+    public void raw(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buf.length - count && (out != null || channel != null || target != null)) {
+            drain();
+            if (length > buf.length) {
+                writeToTarget(bytes, offset, length);
+                return;
+            }
+        }
+        ensure(length);
+        System.arraycopy(bytes, offset, buf, count, length);
+        count += length;
+    }
+
+    /**
+     * Writes a single ASCII character such as a brace or comma.
+     *
+     * @param c The character.
+     * @throws IOException If draining to the target fails.
+     */
+    public void write(char c) throws IOException {
+        ensure(1);
+        buf[count++] = (byte) c;
+    }
+
+    /**
+     * Returns the bytes collected by an in-memory writer.
+     *
+     * @return A copy of the encoded document.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    /**
+     * Drains buffered bytes to the target and flushes a stream target.
+     *
+     * @throws IOException If the write fails.
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    private void writeObject(Map<String, Object> map) throws IOException {
+        write('{');
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            if (!first) {
+                write(',');
+            }
+            writeString(entry.getKey());
+            write(':');
+            value(entry.getValue());
+            first = false;
+        }
+        write('}');
+    }
+
+    private void writeArray(List<Object> list) throws IOException {
+        write('[');
+        boolean first = true;
+        for (Object value : list) {
+            if (!first) {
+                write(',');
+            }
+            value(value);
+            first = false;
+        }
+        write(']');
+    }
+
+    private void writeControl(char c) throws IOException {
+        ensure(6);
+        buf[count++] = '\\';
+        switch (c) {
+            case '\n':
+                buf[count++] = 'n';
+                break;
+            case '\r':
+                buf[count++] = 'r';
+                break;
+            case '\t':
+                buf[count++] = 't';
+                break;
+            case '\b':
+                buf[count++] = 'b';
+                break;
+            case '\f':
+                buf[count++] = 'f';
+                break;
+            default:
+                buf[count++] = 'u';
+                buf[count++] = '0';
+                buf[count++] = '0';
+                buf[count++] = HEX[c >> 4];
+                buf[count++] = HEX[c & 0xF];
+        }
+    }
+
+    private void writeAscii(String text) throws IOException {
+        ensure(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buf[count++] = (byte) text.charAt(i);
+        }
+    }
+
+    // Makes room for n more bytes, draining to the target or growing the in-memory buffer
+    private void ensure(int n) throws IOException {
+        if (count + n <= buf.length) {
+            return;
+        }
+        if (out != null || channel != null || target != null) {
+            drain();
+        }
+        if (count + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+        }
+    }
+
+    private void drain() throws IOException {
+        if (count > 0 && (out != null || channel != null || target != null)) {
+            writeToTarget(buf, 0, count);
+            count = 0;
+        }
+    }
+
+    private void writeToTarget(byte[] bytes, int offset, int length) throws IOException {
+        if (out != null) {
+            out.write(bytes, offset, length);
+        } else if (channel != null) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } else {
+            target.put(bytes, offset, length);
+        }
+    }
+}
@@ -1,32 +1,66 @@
 package com.weather.aggregation;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
- * Implements Lamport's logical clock for synchronization in distributed systems.
+ * Implements Lamport's logical clock for synchronization in distributed systems. The time is a
+ * 64-bit counter advanced by atomic instructions rather than a lock, so request handlers on many
+ * threads do not queue behind one another, and every operation returns the time it assigned.
  */
 public class LamportClock {
-    private int clock;
+    private final AtomicLong clock = new AtomicLong();
 
     /**
      * Initializes the Lamport clock to zero.
      */
     public LamportClock() {
-        this.clock = 0;
     }
 
     /**
      * Increments the clock to represent a local event.
+     *
+     * @return The time assigned to the event.
      */
-    public synchronized void tick() {
-        clock++;
+    public long tick() {
+        return clock.incrementAndGet();
     }
 
     /**
      * Updates the clock based on a received clock value.
      *
      * @param receivedClock The Lamport clock value received from another process.
+     * @return The time assigned to the receive event.
+     */
+    public long update(long receivedClock) {
+        return advance(receivedClock, 1);
+    }
+
+    /**
+     * Updates the clock based on a received clock value and then ticks for the local event that
+     * handles it, as one atomic step.
+     *
+     * @param receivedClock The Lamport clock value received from another process.
+     * @return The time assigned to the local event.
      */
-    public synchronized void update(int receivedClock) {
-        clock = Math.max(clock, receivedClock) + 1;
+    public long updateAndTick(long receivedClock) {
+        return advance(receivedClock, 2);
+    }
+
+    // Sets the clock to max(clock, receivedClock) + steps
+    private long advance(long receivedClock, int steps) {
+        long current = clock.get();
+        if (receivedClock < current) {
+            // The clock is already ahead and only moves forward, so a plain add gives the same
+            // result as the loop below, and an add never has to retry under contention
+            return clock.addAndGet(steps);
+        }
+        while (true) {
+            long next = Math.max(current, receivedClock) + steps;
+            if (clock.compareAndSet(current, next)) {
+                return next;
+            }
+            current = clock.get();
+        }
     }
 
     /**
@@ -34,8 +68,8 @@ public class LamportClock {
      *
      * @return The current Lamport clock value.
      */
-    public synchronized int getTime() {
-        return clock;
+    public long getTime() {
+        return clock.get();
     }
 
     /**
@@ -43,7 +77,7 @@ public class LamportClock {
      *
      * @param time The value to set the Lamport clock to.
      */
-    public synchronized void setTime(int time) {
-        this.clock = time;
+    public void setTime(long time) {
+        clock.set(time);
     }
 }
@@ -0,0 +1,11 @@
+package com.weather.aggregation;
+
+/**
+ * How the data store persists changes to disk.
+ */
+public enum PersistenceMode {
+    /** Rewrite the whole JSON snapshot on every change. */
+    SNAPSHOT,
+    /** Append each change to a journal and write the snapshot only at periodic checkpoints. */
+    JOURNAL
+}
@@ -0,0 +1,189 @@
+package com.weather.aggregation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Group-commit persister. Changes are queued by writers once applied in memory and a single
+ * background thread writes them out in queue order, in batches, with one write and at most one fsync
+ * per batch. Each submitter gets a future that completes once its change is as durable as the
+ * configured {@link Durability} requires, so no file I/O happens while the data store lock is held.
+ */
+public class Persister implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(Persister.class);
+
+    /**
+     * Writes one batch of records to storage.
+     */
+    public interface BatchWriter {
+        /**
+         * @param records The records in submission order.
+         * @param sync    True if the batch must be fsynced before returning.
+         * @throws IOException If the batch could not be written.
+         */
+        void write(List<Map<String, Object>> records, boolean sync) throws IOException;
+    }
+
+    private final BatchWriter writer;
+    private final Durability durability;
+    private final long commitIntervalMillis;
+    private final int batchSize;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * Starts the persister thread.
+     *
+     * @param writer               Writes batches to storage.
+     * @param durability           When submitted changes count as done.
+     * @param commitIntervalMillis How long to wait for more changes once the first one is queued.
+     * @param batchSize            The most submissions flushed in one batch; the records of one
+     *                             submission are never split.
+     */
+    public Persister(BatchWriter writer, Durability durability, long commitIntervalMillis, int batchSize) {
+        this.writer = writer;
+        this.durability = durability;
+        this.commitIntervalMillis = durability == Durability.PER_REQUEST ? 0 : commitIntervalMillis;
+        this.batchSize = durability == Durability.PER_REQUEST ? 1 : batchSize;
+        this.thread = new Thread(this::run, "persister");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a record. Records are written in the order they are queued, which for racing writers
+     * need not be the order their changes were applied; the data store stamps every record and
+     * skips, on replay, any record not newer than the station's last change or than the stamp
+     * the latest snapshot covers.
+     *
+     * @param record The record to persist.
+     * @return A future completed when the record is durable (immediately with {@link Durability#NONE}).
+     */
+    public CompletableFuture<Void> submit(Map<String, Object> record) {
+        return submitAll(Collections.singletonList(record));
+    }
+
+    /**
+     * Queues several records that are always written in the same batch, such as the changes of
+     * one multi-station PUT.
+     *
+     * @param records The records to persist, in the order they were applied.
+     * @return A future completed when every record is durable (immediately with {@link Durability#NONE}).
+     */
+    public CompletableFuture<Void> submitAll(List<Map<String, Object>> records) {
+        Pending pending = new Pending(records);
+        if (!running) {
+            pending.done.completeExceptionally(new IOException("Persister is closed"));
+            return pending.done;
+        }
+        queue.add(pending);
+        return durability == Durability.NONE ? CompletableFuture.completedFuture(null) : pending.done;
+    }
+
+    /**
+     * Queues a record and waits until it has been written, whatever the durability level.
+     *
+     * @param record The record to persist.
+     * @throws IOException If the batch holding the record failed.
+     */
+    public void submitAndWait(Map<String, Object> record) throws IOException {
+        if (!running) {
+            throw new IOException("Persister is closed");
+        }
+        Pending pending = new Pending(Collections.singletonList(record));
+        queue.add(pending);
+        try {
+            pending.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for persister", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Persist failed", e.getCause());
+        }
+    }
+
+    /**
+     * Flushes everything already queued, then stops the persister thread.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>();
+        List<Map<String, Object>> records = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                collect(batch);
+                for (Pending pending : batch) {
+                    records.addAll(pending.records);
+                }
+                writer.write(records, durability != Durability.NONE);
+                for (Pending pending : batch) {
+                    pending.done.complete(null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to persist {} changes", batch.size(), e);
+                for (Pending pending : batch) {
+                    pending.done.completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+                records.clear();
+            }
+        }
+    }
+
+    // Gather more queued changes until the batch is full or the commit interval has passed
+    private void collect(List<Pending> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commitIntervalMillis);
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private static class Pending {
+        final List<Map<String, Object>> records;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(List<Map<String, Object>> records) {
+            this.records = records;
+        }
+    }
+}
@@ -0,0 +1,592 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies PUT and GET requests to the data store. Shared by every server mode so that
+ * the transport (blocking sockets or NIO channels) only has to read requests and write responses.
+ */
+public class RequestProcessor {
+    private static final Logger logger = LoggerFactory.getLogger(RequestProcessor.class);
+    // Smaller bodies are sent uncompressed, as the coding overhead outweighs the saving
+    private static final int MIN_COMPRESSED_SIZE = 256;
+    // Stations returned by a near query without a k, and the most it may ask for
+    private static final int DEFAULT_NEAR = 5;
+    private static final int MAX_NEAR = 100;
+    // Distinct where= expressions kept compiled; dashboards repeat a small set of them
+    private static final int QUERY_CACHE_SIZE = 256;
+    /** Path of the Server-Sent Events stream of station changes. */
+    public static final String STREAM_PATH = "/weather/stream";
+    /** Path of a station's recent readings. */
+    public static final String HISTORY_PATH = "/weather/history";
+    /** Path of a station's windowed min/max/avg rollups. */
+    public static final String ROLLUP_PATH = "/weather/rollup";
+    private final LamportClock lamportClock;
+    private final DataStore dataStore;
+    private final SimpleJsonParser jsonParser;
+    private final AdmissionController admission;
+    private final int retryAfterSeconds;
+    // Compiled where= expressions by their text, least recently used first
+    private final Map<String, StationQuery> compiledQueries = Collections.synchronizedMap(
+            new LinkedHashMap<String, StationQuery>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, StationQuery> eldest) {
+                    return size() > QUERY_CACHE_SIZE;
+                }
+            });
+
+    /**
+     * Initializes the processor with the shared resources and default admission limits.
+     *
+     * @param lamportClock The shared Lamport clock.
+     * @param dataStore    The shared data store.
+     */
+    public RequestProcessor(LamportClock lamportClock, DataStore dataStore) {
+        this(lamportClock, dataStore, new ServerConfig(0));
+    }
+
+    /**
+     * Initializes the processor with the shared resources and the configured admission limits.
+     *
+     * @param lamportClock The shared Lamport clock.
+     * @param dataStore    The shared data store.
+     * @param config       The server configuration.
+     */
+    public RequestProcessor(LamportClock lamportClock, DataStore dataStore, ServerConfig config) {
+        this.lamportClock = lamportClock;
+        this.dataStore = dataStore;
+        this.jsonParser = new SimpleJsonParser();
+        this.admission = new AdmissionController(config);
+        this.retryAfterSeconds = config.getRetryAfterSeconds();
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admission;
+    }
+
+    /**
+     * Processes a single request, waiting in the admission queue if its budget is busy.
+     *
+     * @param request The parsed request.
+     * @return The response to send back.
+     */
+    public HttpResponse process(HttpRequest request) {
+        return process(request, true);
+    }
+
+    /**
+     * Processes a single request.
+     *
+     * @param request  The parsed request.
+     * @param mayQueue False if the calling thread must never block waiting for admission
+     *                 (event-loop threads); such requests are shed as soon as the budget is full.
+     * @return The response to send back.
+     */
+    public HttpResponse process(HttpRequest request, boolean mayQueue) {
+        return processAsync(request, mayQueue).join();
+    }
+
+    /**
+     * Processes a single request without waiting for persistence. GETs complete immediately; a PUT
+     * completes once its change is as durable as the data store is configured to make it.
+     *
+     * @param request  The parsed request.
+     * @param mayQueue False if the calling thread must never block waiting for admission.
+     * @return A future of the response to send back.
+     */
+    public CompletableFuture<HttpResponse> processAsync(HttpRequest request, boolean mayQueue) {
+        String method = request.getMethod();
+        String path = request.getPath();
+        AdmissionController.RequestClass requestClass;
+        if (method.equalsIgnoreCase("PUT") && path.equalsIgnoreCase("/weather.json")) {
+            requestClass = AdmissionController.RequestClass.PUT;
+        } else if (method.equalsIgnoreCase("GET") && (path.equals("/weather.json") || path.equals(HISTORY_PATH)
+                || path.equals(ROLLUP_PATH))) {
+            requestClass = AdmissionController.RequestClass.GET;
+        } else if (method.equalsIgnoreCase("GET") && path.equals("/stats")) {
+            return CompletableFuture.completedFuture(handleStats());
+        } else {
+            return CompletableFuture.completedFuture(
+                    HttpResponse.text("400 Bad Request", "Unsupported method or path"));
+        }
+
+        if (!admission.tryAcquire(requestClass, mayQueue)) {
+            return CompletableFuture.completedFuture(serviceUnavailable(retryAfterSeconds));
+        }
+        CompletableFuture<HttpResponse> response;
+        try {
+            if (requestClass == AdmissionController.RequestClass.PUT) {
+                response = handlePUT(request.getBody());
+            } else {
+                response = CompletableFuture.completedFuture(handleGET(request));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Answered with a 500 below, which also gives the admission slot back
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        // A PUT holds its admission slot until it is durable
+        return response.handle((result, error) -> {
+            admission.release(requestClass);
+            if (error != null) {
+                logger.error("Failed to process request", error);
+                return HttpResponse.text("500 Internal Server Error", "Internal server error");
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Tells whether a request opens an event stream. Streams outlive a single response, so the
+     * transport handles them with {@link #openStream(HttpRequest, Runnable)} instead of
+     * {@link #processAsync(HttpRequest, boolean)}.
+     *
+     * @param request The parsed request.
+     * @return True for {@code GET /weather/stream}.
+     */
+    public boolean isStream(HttpRequest request) {
+        return request.getMethod().equalsIgnoreCase("GET") && request.getPath().equals(STREAM_PATH);
+    }
+
+    /**
+     * Subscribes a stream request to station changes, following only the station named by its
+     * {@code station_id} parameter if there is one. The transport sends {@link HttpResponse#eventStream()}
+     * and then the subscription's events until the client goes away or the subscription overflows.
+     *
+     * @param request The stream request.
+     * @param onReady Called when events become available, or null if the transport waits for them.
+     * @return The subscription, which the transport must cancel when the stream ends.
+     * @throws IOException If the query cannot be decoded.
+     */
+    public StationFeed.Subscription openStream(HttpRequest request, Runnable onReady) throws IOException {
+        String stationId = parseQuery(request.getQuery()).get("station_id");
+        lamportClock.tick();
+        return dataStore.subscribe(stationId, onReady);
+    }
+
+    /**
+     * Builds the response sent when a request or connection is shed.
+     *
+     * @param retryAfterSeconds Seconds the client should wait before retrying.
+     * @return A 503 response with a Retry-After header.
+     */
+    public static HttpResponse serviceUnavailable(int retryAfterSeconds) {
+        HttpResponse response = HttpResponse.text("503 Service Unavailable", "Server is overloaded, retry later");
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        return response;
+    }
+
+    private HttpResponse handleStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("admitted_gets", admission.getAdmittedGets());
+        stats.put("admitted_puts", admission.getAdmittedPuts());
+        stats.put("shed_gets", admission.getShedGets());
+        stats.put("shed_puts", admission.getShedPuts());
+        stats.put("shed_connections", admission.getShedConnections());
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/json");
+        return new HttpResponse("200 OK", headers, jsonParser.toJsonBytes(stats));
+    }
+
+    private CompletableFuture<HttpResponse> handlePUT(byte[] body) {
+        if (body.length == 0) {
+            return CompletableFuture.completedFuture(HttpResponse.text("204 No Content", ""));
+        }
+        if (isArray(body)) {
+            return handleBatchPUT(body);
+        }
+
+        // Parse JSON
+        WeatherObservation jsonData;
+        try {
+            jsonData = jsonParser.parseObservation(body);
+        } catch (IOException e) {
+            logger.error("Failed to parse JSON body", e);
+            return CompletableFuture.completedFuture(HttpResponse.text("400 Bad Request", "Invalid JSON format"));
+        }
+
+        // Check for 'id'
+        Object idField = jsonData.get("id");
+        if (idField == null || !(idField instanceof String)) {
+            return CompletableFuture.completedFuture(
+                    HttpResponse.text("400 Bad Request", "Missing or invalid 'id' field"));
+        }
+
+        // Receive the sender's Lamport time and tick for this update in one step
+        lamportClock.updateAndTick(receivedClock(jsonData));
+
+        // Store data; the response is only released once the change is durable
+        return dataStore.putObservationAsync(jsonData).thenApply(isNew -> {
+            if (isNew) {
+                return HttpResponse.text("201 Created", "Data created successfully");
+            } else {
+                return HttpResponse.text("200 OK", "Data updated successfully");
+            }
+        });
+    }
+
+    /**
+     * Applies a JSON array of observations as one store operation with a single persistence write
+     * and a single Lamport update. Items that are not objects or lack an ID are reported and skipped;
+     * the response lists a status for every item, in order.
+     */
+    private CompletableFuture<HttpResponse> handleBatchPUT(byte[] body) {
+        List<WeatherObservation> items;
+        try {
+            items = jsonParser.parseObservationArray(body);
+        } catch (IOException e) {
+            logger.error("Failed to parse JSON body", e);
+            return CompletableFuture.completedFuture(HttpResponse.text("400 Bad Request", "Invalid JSON format"));
+        }
+        if (items.isEmpty()) {
+            return CompletableFuture.completedFuture(HttpResponse.text("204 No Content", ""));
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>(items.size());
+        List<WeatherObservation> valid = new ArrayList<>(items.size());
+        List<Map<String, Object>> validResults = new ArrayList<>(items.size());
+        long receivedClock = 0;
+        for (int i = 0; i < items.size(); i++) {
+            WeatherObservation item = items.get(i);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("index", i);
+            results.add(result);
+            if (item == null || !(item.get("id") instanceof String)) {
+                result.put("status", 400);
+                result.put("error", "Missing or invalid 'id' field");
+                continue;
+            }
+            result.put("id", item.getId());
+            valid.add(item);
+            validResults.add(result);
+            receivedClock = Math.max(receivedClock, receivedClock(item));
+        }
+        if (valid.isEmpty()) {
+            return CompletableFuture.completedFuture(batchResponse("400 Bad Request", results));
+        }
+
+        lamportClock.updateAndTick(receivedClock);
+
+        // Released once the whole batch is durable
+        return dataStore.putObservationsAsync(valid).thenApply(isNew -> {
+            for (int i = 0; i < isNew.length; i++) {
+                validResults.get(i).put("status", isNew[i] ? 201 : 200);
+            }
+            return batchResponse("200 OK", results);
+        });
+    }
+
+    private HttpResponse batchResponse(String status, List<Map<String, Object>> results) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("results", results);
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/json");
+        return new HttpResponse(status, headers, jsonParser.toJsonBytes(document));
+    }
+
+    // A batch PUT is a JSON array rather than a single object
+    private static boolean isArray(byte[] body) {
+        for (byte b : body) {
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return b == '[';
+            }
+        }
+        return false;
+    }
+
+    // The sender's Lamport time, or 0 if it sent none or an unreadable one
+    private static long receivedClock(WeatherObservation data) {
+        Object lamportClockValue = data.get("lamportClock");
+        if (lamportClockValue instanceof Number) {
+            return ((Number) lamportClockValue).longValue();
+        } else if (lamportClockValue instanceof String) {
+            try {
+                return Long.parseLong((String) lamportClockValue);
+            } catch (NumberFormatException e) {
+                // Ignore, treat as 0
+            }
+        }
+        return 0;
+    }
+
+    private HttpResponse handleGET(HttpRequest request) throws IOException {
+        // Handle query parameters
+        Map<String, String> params;
+        try {
+            params = parseQuery(request.getQuery());
+        } catch (HttpParseException e) {
+            return HttpResponse.text(e.getStatus(), e.getMessage());
+        }
+        String stationId = params.get("station_id");
+        String since = params.get("since");
+
+        // Update Lamport Clock
+        lamportClock.tick();
+
+        if (request.getPath().equals(HISTORY_PATH)) {
+            return handleHistory(request, params);
+        }
+        if (request.getPath().equals(ROLLUP_PATH)) {
+            return handleRollup(request, params);
+        }
+        if (since != null) {
+            long sinceClock;
+            try {
+                sinceClock = Long.parseLong(since);
+            } catch (NumberFormatException e) {
+                return HttpResponse.text("400 Bad Request", "Invalid 'since' value");
+            }
+            // Deltas depend on the caller's clock, so they are neither cached nor tagged
+            return documentResponse(request, dataStore.getChangesSince(sinceClock), null);
+        }
+        if (params.containsKey("near")) {
+            return handleNear(request, params);
+        }
+        if (params.containsKey("bbox")) {
+            return handleBox(request, params);
+        }
+        if (stationId == null && (params.containsKey("fields") || params.containsKey("where") || hasFilter(params))) {
+            return handleFiltered(request, params);
+        }
+
+        // Retrieve the cached, already-encoded document
+        if (stationId != null) {
+            VersionedDocument document = dataStore.getStationDocument(stationId);
+            if (document == null) {
+                return HttpResponse.text("404 Not Found", "Station ID not found");
+            }
+            return documentResponse(request, document, "s");
+        }
+        return documentResponse(request, dataStore.getDocument(), "v");
+    }
+
+    // GET /weather.json?state=SA[&time_zone=CST...][&where=EXPR][&fields=air_temp,press]; filters match exactly
+    private HttpResponse handleFiltered(HttpRequest request, Map<String, String> params) {
+        Map<String, String> filters = new HashMap<>();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (SecondaryIndex.isIndexed(param.getKey())) {
+                filters.put(param.getKey(), param.getValue());
+            }
+        }
+        Set<String> fields = null;
+        if (params.containsKey("fields")) {
+            fields = new LinkedHashSet<>();
+            for (String field : params.get("fields").split(",")) {
+                if (!field.trim().isEmpty()) {
+                    fields.add(field.trim());
+                }
+            }
+            if (fields.isEmpty()) {
+                return HttpResponse.text("400 Bad Request", "Invalid 'fields' value; expected a comma-separated list");
+            }
+        }
+        StationQuery where = null;
+        if (params.containsKey("where")) {
+            try {
+                where = compileQuery(params.get("where"));
+            } catch (IllegalArgumentException e) {
+                return HttpResponse.text("400 Bad Request", "Invalid 'where' value: " + e.getMessage());
+            }
+        }
+        // Filtered and projected documents are built per request, so like deltas they are not tagged
+        byte[] stations = where == null
+                ? dataStore.getStations(filters, fields) : dataStore.getStations(filters, where, fields);
+        return documentResponse(request, new VersionedDocument(0, stations), null);
+    }
+
+    // Expressions are compiled once and reused until they fall out of the cache
+    private StationQuery compileQuery(String text) {
+        StationQuery query = compiledQueries.get(text);
+        if (query == null) {
+            query = StationQuery.compile(text);
+            compiledQueries.put(text, query);
+        }
+        return query;
+    }
+
+    private static boolean hasFilter(Map<String, String> params) {
+        for (String name : params.keySet()) {
+            if (SecondaryIndex.isIndexed(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // GET /weather.json?near=LAT,LON[&k=N]; the 5 nearest stations by default
+    private HttpResponse handleNear(HttpRequest request, Map<String, String> params) {
+        double[] point = parseCoordinates(params.get("near"), 2);
+        if (point == null || !SpatialIndex.isValid(point[0], point[1])) {
+            return HttpResponse.text("400 Bad Request", "Invalid 'near' value; expected lat,lon");
+        }
+        int k = DEFAULT_NEAR;
+        try {
+            if (params.containsKey("k")) {
+                k = Integer.parseInt(params.get("k"));
+            }
+        } catch (NumberFormatException e) {
+            k = 0;
+        }
+        if (k < 1 || k > MAX_NEAR) {
+            return HttpResponse.text("400 Bad Request", "Invalid 'k' value; expected 1 to " + MAX_NEAR);
+        }
+        // Spatial results change with any station, so like deltas they are not tagged
+        byte[] stations = dataStore.getStationsNear(point[0], point[1], k);
+        return documentResponse(request, new VersionedDocument(0, stations), null);
+    }
+
+    // GET /weather.json?bbox=SOUTH,WEST,NORTH,EAST
+    private HttpResponse handleBox(HttpRequest request, Map<String, String> params) {
+        double[] box = parseCoordinates(params.get("bbox"), 4);
+        if (box == null || !SpatialIndex.isValid(box[0], box[1]) || !SpatialIndex.isValid(box[2], box[3])
+                || box[0] > box[2]) {
+            return HttpResponse.text("400 Bad Request", "Invalid 'bbox' value; expected south,west,north,east");
+        }
+        byte[] stations = dataStore.getStationsInBox(box[0], box[1], box[2], box[3]);
+        return documentResponse(request, new VersionedDocument(0, stations), null);
+    }
+
+    // Parses a comma-separated list of exactly count numbers, or returns null
+    private static double[] parseCoordinates(String value, int count) {
+        String[] parts = value.split(",", -1);
+        if (parts.length != count) {
+            return null;
+        }
+        double[] numbers = new double[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                numbers[i] = Double.parseDouble(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return numbers;
+    }
+
+    // GET /weather/history?station_id=X[&from=T][&to=T], with times in epoch milliseconds
+    private HttpResponse handleHistory(HttpRequest request, Map<String, String> params) {
+        String stationId = params.get("station_id");
+        if (stationId == null) {
+            return HttpResponse.text("400 Bad Request", "Missing 'station_id'");
+        }
+        long from;
+        long to;
+        try {
+            from = params.containsKey("from") ? Long.parseLong(params.get("from")) : 0;
+            to = params.containsKey("to") ? Long.parseLong(params.get("to")) : Long.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            return HttpResponse.text("400 Bad Request", "Invalid 'from' or 'to' value");
+        }
+        byte[] history = dataStore.getHistory(stationId, from, to);
+        if (history == null) {
+            return HttpResponse.text("404 Not Found", "Station ID not found");
+        }
+        // History changes with every reading, so like deltas it is not tagged
+        return documentResponse(request, new VersionedDocument(0, history), null);
+    }
+
+    // GET /weather/rollup?station_id=X[&window=SECONDS]; the smallest window by default
+    private HttpResponse handleRollup(HttpRequest request, Map<String, String> params) {
+        String stationId = params.get("station_id");
+        if (stationId == null) {
+            return HttpResponse.text("400 Bad Request", "Missing 'station_id'");
+        }
+        int[] windows = dataStore.getRollupWindows();
+        int window = Arrays.stream(windows).min().orElse(0);
+        byte[] rollup;
+        try {
+            if (params.containsKey("window")) {
+                window = Integer.parseInt(params.get("window"));
+            }
+            rollup = dataStore.getRollup(stationId, window);
+        } catch (IllegalArgumentException e) {
+            return HttpResponse.text("400 Bad Request", "Invalid 'window' value; rollups are kept over "
+                    + Arrays.toString(windows) + " seconds");
+        }
+        if (rollup == null) {
+            return HttpResponse.text("404 Not Found", "Station ID not found");
+        }
+        return documentResponse(request, new VersionedDocument(0, rollup), null);
+    }
+
+    /**
+     * Sends an encoded document, compressed as the client allows. With an ETag kind, the response
+     * is tagged and answered with 304 if the client already has it.
+     */
+    private HttpResponse documentResponse(HttpRequest request, VersionedDocument document, String etagKind) {
+        // Compressed bodies are cached with the document, so each version is compressed once
+        ContentEncoding encoding = ContentEncoding.negotiate(request.getAcceptEncoding());
+        if (document.getBytes().length < MIN_COMPRESSED_SIZE) {
+            encoding = ContentEncoding.IDENTITY;
+        }
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Vary", "Accept-Encoding");
+        if (etagKind != null) {
+            String etag = etag(etagKind, document.getVersion(), encoding);
+            headers.put("ETag", etag);
+            if (matches(request.getIfNoneMatch(), etag)) {
+                return new HttpResponse("304 Not Modified", headers, new byte[0]);
+            }
+        }
+        headers.put("Content-Type", "application/json");
+        if (encoding != ContentEncoding.IDENTITY) {
+            headers.put("Content-Encoding", encoding.token());
+        }
+        return new HttpResponse("200 OK", headers, document.getBytes(encoding));
+    }
+
+    // Decodes name=value pairs; a repeated name keeps its last value
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                String[] keyValue = param.split("=", 2);
+                if (keyValue.length == 2) {
+                    try {
+                        params.put(keyValue[0], java.net.URLDecoder.decode(keyValue[1], "UTF-8"));
+                    } catch (IllegalArgumentException e) {
+                        throw new HttpParseException("400 Bad Request", "Invalid percent-escape in query");
+                    }
+                }
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Builds a strong ETag from the data version of the full document, or the stamp of a single
+     * station. Each content coding is a different representation, so it gets its own tag.
+     */
+    private String etag(String kind, long version, ContentEncoding encoding) {
+        StringBuilder etag = new StringBuilder(32).append('"').append(dataStore.getEpoch())
+                .append('-').append(kind).append(version);
+        if (encoding != ContentEncoding.IDENTITY) {
+            etag.append('-').append(encoding.token());
+        }
+        return etag.append('"').toString();
+    }
+
+    // If-None-Match uses weak comparison, so a W/ prefix on the client's tag is ignored
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
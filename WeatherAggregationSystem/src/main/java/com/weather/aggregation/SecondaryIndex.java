@@ -0,0 +1,123 @@
+package com.weather.aggregation;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Station IDs by the value of each of a few string fields, for equality filters such as
+ * {@code state=SA}. A filter reads the matching IDs directly instead of testing every station.
+ */
+public class SecondaryIndex {
+    /** The fields indexed, and so the ones equality filters may name. */
+    static final String[] FIELDS = {"state", "time_zone", "cloud", "wind_dir"};
+
+    // Per field, the IDs of the stations holding each value
+    private final Map<String, ConcurrentHashMap<String, Set<String>>> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty index.
+     */
+    public SecondaryIndex() {
+        for (String field : FIELDS) {
+            indexes.put(field, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Tells whether a field is indexed.
+     *
+     * @param field The field name.
+     * @return True if equality filters can use it.
+     */
+    public static boolean isIndexed(String field) {
+        for (String indexed : FIELDS) {
+            if (indexed.equals(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves a station from its old values to its new ones. Fields whose value did not change are
+     * left alone.
+     *
+     * @param id       The station ID.
+     * @param previous The station's previous observation, or null if it is new.
+     * @param current  The station's new observation.
+     */
+    public void update(String id, WeatherObservation previous, WeatherObservation current) {
+        for (String field : FIELDS) {
+            Object oldValue = previous != null ? previous.get(field) : null;
+            Object newValue = current.get(field);
+            if (Objects.equals(oldValue, newValue)) {
+                continue;
+            }
+            if (newValue instanceof String) {
+                // Added inside the value's atomic section, so a concurrent removal that empties the
+                // set cannot drop it between finding it and adding to it
+                indexes.get(field).compute((String) newValue, (value, ids) -> {
+                    if (ids == null) {
+                        ids = ConcurrentHashMap.newKeySet();
+                    }
+                    ids.add(id);
+                    return ids;
+                });
+            }
+            if (oldValue instanceof String) {
+                remove(field, (String) oldValue, id);
+            }
+        }
+    }
+
+    /**
+     * Removes a station.
+     *
+     * @param id       The station ID.
+     * @param previous The observation it was indexed with.
+     */
+    public void remove(String id, WeatherObservation previous) {
+        for (String field : FIELDS) {
+            Object value = previous.get(field);
+            if (value instanceof String) {
+                remove(field, (String) value, id);
+            }
+        }
+    }
+
+    private void remove(String field, String value, String id) {
+        indexes.get(field).computeIfPresent(value, (key, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * Removes every station.
+     */
+    public void clear() {
+        for (Map<String, Set<String>> index : indexes.values()) {
+            index.clear();
+        }
+    }
+
+    /**
+     * Returns the stations holding a value. The set is live, so it may change while it is read.
+     *
+     * @param field An indexed field.
+     * @param value The value to match exactly.
+     * @return The station IDs; empty if none match.
+     * @throws IllegalArgumentException If the field is not indexed.
+     */
+    public Set<String> lookup(String field, String value) {
+        Map<String, Set<String>> index = indexes.get(field);
+        if (index == null) {
+            throw new IllegalArgumentException("Field '" + field + "' is not indexed");
+        }
+        Set<String> ids = index.get(value);
+        return ids == null ? Collections.emptySet() : Collections.unmodifiableSet(ids);
+    }
+}
@@ -0,0 +1,420 @@
+package com.weather.aggregation;
+
+import java.util.Arrays;
+
+/**
+ * Startup options for the Aggregation Server.
+ */
+public class ServerConfig {
+    public static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_MAX_REQUESTS_PER_CONNECTION = 1000;
+
+    private int port;
+    private ServerMode mode = ServerMode.BLOCKING;
+    private int eventLoopThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private int idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private int maxRequestsPerConnection = DEFAULT_MAX_REQUESTS_PER_CONNECTION;
+    private int maxConnectionThreads = 512;
+    private int maxConcurrentGets = 256;
+    private int getQueueDepth = 512;
+    private int maxConcurrentPuts = 64;
+    private int putQueueDepth = 256;
+    private long admissionQueueTimeoutMillis = 1000;
+    private int retryAfterSeconds = 1;
+    private String dataFile = "data/weather_data.json";
+    private PersistenceMode persistenceMode = PersistenceMode.SNAPSHOT;
+    private SnapshotFormat snapshotFormat = SnapshotFormat.JSON;
+    private int checkpointIntervalSeconds = 60;
+    private int checkpointRecords = 10000;
+    private Durability durability = Durability.BATCHED;
+    private long commitIntervalMillis = 1;
+    private int commitBatchSize = 512;
+    private int streamBufferEvents = 256;
+    private int historyLength = 120;
+    private int historyAgeSeconds = 3600;
+    private int[] rollupWindowSeconds = {60, 300, 3600};
+
+    /**
+     * Creates a configuration with default options for the given port.
+     *
+     * @param port The port number to listen on.
+     */
+    public ServerConfig(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Builds a configuration from command-line arguments. The first argument is the port,
+     * followed by optional {@code --name=value} flags.
+     *
+     * @param args Command-line arguments.
+     * @return The parsed configuration.
+     * @throws IllegalArgumentException If an option is unknown or malformed.
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig(Integer.parseInt(args[0]));
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "mode":
+                    config.setMode(ServerMode.valueOf(value.toUpperCase()));
+                    break;
+                case "event-loops":
+                    config.setEventLoopThreads(Integer.parseInt(value));
+                    break;
+                case "idle-timeout-ms":
+                    config.setIdleTimeoutMillis(Integer.parseInt(value));
+                    break;
+                case "max-requests":
+                    config.setMaxRequestsPerConnection(Integer.parseInt(value));
+                    break;
+                case "max-connection-threads":
+                    config.setMaxConnectionThreads(Integer.parseInt(value));
+                    break;
+                case "max-concurrent-gets":
+                    config.setMaxConcurrentGets(Integer.parseInt(value));
+                    break;
+                case "get-queue-depth":
+                    config.setGetQueueDepth(Integer.parseInt(value));
+                    break;
+                case "max-concurrent-puts":
+                    config.setMaxConcurrentPuts(Integer.parseInt(value));
+                    break;
+                case "put-queue-depth":
+                    config.setPutQueueDepth(Integer.parseInt(value));
+                    break;
+                case "queue-timeout-ms":
+                    config.setAdmissionQueueTimeoutMillis(Long.parseLong(value));
+                    break;
+                case "retry-after":
+                    config.setRetryAfterSeconds(Integer.parseInt(value));
+                    break;
+                case "data-file":
+                    config.setDataFile(value);
+                    break;
+                case "persistence":
+                    config.setPersistenceMode(PersistenceMode.valueOf(value.toUpperCase()));
+                    break;
+                case "snapshot-format":
+                    config.setSnapshotFormat(SnapshotFormat.valueOf(value.toUpperCase()));
+                    break;
+                case "checkpoint-interval":
+                    config.setCheckpointIntervalSeconds(Integer.parseInt(value));
+                    break;
+                case "checkpoint-records":
+                    config.setCheckpointRecords(Integer.parseInt(value));
+                    break;
+                case "durability":
+                    config.setDurability(Durability.valueOf(value.toUpperCase().replace('-', '_')));
+                    break;
+                case "commit-interval-ms":
+                    config.setCommitIntervalMillis(Long.parseLong(value));
+                    break;
+                case "commit-batch-size":
+                    config.setCommitBatchSize(Integer.parseInt(value));
+                    break;
+                case "stream-buffer":
+                    config.setStreamBufferEvents(Integer.parseInt(value));
+                    break;
+                case "history-length":
+                    config.setHistoryLength(Integer.parseInt(value));
+                    break;
+                case "history-age":
+                    config.setHistoryAgeSeconds(Integer.parseInt(value));
+                    break;
+                case "rollup-windows":
+                    config.setRollupWindowSeconds(Arrays.stream(value.split(",")).map(String::trim)
+                            .mapToInt(Integer::parseInt).toArray());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        return config;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public ServerMode getMode() {
+        return mode;
+    }
+
+    public void setMode(ServerMode mode) {
+        this.mode = mode;
+    }
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public void setEventLoopThreads(int eventLoopThreads) {
+        if (eventLoopThreads < 1) {
+            throw new IllegalArgumentException("At least one event loop thread is required");
+        }
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(int idleTimeoutMillis) {
+        if (idleTimeoutMillis < 1) {
+            throw new IllegalArgumentException("Idle timeout must be positive");
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public int getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+
+    public void setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+        if (maxRequestsPerConnection < 1) {
+            throw new IllegalArgumentException("At least one request per connection is required");
+        }
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+    }
+
+    public int getMaxConnectionThreads() {
+        return maxConnectionThreads;
+    }
+
+    /**
+     * Sets the size of the platform thread pool in blocking mode. Connections arriving while every
+     * thread is busy are answered with 503.
+     *
+     * @param maxConnectionThreads The maximum number of handler threads.
+     */
+    public void setMaxConnectionThreads(int maxConnectionThreads) {
+        requirePositive(maxConnectionThreads, "max-connection-threads");
+        this.maxConnectionThreads = maxConnectionThreads;
+    }
+
+    public int getMaxConcurrentGets() {
+        return maxConcurrentGets;
+    }
+
+    public void setMaxConcurrentGets(int maxConcurrentGets) {
+        requirePositive(maxConcurrentGets, "max-concurrent-gets");
+        this.maxConcurrentGets = maxConcurrentGets;
+    }
+
+    public int getGetQueueDepth() {
+        return getQueueDepth;
+    }
+
+    public void setGetQueueDepth(int getQueueDepth) {
+        requireNonNegative(getQueueDepth, "get-queue-depth");
+        this.getQueueDepth = getQueueDepth;
+    }
+
+    public int getMaxConcurrentPuts() {
+        return maxConcurrentPuts;
+    }
+
+    public void setMaxConcurrentPuts(int maxConcurrentPuts) {
+        requirePositive(maxConcurrentPuts, "max-concurrent-puts");
+        this.maxConcurrentPuts = maxConcurrentPuts;
+    }
+
+    public int getPutQueueDepth() {
+        return putQueueDepth;
+    }
+
+    public void setPutQueueDepth(int putQueueDepth) {
+        requireNonNegative(putQueueDepth, "put-queue-depth");
+        this.putQueueDepth = putQueueDepth;
+    }
+
+    public long getAdmissionQueueTimeoutMillis() {
+        return admissionQueueTimeoutMillis;
+    }
+
+    public void setAdmissionQueueTimeoutMillis(long admissionQueueTimeoutMillis) {
+        requireNonNegative(admissionQueueTimeoutMillis, "queue-timeout-ms");
+        this.admissionQueueTimeoutMillis = admissionQueueTimeoutMillis;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        requirePositive(retryAfterSeconds, "retry-after");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String getDataFile() {
+        return dataFile;
+    }
+
+    public void setDataFile(String dataFile) {
+        this.dataFile = dataFile;
+    }
+
+    public PersistenceMode getPersistenceMode() {
+        return persistenceMode;
+    }
+
+    public void setPersistenceMode(PersistenceMode persistenceMode) {
+        this.persistenceMode = persistenceMode;
+    }
+
+    public SnapshotFormat getSnapshotFormat() {
+        return snapshotFormat;
+    }
+
+    public void setSnapshotFormat(SnapshotFormat snapshotFormat) {
+        this.snapshotFormat = snapshotFormat;
+    }
+
+    public int getCheckpointIntervalSeconds() {
+        return checkpointIntervalSeconds;
+    }
+
+    /**
+     * Sets how often the journal is folded into a fresh snapshot.
+     *
+     * @param checkpointIntervalSeconds Seconds between checkpoints.
+     */
+    public void setCheckpointIntervalSeconds(int checkpointIntervalSeconds) {
+        requirePositive(checkpointIntervalSeconds, "checkpoint-interval");
+        this.checkpointIntervalSeconds = checkpointIntervalSeconds;
+    }
+
+    public int getCheckpointRecords() {
+        return checkpointRecords;
+    }
+
+    /**
+     * Sets how many journal records trigger an early checkpoint.
+     *
+     * @param checkpointRecords Records between checkpoints.
+     */
+    public void setCheckpointRecords(int checkpointRecords) {
+        requirePositive(checkpointRecords, "checkpoint-records");
+        this.checkpointRecords = checkpointRecords;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    public long getCommitIntervalMillis() {
+        return commitIntervalMillis;
+    }
+
+    /**
+     * Sets how long the persister waits for more changes to join a batch before flushing it.
+     *
+     * @param commitIntervalMillis The batching window in milliseconds; 0 flushes whatever is queued.
+     */
+    public void setCommitIntervalMillis(long commitIntervalMillis) {
+        requireNonNegative(commitIntervalMillis, "commit-interval-ms");
+        this.commitIntervalMillis = commitIntervalMillis;
+    }
+
+    public int getCommitBatchSize() {
+        return commitBatchSize;
+    }
+
+    /**
+     * Sets the largest number of changes flushed in one write.
+     *
+     * @param commitBatchSize Changes per batch.
+     */
+    public void setCommitBatchSize(int commitBatchSize) {
+        requirePositive(commitBatchSize, "commit-batch-size");
+        this.commitBatchSize = commitBatchSize;
+    }
+
+    public int getStreamBufferEvents() {
+        return streamBufferEvents;
+    }
+
+    /**
+     * Sets how many events a stream subscriber may fall behind by before it is disconnected.
+     *
+     * @param streamBufferEvents Events buffered per subscriber.
+     */
+    public void setStreamBufferEvents(int streamBufferEvents) {
+        requirePositive(streamBufferEvents, "stream-buffer");
+        this.streamBufferEvents = streamBufferEvents;
+    }
+
+    public int getHistoryLength() {
+        return historyLength;
+    }
+
+    /**
+     * Sets how many recent readings are kept per station.
+     *
+     * @param historyLength Readings per station.
+     */
+    public void setHistoryLength(int historyLength) {
+        requirePositive(historyLength, "history-length");
+        this.historyLength = historyLength;
+    }
+
+    public int getHistoryAgeSeconds() {
+        return historyAgeSeconds;
+    }
+
+    /**
+     * Sets how old a reading may be and still be returned from the history.
+     *
+     * @param historyAgeSeconds The age limit in seconds.
+     */
+    public void setHistoryAgeSeconds(int historyAgeSeconds) {
+        requirePositive(historyAgeSeconds, "history-age");
+        this.historyAgeSeconds = historyAgeSeconds;
+    }
+
+    public int[] getRollupWindowSeconds() {
+        return rollupWindowSeconds.clone();
+    }
+
+    /**
+     * Sets the widths of the tumbling windows that station rollups are kept over.
+     *
+     * @param rollupWindowSeconds The window widths in seconds.
+     */
+    public void setRollupWindowSeconds(int[] rollupWindowSeconds) {
+        if (rollupWindowSeconds.length == 0) {
+            throw new IllegalArgumentException("rollup-windows must not be empty");
+        }
+        for (int seconds : rollupWindowSeconds) {
+            requirePositive(seconds, "rollup-windows");
+        }
+        this.rollupWindowSeconds = rollupWindowSeconds.clone();
+    }
+
+    private static void requirePositive(long value, String option) {
+        if (value < 1) {
+            throw new IllegalArgumentException(option + " must be positive");
+        }
+    }
+
+    private static void requireNonNegative(long value, String option) {
+        if (value < 0) {
+            throw new IllegalArgumentException(option + " must not be negative");
+        }
+    }
+}
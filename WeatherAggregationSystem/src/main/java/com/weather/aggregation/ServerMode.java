@@ -0,0 +1,13 @@
+package com.weather.aggregation;
+
+/**
+ * How the Aggregation Server schedules work for client connections.
+ */
+public enum ServerMode {
+    /** One pooled platform thread per connection, blocking I/O. */
+    BLOCKING,
+    /** A small fixed set of selector-driven event-loop threads, non-blocking I/O. */
+    NIO,
+    /** One virtual thread per connection, blocking I/O. Requires Java 21 or newer at runtime. */
+    VIRTUAL
+}
@@ -1,7 +1,13 @@
 package com.weather.aggregation;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.BiConsumer;
 
 public class SimpleJsonParser {
 
@@ -13,328 +19,264 @@ public class SimpleJsonParser {
      * @throws IOException If an error occurs during parsing.
      */
     public Map<String, Object> parse(String json) throws IOException {
-        JsonTokenizer tokenizer = new JsonTokenizer(json);
-        JsonToken token = tokenizer.nextToken();
-        if (token.type != JsonTokenType.LEFT_BRACE) {
-            throw new IOException("Expected '{' at the beginning of JSON object");
-        }
-        return parseObject(tokenizer);
+        return parse(json.getBytes(StandardCharsets.UTF_8));
     }
 
-    private Map<String, Object> parseObject(JsonTokenizer tokenizer) throws IOException {
-        Map<String, Object> map = new HashMap<>();
-        JsonToken token;
-        while ((token = tokenizer.nextToken()).type != JsonTokenType.RIGHT_BRACE) {
-            if (token.type != JsonTokenType.STRING) {
-                throw new IOException("Expected string key in JSON object");
-            }
-            String key = token.value;
-
-            token = tokenizer.nextToken();
-            if (token.type != JsonTokenType.COLON) {
-                throw new IOException("Expected ':' after key in JSON object");
-            }
-
-            Object value = parseValue(tokenizer);
+    /**
+     * Parses UTF-8 encoded JSON into a Map without first decoding it to a String.
+     *
+     * @param json The encoded JSON object.
+     * @return A Map representing the JSON object.
+     * @throws IOException If an error occurs during parsing.
+     */
+    public Map<String, Object> parse(byte[] json) throws IOException {
+        return parse(new JsonReader(json, 0, json.length));
+    }
 
-            map.put(key, value);
+    /**
+     * Parses the remaining bytes of a buffer as a UTF-8 encoded JSON object.
+     *
+     * @param json The encoded JSON object; its position is not changed.
+     * @return A Map representing the JSON object.
+     * @throws IOException If an error occurs during parsing.
+     */
+    public Map<String, Object> parse(ByteBuffer json) throws IOException {
+        return parse(new JsonReader(json));
+    }
 
-            token = tokenizer.peekToken();
-            if (token.type == JsonTokenType.COMMA) {
-                tokenizer.nextToken(); // consume comma and continue
-            } else if (token.type == JsonTokenType.RIGHT_BRACE) {
-                // End of object
-                break;
-            } else {
-                throw new IOException("Expected ',' or '}' in JSON object");
-            }
-        }
-        return map;
+    /**
+     * Parses a UTF-8 encoded JSON object from a stream, reading it incrementally.
+     *
+     * @param json The stream holding the JSON object; it is not closed.
+     * @return A Map representing the JSON object.
+     * @throws IOException If an error occurs during parsing or reading.
+     */
+    public Map<String, Object> parse(InputStream json) throws IOException {
+        return parse(new JsonReader(json));
     }
 
-    private Object parseValue(JsonTokenizer tokenizer) throws IOException {
-        JsonToken token = tokenizer.nextToken();
-        switch (token.type) {
-            case LEFT_BRACE:
-                return parseObject(tokenizer);
-            case LEFT_BRACKET:
-                return parseArray(tokenizer);
-            case STRING:
-                return token.value;
-            case NUMBER:
-                if (token.value.contains(".")) {
-                    return Double.parseDouble(token.value);
-                } else {
-                    return Integer.parseInt(token.value);
-                }
-            case BOOLEAN:
-                return Boolean.parseBoolean(token.value);
-            case NULL:
-                return null;
-            default:
-                throw new IOException("Unexpected token in JSON value");
+    /**
+     * Parses UTF-8 encoded JSON straight into a typed observation, so schema values are never boxed.
+     *
+     * @param json The encoded JSON object.
+     * @return The observation.
+     * @throws IOException If an error occurs during parsing.
+     */
+    public WeatherObservation parseObservation(byte[] json) throws IOException {
+        JsonReader reader = new JsonReader(json, 0, json.length);
+        if (reader.next() != JsonReader.LEFT_BRACE) {
+            throw new IOException("Expected '{' at the beginning of JSON object");
         }
+        return parseObservation(reader);
     }
 
-    private List<Object> parseArray(JsonTokenizer tokenizer) throws IOException {
-        List<Object> list = new ArrayList<>();
-        JsonToken token;
-        while ((token = tokenizer.peekToken()).type != JsonTokenType.RIGHT_BRACKET) {
-            Object value = parseValue(tokenizer);
-            list.add(value);
+    /**
+     * Parses a UTF-8 encoded JSON array of observations, such as the body of a batch PUT.
+     *
+     * @param json The encoded JSON array.
+     * @return One observation per element, or null for an element that is not an object.
+     * @throws IOException If an error occurs during parsing.
+     */
+    public List<WeatherObservation> parseObservationArray(byte[] json) throws IOException {
+        JsonReader reader = new JsonReader(json, 0, json.length);
+        if (reader.next() != JsonReader.LEFT_BRACKET) {
+            throw new IOException("Expected '[' at the beginning of JSON array");
+        }
+        List<WeatherObservation> observations = new ArrayList<>();
+        int token;
+        while ((token = reader.next()) != JsonReader.RIGHT_BRACKET) {
+            if (token == JsonReader.LEFT_BRACE) {
+                observations.add(parseObservation(reader));
+            } else {
+                parseValue(reader, token);
+                observations.add(null);
+            }
 
-            token = tokenizer.peekToken();
-            if (token.type == JsonTokenType.COMMA) {
-                tokenizer.nextToken(); // consume comma and continue
-            } else if (token.type == JsonTokenType.RIGHT_BRACKET) {
-                // End of array
+            token = reader.next();
+            if (token == JsonReader.RIGHT_BRACKET) {
                 break;
-            } else {
+            } else if (token != JsonReader.COMMA) {
                 throw new IOException("Expected ',' or ']' in JSON array");
             }
         }
-        tokenizer.nextToken(); // consume ']'
-        return list;
+        return observations;
     }
 
     /**
-     * Generates a JSON string from a Map.
+     * Streams a JSON object whose values are station objects, such as a snapshot, handing each
+     * station to the consumer as it is parsed.
      *
-     * @param map The Map to convert to JSON.
-     * @return A JSON string representing the Map.
+     * @param json     The stream holding the JSON object; it is not closed.
+     * @param consumer Receives each key and its observation.
+     * @throws IOException If an error occurs during parsing or reading.
      */
-    public String toJson(Map<String, Object> map) {
-        StringBuilder sb = new StringBuilder();
-        appendValue(sb, map);
-        return sb.toString();
-    }
-
-    private void appendValue(StringBuilder sb, Object value) {
-        if (value == null) {
-            sb.append("null");
-        } else if (value instanceof Map) {
-            appendObject(sb, (Map<String, Object>) value);
-        } else if (value instanceof List) {
-            appendArray(sb, (List<Object>) value);
-        } else if (value instanceof String) {
-            sb.append('"').append(escapeString((String) value)).append('"');
-        } else if (value instanceof Number) {
-            sb.append(value.toString());
-        } else if (value instanceof Boolean) {
-            sb.append(value.toString());
-        } else {
-            // For other types, call toString()
-            sb.append('"').append(escapeString(value.toString())).append('"');
+    public void parseObservations(InputStream json, BiConsumer<String, WeatherObservation> consumer) throws IOException {
+        JsonReader reader = new JsonReader(json);
+        if (reader.next() != JsonReader.LEFT_BRACE) {
+            throw new IOException("Expected '{' at the beginning of JSON object");
         }
-    }
-
-    private void appendObject(StringBuilder sb, Map<String, Object> map) {
-        sb.append('{');
-        boolean first = true;
-        for (Map.Entry<String, Object> entry : map.entrySet()) {
-            if (!first) {
-                sb.append(',');
+        int token;
+        while ((token = reader.next()) != JsonReader.RIGHT_BRACE) {
+            if (token != JsonReader.STRING) {
+                throw new IOException("Expected string key in JSON object");
             }
-            sb.append('"').append(escapeString(entry.getKey())).append("\":");
-            appendValue(sb, entry.getValue());
-            first = false;
-        }
-        sb.append('}');
-    }
+            String key = reader.stringValue();
+            if (reader.next() != JsonReader.COLON) {
+                throw new IOException("Expected ':' after key in JSON object");
+            }
+            if (reader.next() != JsonReader.LEFT_BRACE) {
+                throw new IOException("Expected station object for key " + key);
+            }
+            consumer.accept(key, parseObservation(reader));
 
-    private void appendArray(StringBuilder sb, List<Object> list) {
-        sb.append('[');
-        boolean first = true;
-        for (Object value : list) {
-            if (!first) {
-                sb.append(',');
+            token = reader.next();
+            if (token == JsonReader.RIGHT_BRACE) {
+                break;
+            } else if (token != JsonReader.COMMA) {
+                throw new IOException("Expected ',' or '}' in JSON object");
             }
-            appendValue(sb, value);
-            first = false;
         }
-        sb.append(']');
     }
 
-    private String escapeString(String str) {
-        return str.replace("\\", "\\\\").replace("\"", "\\\"");
+    private Map<String, Object> parse(JsonReader reader) throws IOException {
+        if (reader.next() != JsonReader.LEFT_BRACE) {
+            throw new IOException("Expected '{' at the beginning of JSON object");
+        }
+        return parseObject(reader);
     }
 
-    // Inner classes for tokenizing the JSON string
+    // Like parseObject, but schema values go straight into their primitive slots
+    private WeatherObservation parseObservation(JsonReader reader) throws IOException {
+        WeatherObservation observation = new WeatherObservation();
+        int token;
+        while ((token = reader.next()) != JsonReader.RIGHT_BRACE) {
+            if (token != JsonReader.STRING) {
+                throw new IOException("Expected string key in JSON object");
+            }
+            String key = reader.stringValue();
 
-    enum JsonTokenType {
-        LEFT_BRACE,     // {
-        RIGHT_BRACE,    // }
-        LEFT_BRACKET,   // [
-        RIGHT_BRACKET,  // ]
-        COMMA,          // ,
-        COLON,          // :
-        STRING,
-        NUMBER,
-        BOOLEAN,
-        NULL,
-        EOF
-    }
+            if (reader.next() != JsonReader.COLON) {
+                throw new IOException("Expected ':' after key in JSON object");
+            }
 
-    class JsonToken {
-        JsonTokenType type;
-        String value;
+            token = reader.next();
+            int slot = WeatherObservation.slot(key);
+            if (token == JsonReader.NUMBER && WeatherObservation.isDoubleSlot(slot)) {
+                observation.putDouble(key, reader.doubleValue());
+            } else if (token == JsonReader.STRING && WeatherObservation.isStringSlot(slot)) {
+                observation.put(key, reader.stringValue());
+            } else {
+                observation.put(key, parseValue(reader, token));
+            }
 
-        JsonToken(JsonTokenType type, String value) {
-            this.type = type;
-            this.value = value;
+            token = reader.next();
+            if (token == JsonReader.RIGHT_BRACE) {
+                break;
+            } else if (token != JsonReader.COMMA) {
+                throw new IOException("Expected ',' or '}' in JSON object");
+            }
         }
+        return observation;
     }
 
-    class JsonTokenizer {
-        private String json;
-        private int pos;
-        private JsonToken nextToken;
-
-        JsonTokenizer(String json) {
-            this.json = json;
-            this.pos = 0;
-        }
-
-        JsonToken nextToken() throws IOException {
-            if (nextToken != null) {
-                JsonToken token = nextToken;
-                nextToken = null;
-                return token;
-            }
-            skipWhitespace();
-            if (pos >= json.length()) {
-                return new JsonToken(JsonTokenType.EOF, null);
-            }
-            char ch = json.charAt(pos);
-            switch (ch) {
-                case '{':
-                    pos++;
-                    return new JsonToken(JsonTokenType.LEFT_BRACE, "{");
-                case '}':
-                    pos++;
-                    return new JsonToken(JsonTokenType.RIGHT_BRACE, "}");
-                case '[':
-                    pos++;
-                    return new JsonToken(JsonTokenType.LEFT_BRACKET, "[");
-                case ']':
-                    pos++;
-                    return new JsonToken(JsonTokenType.RIGHT_BRACKET, "]");
-                case ',':
-                    pos++;
-                    return new JsonToken(JsonTokenType.COMMA, ",");
-                case ':':
-                    pos++;
-                    return new JsonToken(JsonTokenType.COLON, ":");
-                case '"':
-                    return new JsonToken(JsonTokenType.STRING, readString());
-                default:
-                    if (isDigit(ch) || ch == '-') {
-                        return new JsonToken(JsonTokenType.NUMBER, readNumber());
-                    } else if (startsWith("true")) {
-                        pos += 4;
-                        return new JsonToken(JsonTokenType.BOOLEAN, "true");
-                    } else if (startsWith("false")) {
-                        pos += 5;
-                        return new JsonToken(JsonTokenType.BOOLEAN, "false");
-                    } else if (startsWith("null")) {
-                        pos += 4;
-                        return new JsonToken(JsonTokenType.NULL, "null");
-                    } else {
-                        throw new IOException("Unexpected character at position " + pos + ": " + ch);
-                    }
+    private Map<String, Object> parseObject(JsonReader reader) throws IOException {
+        Map<String, Object> map = new HashMap<>();
+        int token;
+        while ((token = reader.next()) != JsonReader.RIGHT_BRACE) {
+            if (token != JsonReader.STRING) {
+                throw new IOException("Expected string key in JSON object");
             }
-        }
+            String key = reader.stringValue();
 
-        JsonToken peekToken() throws IOException {
-            if (nextToken == null) {
-                nextToken = nextToken();
+            if (reader.next() != JsonReader.COLON) {
+                throw new IOException("Expected ':' after key in JSON object");
             }
-            return nextToken;
-        }
 
-        private void skipWhitespace() {
-            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
-                pos++;
+            map.put(key, parseValue(reader, reader.next()));
+
+            token = reader.next();
+            if (token == JsonReader.RIGHT_BRACE) {
+                break;
+            } else if (token != JsonReader.COMMA) {
+                throw new IOException("Expected ',' or '}' in JSON object");
             }
         }
+        return map;
+    }
 
-        private boolean isDigit(char ch) {
-            return ch >= '0' && ch <= '9';
+    private Object parseValue(JsonReader reader, int token) throws IOException {
+        switch (token) {
+            case JsonReader.LEFT_BRACE:
+                return parseObject(reader);
+            case JsonReader.LEFT_BRACKET:
+                return parseArray(reader);
+            case JsonReader.STRING:
+                return reader.stringValue();
+            case JsonReader.NUMBER:
+                return reader.numberValue();
+            case JsonReader.TRUE:
+                return Boolean.TRUE;
+            case JsonReader.FALSE:
+                return Boolean.FALSE;
+            case JsonReader.NULL:
+                return null;
+            default:
+                throw new IOException("Unexpected token in JSON value");
         }
+    }
 
-        private String readString() throws IOException {
-            StringBuilder sb = new StringBuilder();
-            pos++; // skip opening quote
-            while (pos < json.length()) {
-                char ch = json.charAt(pos);
-                if (ch == '\\') {
-                    pos++;
-                    if (pos >= json.length()) {
-                        throw new IOException("Unexpected end of JSON string");
-                    }
-                    ch = json.charAt(pos);
-                    if (ch == '"' || ch == '\\' || ch == '/') {
-                        sb.append(ch);
-                    } else if (ch == 'b') {
-                        sb.append('\b');
-                    } else if (ch == 'f') {
-                        sb.append('\f');
-                    } else if (ch == 'n') {
-                        sb.append('\n');
-                    } else if (ch == 'r') {
-                        sb.append('\r');
-                    } else if (ch == 't') {
-                        sb.append('\t');
-                    } else if (ch == 'u') {
-                        // Unicode escape sequence
-                        if (pos + 4 >= json.length()) {
-                            throw new IOException("Invalid Unicode escape sequence");
-                        }
-                        String hex = json.substring(pos + 1, pos + 5);
-                        sb.append((char) Integer.parseInt(hex, 16));
-                        pos += 4;
-                    } else {
-                        throw new IOException("Invalid escape character: \\" + ch);
-                    }
-                } else if (ch == '"') {
-                    pos++; // skip closing quote
-                    return sb.toString();
-                } else {
-                    sb.append(ch);
-                }
-                pos++;
-            }
-            throw new IOException("Unterminated string");
-        }
+    private List<Object> parseArray(JsonReader reader) throws IOException {
+        List<Object> list = new ArrayList<>();
+        int token;
+        while ((token = reader.next()) != JsonReader.RIGHT_BRACKET) {
+            list.add(parseValue(reader, token));
 
-        private String readNumber() {
-            int start = pos;
-            if (json.charAt(pos) == '-') {
-                pos++;
-            }
-            while (pos < json.length() && isDigit(json.charAt(pos))) {
-                pos++;
-            }
-            if (pos < json.length() && json.charAt(pos) == '.') {
-                pos++;
-                while (pos < json.length() && isDigit(json.charAt(pos))) {
-                    pos++;
-                }
-            }
-            if (pos < json.length() && (json.charAt(pos) == 'e' || json.charAt(pos) == 'E')) {
-                pos++;
-                if (pos < json.length() && (json.charAt(pos) == '+' || json.charAt(pos) == '-')) {
-                    pos++;
-                }
-                while (pos < json.length() && isDigit(json.charAt(pos))) {
-                    pos++;
-                }
+            token = reader.next();
+            if (token == JsonReader.RIGHT_BRACKET) {
+                break;
+            } else if (token != JsonReader.COMMA) {
+                throw new IOException("Expected ',' or ']' in JSON array");
             }
-            return json.substring(start, pos);
         }
+        return list;
+    }
 
-        private boolean startsWith(String s) {
-            return json.startsWith(s, pos);
+    /**
+     * Generates a JSON string from a Map.
+     *
+     * @param map The Map to convert to JSON.
+     * @return A JSON string representing the Map.
+     */
+    public String toJson(Map<String, Object> map) {
+        return new String(toJsonBytes(map), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a Map as UTF-8 JSON without building an intermediate String.
+     *
+     * @param map The Map to convert to JSON.
+     * @return The encoded JSON.
+     */
+    public byte[] toJsonBytes(Map<String, Object> map) {
+        JsonWriter writer = new JsonWriter();
+        try {
+            writer.value(map);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // an in-memory writer does not do I/O
         }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Writes a Map as UTF-8 JSON straight to a stream.
+     *
+     * @param map The Map to convert to JSON.
+     * @param out The stream to write to; it is flushed but not closed.
+     * @throws IOException If writing fails.
+     */
+    public void writeJson(Map<String, Object> map, OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.value(map);
+        writer.flush();
     }
 }
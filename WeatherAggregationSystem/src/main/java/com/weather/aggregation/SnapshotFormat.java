@@ -0,0 +1,11 @@
+package com.weather.aggregation;
+
+/**
+ * How the data store encodes its snapshot file.
+ */
+public enum SnapshotFormat {
+    /** The human-readable JSON document at the configured data file. */
+    JSON,
+    /** Checksummed binary records next to the data file, memory-mapped on startup. */
+    BINARY
+}
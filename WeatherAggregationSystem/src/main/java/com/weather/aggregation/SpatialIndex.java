@@ -0,0 +1,270 @@
+package com.weather.aggregation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Grid of fixed-size latitude/longitude cells holding each station's position, for bounding-box
+ * and nearest-station queries. A query only visits the cells it overlaps or, for nearest stations,
+ * rings of cells around the point until no unvisited cell can hold anything closer, so its cost
+ * depends on the stations nearby rather than on the total.
+ */
+public class SpatialIndex {
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = Math.PI / 180 * EARTH_RADIUS_KM;
+
+    /**
+     * A station found by {@link #nearest(double, double, int)}.
+     */
+    public static final class Match {
+        private final String id;
+        private final double distanceKm;
+
+        Match(String id, double distanceKm) {
+            this.id = id;
+            this.distanceKm = distanceKm;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public double getDistanceKm() {
+            return distanceKm;
+        }
+    }
+
+    private final double cellDegrees;
+    private final int latCells;
+    private final int lonCells;
+    // Station positions ({lat, lon}) by ID, per non-empty cell
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<String, double[]>> cells = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty index.
+     *
+     * @param cellDegrees The width and height of a cell, in degrees.
+     */
+    public SpatialIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+        this.latCells = (int) Math.ceil(180 / cellDegrees);
+        this.lonCells = (int) Math.ceil(360 / cellDegrees);
+    }
+
+    /**
+     * Tells whether a position can be indexed.
+     *
+     * @param lat Latitude in degrees.
+     * @param lon Longitude in degrees.
+     * @return True if both are within range (and so not NaN).
+     */
+    public static boolean isValid(double lat, double lon) {
+        return lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180;
+    }
+
+    /**
+     * Records a station's new position, replacing its old one. Either position may be invalid,
+     * for a station that gains or loses its coordinates.
+     */
+    public void move(String id, double oldLat, double oldLon, double lat, double lon) {
+        boolean hadOld = isValid(oldLat, oldLon);
+        long oldCell = hadOld ? cell(oldLat, oldLon) : -1;
+        if (isValid(lat, lon)) {
+            long newCell = cell(lat, lon);
+            double[] position = {lat, lon};
+            // Inserted inside the cell's atomic section, so a concurrent removal that empties the
+            // cell cannot drop the cell map between finding it and adding to it
+            cells.compute(newCell, (key, stations) -> {
+                if (stations == null) {
+                    stations = new ConcurrentHashMap<>();
+                }
+                stations.put(id, position);
+                return stations;
+            });
+            if (newCell == oldCell) {
+                return;
+            }
+        }
+        if (hadOld) {
+            remove(id, oldLat, oldLon);
+        }
+    }
+
+    /**
+     * Removes a station.
+     *
+     * @param id  The station ID.
+     * @param lat The latitude it was indexed at.
+     * @param lon The longitude it was indexed at.
+     */
+    public void remove(String id, double lat, double lon) {
+        if (!isValid(lat, lon)) {
+            return;
+        }
+        cells.computeIfPresent(cell(lat, lon), (key, stations) -> {
+            stations.remove(id);
+            return stations.isEmpty() ? null : stations;
+        });
+    }
+
+    /**
+     * Removes every station.
+     */
+    public void clear() {
+        cells.clear();
+    }
+
+    /**
+     * Finds the stations inside a box. A box whose west edge is east of its east edge crosses
+     * the antimeridian.
+     *
+     * @return The IDs, in no particular order.
+     */
+    public List<String> withinBox(double south, double west, double north, double east) {
+        List<String> found = new ArrayList<>();
+        boolean wraps = west > east;
+        int minLat = latIndex(south);
+        int maxLat = latIndex(north);
+        int westIndex = lonIndex(west);
+        int eastIndex = lonIndex(east);
+        // A wrapping box with both edges in one cell still covers every column only once
+        int lonSpan = wraps ? Math.min(lonCells, lonCells - westIndex + eastIndex + 1) : eastIndex - westIndex + 1;
+        long boxCells = (long) (maxLat - minLat + 1) * lonSpan;
+        if (boxCells > cells.size()) {
+            // A box wider than the occupied area is cheaper to answer from the occupied cells
+            for (Map<String, double[]> stations : cells.values()) {
+                collect(stations, south, west, north, east, wraps, found);
+            }
+            return found;
+        }
+        for (int lat = minLat; lat <= maxLat; lat++) {
+            for (int i = 0; i < lonSpan; i++) {
+                Map<String, double[]> stations = cells.get(key(lat, (westIndex + i) % lonCells));
+                if (stations != null) {
+                    collect(stations, south, west, north, east, wraps, found);
+                }
+            }
+        }
+        return found;
+    }
+
+    private static void collect(Map<String, double[]> stations, double south, double west, double north, double east,
+                                boolean wraps, List<String> found) {
+        for (Map.Entry<String, double[]> station : stations.entrySet()) {
+            double lat = station.getValue()[0];
+            double lon = station.getValue()[1];
+            boolean inLon = wraps ? lon >= west || lon <= east : lon >= west && lon <= east;
+            if (lat >= south && lat <= north && inLon) {
+                found.add(station.getKey());
+            }
+        }
+    }
+
+    /**
+     * Finds the stations closest to a point by great-circle distance, searching outwards ring by
+     * ring of cells.
+     *
+     * @param lat Latitude in degrees.
+     * @param lon Longitude in degrees.
+     * @param k   The most stations to return.
+     * @return Up to k stations, nearest first.
+     */
+    public List<Match> nearest(double lat, double lon, int k) {
+        // Farthest match so far at the head
+        PriorityQueue<Match> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b.distanceKm, a.distanceKm));
+        int centerLat = latIndex(lat);
+        int centerLon = lonIndex(lon);
+        int visited = 0;
+        for (int ring = 0; ; ring++) {
+            if (visited > 2 * cells.size() || 2 * ring + 1 > lonCells) {
+                // Sparse index, or a ring that would wrap onto itself: scan the occupied cells instead
+                best.clear();
+                for (Map<String, double[]> stations : cells.values()) {
+                    offer(best, stations, lat, lon, k);
+                }
+                break;
+            }
+            for (int dLat = -ring; dLat <= ring; dLat++) {
+                int cellLat = centerLat + dLat;
+                if (cellLat < 0 || cellLat >= latCells) {
+                    continue;
+                }
+                // Only the ring's edge: every column on its top and bottom rows, the two end columns otherwise
+                int step = Math.abs(dLat) == ring ? 1 : Math.max(1, 2 * ring);
+                for (int dLon = -ring; dLon <= ring; dLon += step) {
+                    visited++;
+                    Map<String, double[]> stations = cells.get(key(cellLat, Math.floorMod(centerLon + dLon, lonCells)));
+                    if (stations != null) {
+                        offer(best, stations, lat, lon, k);
+                    }
+                }
+            }
+            if (best.size() == k && best.peek().distanceKm <= unvisitedBoundKm(lat, ring)) {
+                break;
+            }
+        }
+        List<Match> matches = new ArrayList<>(best);
+        matches.sort((a, b) -> Double.compare(a.distanceKm, b.distanceKm));
+        return Collections.unmodifiableList(matches);
+    }
+
+    private static void offer(PriorityQueue<Match> best, Map<String, double[]> stations, double lat, double lon, int k) {
+        for (Map.Entry<String, double[]> station : stations.entrySet()) {
+            double distance = distanceKm(lat, lon, station.getValue()[0], station.getValue()[1]);
+            if (best.size() < k) {
+                best.add(new Match(station.getKey(), distance));
+            } else if (distance < best.peek().distanceKm) {
+                best.poll();
+                best.add(new Match(station.getKey(), distance));
+            }
+        }
+    }
+
+    /**
+     * A lower bound on the distance to any station outside the first rings. Such a station is at
+     * least {@code ring} cells away in latitude or longitude; a longitude gap is worth least at the
+     * highest latitude the station can be at.
+     */
+    private double unvisitedBoundKm(double lat, int ring) {
+        double gapDegrees = ring * cellDegrees;
+        double latBound = gapDegrees * KM_PER_DEGREE;
+        double maxLat = Math.toRadians(Math.min(90, Math.abs(lat) + gapDegrees));
+        double halfLonGap = Math.toRadians(Math.min(gapDegrees, 180)) / 2;
+        double lonBound = 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.cos(maxLat) * Math.sin(halfLonGap)));
+        return Math.min(latBound, lonBound);
+    }
+
+    /**
+     * Great-circle distance by the haversine formula.
+     *
+     * @return The distance in kilometres.
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double h = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    private long cell(double lat, double lon) {
+        return key(latIndex(lat), lonIndex(lon));
+    }
+
+    private long key(int latIndex, int lonIndex) {
+        return (long) latIndex * lonCells + lonIndex;
+    }
+
+    private int latIndex(double lat) {
+        return Math.min(latCells - 1, Math.max(0, (int) Math.floor((lat + 90) / cellDegrees)));
+    }
+
+    // Clamped rather than wrapped, so that 180 lands in the last column like every eastern edge
+    private int lonIndex(double lon) {
+        return Math.min(lonCells - 1, Math.max(0, (int) Math.floor((lon + 180) / cellDegrees)));
+    }
+}
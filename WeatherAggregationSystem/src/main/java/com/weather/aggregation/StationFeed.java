@@ -0,0 +1,342 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fans station changes out to stream subscribers as Server-Sent Events. Publishing only queues the
+ * change for a single dispatcher thread, so the PUT path never waits on subscribers; the dispatcher
+ * encodes each event once and hands the same bytes to every matching subscriber. Each subscriber
+ * has a bounded buffer, and one that falls behind is marked overflowed so its transport can
+ * disconnect it instead of holding memory for it.
+ */
+public class StationFeed {
+    private static final Logger logger = LoggerFactory.getLogger(StationFeed.class);
+    private static final int MAX_PENDING_EVENTS = 65536;
+    /** How long a stream may go without output before a heartbeat is sent. */
+    public static final long HEARTBEAT_MILLIS = 15000;
+    /** An SSE comment, sent to keep idle streams open and to notice clients that have gone. */
+    public static final byte[] HEARTBEAT = ": keep-alive\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final Event STOP = new Event(null, 0, null, null);
+
+    private final int bufferEvents;
+    private final BlockingQueue<Event> pending = new LinkedBlockingQueue<>(MAX_PENDING_EVENTS);
+    private final Set<Subscription> allStations = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Set<Subscription>> byStation = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    // Set when an event could not be queued; every subscriber has then missed it
+    private volatile boolean lostEvents;
+    private final Thread dispatcher;
+
+    /**
+     * Creates a feed and starts its dispatcher thread.
+     *
+     * @param bufferEvents Events buffered per subscriber before it is marked overflowed.
+     */
+    public StationFeed(int bufferEvents) {
+        this.bufferEvents = bufferEvents;
+        dispatcher = new Thread(this::dispatch, "stream-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Subscribes to changes.
+     *
+     * @param stationId The station to follow, or null for every station.
+     * @param onReady   Called from the dispatcher when the subscription's buffer stops being empty
+     *                  or overflows, or null if the subscriber waits in {@link Subscription#take(long)}.
+     * @return The subscription; cancel it when the subscriber goes away.
+     */
+    public Subscription subscribe(String stationId, Runnable onReady) {
+        Subscription subscription = new Subscription(stationId, onReady, bufferEvents);
+        if (stationId == null) {
+            allStations.add(subscription);
+        } else {
+            // Added inside the station's atomic section, so a concurrent removal that empties the set
+            // cannot drop it between finding it and adding to it
+            byStation.compute(stationId, (id, station) -> {
+                if (station == null) {
+                    station = ConcurrentHashMap.newKeySet();
+                }
+                station.add(subscription);
+                return station;
+            });
+        }
+        subscribers.incrementAndGet();
+        return subscription;
+    }
+
+    /**
+     * Publishes a station update. The data is only encoded if someone is subscribed.
+     *
+     * @param id    The station ID.
+     * @param clock The change's stamp, sent as the event ID.
+     * @param data  Supplies the encoded {@code {"<id>":{...}}} document.
+     */
+    public void publishUpdate(String id, long clock, Supplier<byte[]> data) {
+        publish(new Event("update", clock, id, data));
+    }
+
+    /**
+     * Publishes a station expiry.
+     *
+     * @param id    The station ID.
+     * @param clock The removal's stamp, sent as the event ID.
+     */
+    public void publishExpiry(String id, long clock) {
+        publish(new Event("expire", clock, id, null));
+    }
+
+    private void publish(Event event) {
+        if (subscribers.get() == 0) {
+            return;
+        }
+        if (!pending.offer(event)) {
+            lostEvents = true;
+        }
+    }
+
+    /**
+     * Stops the dispatcher. Subscribers are not notified.
+     */
+    public void close() {
+        pending.clear();
+        pending.offer(STOP);
+        dispatcher.interrupt();
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.get();
+    }
+
+    private void dispatch() {
+        try {
+            while (true) {
+                Event event = pending.take();
+                if (event == STOP) {
+                    return;
+                }
+                if (lostEvents) {
+                    lostEvents = false;
+                    overflowAll();
+                }
+                Set<Subscription> station = byStation.get(event.id);
+                if (allStations.isEmpty() && (station == null || station.isEmpty())) {
+                    continue;
+                }
+                byte[] bytes;
+                try {
+                    bytes = event.encode();
+                } catch (RuntimeException e) {
+                    // Only this event's subscribers miss it, and they are told so by overflowing
+                    logger.error("Failed to encode stream event for station {}", event.id, e);
+                    overflow(allStations);
+                    if (station != null) {
+                        overflow(station);
+                    }
+                    continue;
+                }
+                for (Subscription subscription : allStations) {
+                    subscription.offer(bytes);
+                }
+                if (station != null) {
+                    for (Subscription subscription : station) {
+                        subscription.offer(bytes);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Feed closed
+        }
+    }
+
+    private static void overflow(Set<Subscription> subscriptions) {
+        for (Subscription subscription : subscriptions) {
+            subscription.overflow();
+        }
+    }
+
+    private void overflowAll() {
+        overflow(allStations);
+        for (Set<Subscription> station : byStation.values()) {
+            overflow(station);
+        }
+    }
+
+    private void remove(Subscription subscription) {
+        boolean removed;
+        if (subscription.stationId == null) {
+            removed = allStations.remove(subscription);
+        } else {
+            boolean[] found = new boolean[1];
+            byStation.computeIfPresent(subscription.stationId, (id, station) -> {
+                found[0] = station.remove(subscription);
+                return station.isEmpty() ? null : station;
+            });
+            removed = found[0];
+        }
+        if (removed) {
+            subscribers.decrementAndGet();
+        }
+    }
+
+    /**
+     * A change waiting to be fanned out.
+     */
+    private static final class Event {
+        final String type;
+        final long clock;
+        final String id;
+        final Supplier<byte[]> data;
+
+        Event(String type, long clock, String id, Supplier<byte[]> data) {
+            this.type = type;
+            this.clock = clock;
+            this.id = id;
+            this.data = data;
+        }
+
+        // id: <clock>\nevent: <type>\ndata: <json>\n\n; the JSON never contains a raw newline
+        byte[] encode() {
+            JsonWriter writer = new JsonWriter();
+            try {
+                byte[] head = ("id: " + clock + "\nevent: " + type + "\ndata: ").getBytes(StandardCharsets.US_ASCII);
+                writer.raw(head, 0, head.length);
+                if (data != null) {
+                    byte[] json = data.get();
+                    writer.raw(json, 0, json.length);
+                } else {
+                    writer.write('{');
+                    writer.writeString("id");
+                    writer.write(':');
+                    writer.writeString(id);
+                    writer.write('}');
+                }
+                writer.write('\n');
+                writer.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // an in-memory writer does not do I/O
+            }
+            return writer.toByteArray();
+        }
+    }
+
+    /**
+     * One subscriber's bounded queue of encoded events.
+     */
+    public final class Subscription {
+        private final String stationId;
+        private final Runnable onReady;
+        private final int capacity;
+        private final ArrayDeque<byte[]> events = new ArrayDeque<>();
+        private boolean overflowed;
+        private boolean cancelled;
+
+        private Subscription(String stationId, Runnable onReady, int capacity) {
+            this.stationId = stationId;
+            this.onReady = onReady;
+            this.capacity = capacity;
+        }
+
+        public String getStationId() {
+            return stationId;
+        }
+
+        /**
+         * Takes the next event without waiting.
+         *
+         * @return The encoded event, or null if none is buffered.
+         */
+        public synchronized byte[] poll() {
+            return events.poll();
+        }
+
+        /**
+         * Waits for the next event.
+         *
+         * @param timeoutMillis How long to wait.
+         * @return The encoded event, or null on timeout, overflow or cancellation.
+         * @throws InterruptedException If interrupted while waiting.
+         */
+        public synchronized byte[] take(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (events.isEmpty() && !overflowed && !cancelled) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                wait(remaining);
+            }
+            return events.poll();
+        }
+
+        /**
+         * Tells whether events were dropped because the buffer was full. The subscriber has then
+         * missed changes and should be disconnected.
+         *
+         * @return True once the buffer has overflowed.
+         */
+        public synchronized boolean isOverflowed() {
+            return overflowed;
+        }
+
+        /**
+         * Stops delivery and releases the subscription.
+         */
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                events.clear();
+                notifyAll();
+            }
+            remove(this);
+        }
+
+        private void offer(byte[] event) {
+            boolean notify;
+            synchronized (this) {
+                if (cancelled || overflowed) {
+                    return;
+                }
+                if (events.size() >= capacity) {
+                    overflowed = true;
+                    events.clear();
+                    notify = true;
+                } else {
+                    notify = events.isEmpty();
+                    events.add(event);
+                }
+                notifyAll();
+            }
+            if (notify && onReady != null) {
+                onReady.run();
+            }
+        }
+
+        private void overflow() {
+            synchronized (this) {
+                if (cancelled || overflowed) {
+                    return;
+                }
+                overflowed = true;
+                events.clear();
+                notifyAll();
+            }
+            if (onReady != null) {
+                onReady.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Recent readings of one station, kept in a fixed-size ring of primitive arrays. The arrays are
+ * allocated once, so memory per station is bounded and appending a reading allocates nothing.
+ * Only the numeric measurements in {@link #FIELDS} are kept; a missing value is stored as NaN.
+ */
+public class StationHistory {
+    /** The measurements kept for each reading. */
+    static final String[] FIELDS = {
+            "air_temp", "apparent_t", "dewpt", "press", "rel_hum", "wind_spd_kmh", "wind_spd_kt", "temp"
+    };
+    private static final boolean[] INTEGER_FIELDS = new boolean[FIELDS.length];
+
+    static {
+        for (int i = 0; i < FIELDS.length; i++) {
+            INTEGER_FIELDS[i] = WeatherObservation.isIntegerKey(FIELDS[i]);
+        }
+    }
+
+    private final int capacity;
+    private final long maxAgeMillis;
+    private final long[] times;
+    // Reading i's fields are at i * FIELDS.length
+    private final double[] values;
+    // Next slot to write, and how many slots hold readings
+    private int head;
+    private int size;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param capacity     The most readings kept; older ones are overwritten.
+     * @param maxAgeMillis Readings older than this are no longer returned.
+     */
+    public StationHistory(int capacity, long maxAgeMillis) {
+        this.capacity = capacity;
+        this.maxAgeMillis = maxAgeMillis;
+        this.times = new long[capacity];
+        this.values = new double[capacity * FIELDS.length];
+    }
+
+    /**
+     * Records a reading, overwriting the oldest one if the history is full.
+     *
+     * @param time        When the reading was received, in epoch milliseconds.
+     * @param observation The reading.
+     */
+    public synchronized void append(long time, WeatherObservation observation) {
+        times[head] = time;
+        int base = head * FIELDS.length;
+        for (int field = 0; field < FIELDS.length; field++) {
+            values[base + field] = observation.getDouble(FIELDS[field]);
+        }
+        head = head + 1 == capacity ? 0 : head + 1;
+        if (size < capacity) {
+            size++;
+        }
+    }
+
+    /**
+     * Encodes the readings received in a time range, oldest first, as a JSON array of objects with
+     * a {@code time} and each measurement the reading had.
+     *
+     * @param from Earliest receipt time to include, in epoch milliseconds.
+     * @param to   Latest receipt time to include, in epoch milliseconds.
+     * @param now  The current time, which readings past the maximum age are measured from.
+     * @param out  The writer to encode to.
+     */
+    public void writeTo(long from, long to, long now, JsonWriter out) {
+        long earliest = Math.max(from, now - maxAgeMillis);
+        long[] copyTimes;
+        double[] copyValues;
+        int count = 0;
+        // Copy the matching readings out so that encoding does not hold up appends
+        synchronized (this) {
+            copyTimes = new long[size];
+            copyValues = new double[size * FIELDS.length];
+            int oldest = head - size < 0 ? head - size + capacity : head - size;
+            for (int i = 0; i < size; i++) {
+                int slot = (oldest + i) % capacity;
+                if (times[slot] >= earliest && times[slot] <= to) {
+                    copyTimes[count] = times[slot];
+                    System.arraycopy(values, slot * FIELDS.length, copyValues, count * FIELDS.length, FIELDS.length);
+                    count++;
+                }
+            }
+        }
+        try {
+            out.write('[');
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write('{');
+                out.writeString("time");
+                out.write(':');
+                out.writeLong(copyTimes[i]);
+                for (int field = 0; field < FIELDS.length; field++) {
+                    double value = copyValues[i * FIELDS.length + field];
+                    if (Double.isNaN(value)) {
+                        continue;
+                    }
+                    out.write(',');
+                    out.writeString(FIELDS[field]);
+                    out.write(':');
+                    if (INTEGER_FIELDS[field]) {
+                        out.writeLong((long) value);
+                    } else {
+                        out.writeDouble(value);
+                    }
+                }
+                out.write('}');
+            }
+            out.write(']');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // an in-memory writer does not do I/O
+        }
+    }
+}
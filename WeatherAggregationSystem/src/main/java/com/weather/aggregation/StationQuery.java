@@ -0,0 +1,404 @@
+package com.weather.aggregation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A filter expression over station fields, such as {@code air_temp>30 and (state=SA or state=VIC)},
+ * compiled once into a tree of predicates that test typed observations directly.
+ *
+ * <p>Comparisons are {@code field op literal} with {@code = != < <= > >=}; a literal is a number,
+ * a quoted string, or a bare word taken as a string. Comparisons combine with {@code and},
+ * {@code or}, {@code not} and parentheses, and evaluation stops as soon as the outcome is known.
+ * A comparison against a missing field, or one of the other type, is false.
+ *
+ * <p>Equalities on indexed fields and latitude/longitude bounds that every match must satisfy are
+ * kept aside, so that the store can take its candidates from the secondary and spatial indexes.
+ */
+public final class StationQuery {
+    /** One compiled test. */
+    private interface Node {
+        boolean test(WeatherObservation observation);
+    }
+
+    private enum Op {
+        EQ("="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">=");
+
+        private final String symbol;
+
+        Op(String symbol) {
+            this.symbol = symbol;
+        }
+
+        boolean holds(int comparison) {
+            switch (this) {
+                case EQ: return comparison == 0;
+                case NE: return comparison != 0;
+                case LT: return comparison < 0;
+                case LE: return comparison <= 0;
+                case GT: return comparison > 0;
+                default: return comparison >= 0;
+            }
+        }
+    }
+
+    private final String text;
+    private final Node root;
+    private final Map<String, String> indexedEqualities;
+    // south, west, north, east; null when the expression does not bound the longitude
+    private final double[] box;
+
+    private StationQuery(String text, Node root, Map<String, String> indexedEqualities, double[] box) {
+        this.text = text;
+        this.root = root;
+        this.indexedEqualities = indexedEqualities;
+        this.box = box;
+    }
+
+    /**
+     * Parses and compiles an expression.
+     *
+     * @param text The expression.
+     * @return The compiled query, which is immutable and can be shared between threads.
+     * @throws IllegalArgumentException If the expression is not valid, with a message saying why.
+     */
+    public static StationQuery compile(String text) {
+        Parser parser = new Parser(text);
+        List<Node> conjuncts = new ArrayList<>();
+        Node root = parser.parseOr(conjuncts);
+        if (parser.peek() != null) {
+            throw new IllegalArgumentException("Unexpected '" + parser.peek() + "'");
+        }
+        Map<String, String> equalities = new HashMap<>();
+        double[] box = {-90, -180, 90, 180};
+        // Only a longitude bound narrows the grid usefully: a latitude band alone spans every column
+        boolean lonBounded = false;
+        for (Node node : conjuncts) {
+            if (!(node instanceof Comparison)) {
+                continue;
+            }
+            Comparison term = (Comparison) node;
+            if (term.op == Op.EQ && term.text != null && SecondaryIndex.isIndexed(term.field)) {
+                equalities.put(term.field, term.text);
+            } else if (term.text == null && term.field.equals("lat")) {
+                bound(box, 0, term.op, term.number);
+            } else if (term.text == null && term.field.equals("lon")) {
+                lonBounded |= bound(box, 1, term.op, term.number);
+            }
+        }
+        return new StationQuery(text, root, Collections.unmodifiableMap(equalities), lonBounded ? box : null);
+    }
+
+    // Narrows the box by a term on its low (index) and high (index + 2) edges
+    private static boolean bound(double[] box, int index, Op op, double value) {
+        if (op == Op.GT || op == Op.GE || op == Op.EQ) {
+            box[index] = Math.max(box[index], value);
+        }
+        if (op == Op.LT || op == Op.LE || op == Op.EQ) {
+            box[index + 2] = Math.min(box[index + 2], value);
+        }
+        return op != Op.NE;
+    }
+
+    /**
+     * Tests an observation.
+     *
+     * @param observation The station's observation.
+     * @return True if it matches.
+     */
+    public boolean test(WeatherObservation observation) {
+        return root.test(observation);
+    }
+
+    /**
+     * Returns equalities on fields from {@link SecondaryIndex#FIELDS} that every match satisfies.
+     *
+     * @return Field values; empty if there are none.
+     */
+    public Map<String, String> getIndexedEqualities() {
+        return indexedEqualities;
+    }
+
+    /**
+     * Returns a box that every match lies inside, if the expression bounds {@code lon}; any
+     * {@code lat} bounds narrow it further. An empty box, with south above north or west past
+     * east, matches nothing.
+     *
+     * @return south, west, north and east in degrees, or null.
+     */
+    public double[] getBox() {
+        return box == null ? null : box.clone();
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /** A comparison of one field with a literal, typed when the query is compiled. */
+    private static final class Comparison implements Node {
+        final String field;
+        final Op op;
+        final double number;
+        // The string literal, or null for a number
+        final String text;
+        final boolean typedNumber;
+
+        Comparison(String field, Op op, double number, String text) {
+            this.field = field;
+            this.op = op;
+            this.number = number;
+            this.text = text;
+            this.typedNumber = text == null
+                    && (WeatherObservation.isDoubleKey(field) || WeatherObservation.isIntegerKey(field));
+        }
+
+        @Override
+        public boolean test(WeatherObservation observation) {
+            if (typedNumber) {
+                // Read straight from the primitive slot; NaN means missing
+                double value = observation.getDouble(field);
+                return !Double.isNaN(value) && op.holds(Double.compare(value, number));
+            }
+            Object value = observation.get(field);
+            if (text != null) {
+                return value instanceof String && op.holds(((String) value).compareTo(text));
+            }
+            return value instanceof Number && op.holds(Double.compare(((Number) value).doubleValue(), number));
+        }
+    }
+
+    private static final class And implements Node {
+        private final Node[] terms;
+
+        And(List<Node> terms) {
+            this.terms = terms.toArray(new Node[0]);
+        }
+
+        @Override
+        public boolean test(WeatherObservation observation) {
+            for (Node term : terms) {
+                if (!term.test(observation)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Or implements Node {
+        private final Node[] terms;
+
+        Or(List<Node> terms) {
+            this.terms = terms.toArray(new Node[0]);
+        }
+
+        @Override
+        public boolean test(WeatherObservation observation) {
+            for (Node term : terms) {
+                if (term.test(observation)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Not implements Node {
+        private final Node term;
+
+        Not(Node term) {
+            this.term = term;
+        }
+
+        @Override
+        public boolean test(WeatherObservation observation) {
+            return !term.test(observation);
+        }
+    }
+
+    /**
+     * Recursive-descent parser over a token list:
+     * <pre>
+     * or         := and ("or" and)*
+     * and        := unary ("and" unary)*
+     * unary      := "not" unary | "(" or ")" | comparison
+     * comparison := field op literal
+     * </pre>
+     */
+    private static final class Parser {
+        private final List<String> tokens = new ArrayList<>();
+        // Whether each token was quoted, so that a quoted "and" is a literal
+        private final List<Boolean> quoted = new ArrayList<>();
+        private int pos;
+
+        Parser(String text) {
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')') {
+                    add(String.valueOf(c), false);
+                    i++;
+                } else if (c == '<' || c == '>' || c == '!' || c == '=') {
+                    int length = i + 1 < text.length() && text.charAt(i + 1) == '=' ? 2 : 1;
+                    String op = text.substring(i, i + length);
+                    if (op.equals("!")) {
+                        throw new IllegalArgumentException("Expected '!=' at position " + i);
+                    }
+                    // "==" is accepted as "="
+                    add(op.equals("==") ? "=" : op, false);
+                    i += length;
+                } else if (c == '\'' || c == '"') {
+                    int end = text.indexOf(c, i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unterminated string at position " + i);
+                    }
+                    add(text.substring(i + 1, end), true);
+                    i = end + 1;
+                } else {
+                    int start = i;
+                    while (i < text.length() && isWordChar(text.charAt(i))) {
+                        i++;
+                    }
+                    if (i == start) {
+                        throw new IllegalArgumentException("Unexpected '" + c + "' at position " + i);
+                    }
+                    add(text.substring(start, i), false);
+                }
+            }
+        }
+
+        private static boolean isWordChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-' || c == '+';
+        }
+
+        private void add(String token, boolean isQuoted) {
+            tokens.add(token);
+            quoted.add(isQuoted);
+        }
+
+        String peek() {
+            return pos < tokens.size() ? tokens.get(pos) : null;
+        }
+
+        private boolean keyword(String word) {
+            if (pos < tokens.size() && !quoted.get(pos) && tokens.get(pos).toLowerCase(Locale.ROOT).equals(word)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private String next(String expected) {
+            if (pos >= tokens.size()) {
+                throw new IllegalArgumentException("Expected " + expected + " at end of expression");
+            }
+            return tokens.get(pos++);
+        }
+
+        // Collects the top-level conjuncts, which the indexes may use, when the expression is not an "or"
+        Node parseOr(List<Node> conjuncts) {
+            List<Node> terms = new ArrayList<>();
+            List<Node> first = new ArrayList<>();
+            terms.add(parseAnd(first));
+            while (keyword("or")) {
+                terms.add(parseAnd(new ArrayList<>()));
+            }
+            if (terms.size() == 1) {
+                conjuncts.addAll(first);
+                return terms.get(0);
+            }
+            return new Or(terms);
+        }
+
+        private Node parseAnd(List<Node> conjuncts) {
+            addConjunct(conjuncts, parseUnary());
+            while (keyword("and")) {
+                addConjunct(conjuncts, parseUnary());
+            }
+            return conjuncts.size() == 1 ? conjuncts.get(0) : new And(conjuncts);
+        }
+
+        // A parenthesised conjunction is flattened into the enclosing one
+        private static void addConjunct(List<Node> conjuncts, Node term) {
+            if (term instanceof And) {
+                Collections.addAll(conjuncts, ((And) term).terms);
+            } else {
+                conjuncts.add(term);
+            }
+        }
+
+        private Node parseUnary() {
+            if (keyword("not")) {
+                return new Not(parseUnary());
+            }
+            if ("(".equals(peek()) && !quoted.get(pos)) {
+                pos++;
+                Node node = parseOr(new ArrayList<>());
+                if (!")".equals(next("')'")) || quoted.get(pos - 1)) {
+                    throw new IllegalArgumentException("Expected ')'");
+                }
+                return node;
+            }
+            return parseComparison();
+        }
+
+        private Node parseComparison() {
+            String field = next("a field name");
+            if (quoted.get(pos - 1) || !isField(field)) {
+                throw new IllegalArgumentException("Expected a field name, found '" + field + "'");
+            }
+            String symbol = next("an operator");
+            Op op = null;
+            for (Op candidate : Op.values()) {
+                if (candidate.symbol.equals(symbol) && !quoted.get(pos - 1)) {
+                    op = candidate;
+                }
+            }
+            if (op == null) {
+                throw new IllegalArgumentException("Expected an operator after '" + field + "', found '" + symbol + "'");
+            }
+            String literal = next("a value");
+            boolean isQuoted = quoted.get(pos - 1);
+            if (!isQuoted && (literal.equals("(") || literal.equals(")") || isOperator(literal))) {
+                throw new IllegalArgumentException("Expected a value after '" + field + symbol + "'");
+            }
+            if (!isQuoted) {
+                try {
+                    return new Comparison(field, op, Double.parseDouble(literal), null);
+                } catch (NumberFormatException e) {
+                    // A bare word is a string
+                }
+            }
+            return new Comparison(field, op, Double.NaN, literal);
+        }
+
+        private static boolean isField(String token) {
+            if (token.isEmpty() || !(Character.isLetter(token.charAt(0)) || token.charAt(0) == '_')) {
+                return false;
+            }
+            for (int i = 0; i < token.length(); i++) {
+                char c = token.charAt(i);
+                if (!Character.isLetterOrDigit(c) && c != '_') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isOperator(String token) {
+            for (Op op : Op.values()) {
+                if (op.symbol.equals(token)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
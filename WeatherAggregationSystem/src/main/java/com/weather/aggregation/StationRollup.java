@@ -0,0 +1,182 @@
+package com.weather.aggregation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Running count, min, max and sum of one station's measurements over tumbling windows. Each
+ * configured window width keeps its last {@link #BUCKETS} buckets, aligned to the epoch, in
+ * primitive arrays allocated once; a reading updates the current bucket of every width in O(1).
+ */
+public class StationRollup {
+    /** The measurements rolled up. */
+    static final String[] FIELDS = {"air_temp", "apparent_t", "dewpt", "press", "rel_hum", "wind_spd_kmh"};
+    /** Buckets kept per window width. */
+    static final int BUCKETS = 12;
+    private static final int F = FIELDS.length;
+    private static final boolean[] INTEGER_FIELDS = new boolean[F];
+
+    static {
+        for (int i = 0; i < F; i++) {
+            INTEGER_FIELDS[i] = WeatherObservation.isIntegerKey(FIELDS[i]);
+        }
+    }
+
+    private final long[] widths;
+    // Bucket b of width w is at w * BUCKETS + b; its field f is at (w * BUCKETS + b) * F + f
+    private final long[] starts;
+    private final int[] counts;
+    private final double[] mins;
+    private final double[] maxs;
+    private final double[] sums;
+    // Current bucket per width
+    private final int[] current;
+
+    /**
+     * Creates an empty rollup.
+     *
+     * @param widthMillis The window widths, in milliseconds.
+     */
+    public StationRollup(long[] widthMillis) {
+        widths = widthMillis.clone();
+        int buckets = widths.length * BUCKETS;
+        starts = new long[buckets];
+        Arrays.fill(starts, -1);
+        counts = new int[buckets * F];
+        mins = new double[buckets * F];
+        maxs = new double[buckets * F];
+        sums = new double[buckets * F];
+        current = new int[widths.length];
+    }
+
+    /**
+     * Adds a reading to the current bucket of every window width, starting a new bucket when the
+     * reading falls past the current one.
+     *
+     * @param time        When the reading was received, in epoch milliseconds.
+     * @param observation The reading.
+     */
+    public synchronized void add(long time, WeatherObservation observation) {
+        for (int w = 0; w < widths.length; w++) {
+            long start = time - time % widths[w];
+            int bucket = w * BUCKETS + current[w];
+            // A reading stamped before the current bucket (the wall clock stepped back) joins it
+            if (start > starts[bucket]) {
+                current[w] = current[w] + 1 == BUCKETS ? 0 : current[w] + 1;
+                bucket = w * BUCKETS + current[w];
+                starts[bucket] = start;
+                int base = bucket * F;
+                for (int f = 0; f < F; f++) {
+                    counts[base + f] = 0;
+                    sums[base + f] = 0;
+                }
+            }
+            int base = bucket * F;
+            for (int f = 0; f < F; f++) {
+                double value = observation.getDouble(FIELDS[f]);
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                int i = base + f;
+                if (counts[i] == 0 || value < mins[i]) {
+                    mins[i] = value;
+                }
+                if (counts[i] == 0 || value > maxs[i]) {
+                    maxs[i] = value;
+                }
+                sums[i] += value;
+                counts[i]++;
+            }
+        }
+    }
+
+    /**
+     * Encodes the buckets of one window width that hold readings and are still within the last
+     * {@link #BUCKETS} windows, oldest first, as a JSON array of
+     * {@code {"start":S,"end":E,"<field>":{"count":N,"min":..,"max":..,"avg":..},...}}.
+     *
+     * @param width The index of the window width.
+     * @param now   The current time, in epoch milliseconds.
+     * @param out   The writer to encode to.
+     */
+    public void writeTo(int width, long now, JsonWriter out) {
+        long widthMillis = widths[width];
+        long oldest = now - now % widthMillis - (BUCKETS - 1) * widthMillis;
+        long[] copyStarts = new long[BUCKETS];
+        int[] copyCounts = new int[BUCKETS * F];
+        double[] copyMins = new double[BUCKETS * F];
+        double[] copyMaxs = new double[BUCKETS * F];
+        double[] copySums = new double[BUCKETS * F];
+        int count = 0;
+        // Copy under the lock, oldest bucket first, so that encoding does not hold up readings
+        synchronized (this) {
+            for (int i = 1; i <= BUCKETS; i++) {
+                int bucket = width * BUCKETS + (current[width] + i) % BUCKETS;
+                if (starts[bucket] < 0 || starts[bucket] < oldest) {
+                    continue;
+                }
+                copyStarts[count] = starts[bucket];
+                System.arraycopy(counts, bucket * F, copyCounts, count * F, F);
+                System.arraycopy(mins, bucket * F, copyMins, count * F, F);
+                System.arraycopy(maxs, bucket * F, copyMaxs, count * F, F);
+                System.arraycopy(sums, bucket * F, copySums, count * F, F);
+                count++;
+            }
+        }
+        try {
+            out.write('[');
+            for (int b = 0; b < count; b++) {
+                if (b > 0) {
+                    out.write(',');
+                }
+                out.write('{');
+                out.writeString("start");
+                out.write(':');
+                out.writeLong(copyStarts[b]);
+                out.write(',');
+                out.writeString("end");
+                out.write(':');
+                out.writeLong(copyStarts[b] + widthMillis);
+                for (int f = 0; f < F; f++) {
+                    int i = b * F + f;
+                    if (copyCounts[i] == 0) {
+                        continue;
+                    }
+                    out.write(',');
+                    out.writeString(FIELDS[f]);
+                    out.write(':');
+                    out.write('{');
+                    out.writeString("count");
+                    out.write(':');
+                    out.writeLong(copyCounts[i]);
+                    out.write(',');
+                    out.writeString("min");
+                    out.write(':');
+                    writeValue(out, f, copyMins[i]);
+                    out.write(',');
+                    out.writeString("max");
+                    out.write(':');
+                    writeValue(out, f, copyMaxs[i]);
+                    out.write(',');
+                    out.writeString("avg");
+                    out.write(':');
+                    out.writeDouble(copySums[i] / copyCounts[i]);
+                    out.write('}');
+                }
+                out.write('}');
+            }
+            out.write(']');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // an in-memory writer does not do I/O
+        }
+    }
+
+    private static void writeValue(JsonWriter out, int field, double value) throws IOException {
+        if (INTEGER_FIELDS[field]) {
+            out.writeLong((long) value);
+        } else {
+            out.writeDouble(value);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.weather.aggregation;
+
+/**
+ * An already-encoded UTF-8 JSON document tagged with the data version it was built from.
+ * Compressed forms are built on first request and kept with the document, so each version of
+ * the data is compressed at most once per coding.
+ */
+public class VersionedDocument {
+    private final long version;
+    private final byte[] bytes;
+    private volatile byte[] gzipBytes;
+    private volatile byte[] deflateBytes;
+
+    /**
+     * Creates a new document.
+     *
+     * @param version The data version the bytes reflect.
+     * @param bytes   The encoded JSON.
+     */
+    public VersionedDocument(long version, byte[] bytes) {
+        this.version = version;
+        this.bytes = bytes;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the encoded bytes. The array is shared and must not be modified.
+     *
+     * @return The encoded JSON.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the document compressed with a content coding. Racing callers may both compress,
+     * which is harmless.
+     *
+     * @param encoding The coding.
+     * @return The encoded bytes, shared and not to be modified.
+     */
+    public byte[] getBytes(ContentEncoding encoding) {
+        switch (encoding) {
+            case GZIP:
+                byte[] gzip = gzipBytes;
+                if (gzip == null) {
+                    gzip = encoding.encode(bytes);
+                    gzipBytes = gzip;
+                }
+                return gzip;
+            case DEFLATE:
+                byte[] deflate = deflateBytes;
+                if (deflate == null) {
+                    deflate = encoding.encode(bytes);
+                    deflateBytes = deflate;
+                }
+                return deflate;
+            default:
+                return bytes;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.weather.aggregation;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One station's weather reading. The keys of the known schema are held in primitive arrays, so
+ * a reading costs a few hundred bytes instead of a {@code HashMap} of boxed values and key strings;
+ * keys outside the schema, or known keys with an unexpected type, go to an overflow map.
+ */
+public class WeatherObservation {
+    private static final String[] STRING_KEYS = {
+            "id", "name", "state", "time_zone", "local_date_time", "local_date_time_full", "cloud", "wind_dir"
+    };
+    private static final String[] DOUBLE_KEYS = {
+            "lat", "lon", "air_temp", "apparent_t", "dewpt", "press", "wind_spd_kmh", "wind_spd_kt", "temp"
+    };
+    private static final String[] INT_KEYS = {"rel_hum", "lamportClock"};
+    private static final int DOUBLE_BASE = STRING_KEYS.length;
+    private static final int INT_BASE = DOUBLE_BASE + DOUBLE_KEYS.length;
+
+    private final String[] strings = new String[STRING_KEYS.length];
+    private final double[] doubles = new double[DOUBLE_KEYS.length];
+    private final int[] ints = new int[INT_KEYS.length];
+    // Bit per double and int slot, set when the slot holds a value
+    private int present;
+    // Unknown keys, in insertion order; null until needed
+    private Map<String, Object> extra;
+
+    /**
+     * Builds an observation from a parsed JSON object.
+     *
+     * @param map The station's key/value pairs.
+     * @return The observation.
+     */
+    public static WeatherObservation fromMap(Map<String, Object> map) {
+        WeatherObservation observation = new WeatherObservation();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            observation.put(entry.getKey(), entry.getValue());
+        }
+        return observation;
+    }
+
+    /**
+     * Tells whether a key is stored as a double.
+     *
+     * @param key The key.
+     * @return True for numeric schema keys such as {@code air_temp}.
+     */
+    public static boolean isDoubleKey(String key) {
+        int slot = slot(key);
+        return slot >= DOUBLE_BASE && slot < INT_BASE;
+    }
+
+    /**
+     * Tells whether a key is stored as an int.
+     *
+     * @param key The key.
+     * @return True for whole-number schema keys such as {@code rel_hum}.
+     */
+    public static boolean isIntegerKey(String key) {
+        return slot(key) >= INT_BASE;
+    }
+
+    public String getId() {
+        return strings[0];
+    }
+
+    /**
+     * Returns a numeric value without boxing.
+     *
+     * @param key The key.
+     * @return The value, or NaN if the key is absent or not numeric.
+     */
+    public double getDouble(String key) {
+        int slot = slot(key);
+        if (slot >= DOUBLE_BASE && hasSlot(slot)) {
+            return slot < INT_BASE ? doubles[slot - DOUBLE_BASE] : ints[slot - INT_BASE];
+        }
+        Object value = extra != null ? extra.get(key) : null;
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * Returns a value in the form the JSON parser would produce.
+     *
+     * @param key The key.
+     * @return The value, or null if absent.
+     */
+    public Object get(String key) {
+        int slot = slot(key);
+        if (slot >= 0 && hasSlot(slot)) {
+            return boxed(slot);
+        }
+        return extra != null ? extra.get(key) : null;
+    }
+
+    /**
+     * Tells whether the observation has a key, even one holding null.
+     *
+     * @param key The key.
+     * @return True if present.
+     */
+    public boolean containsKey(String key) {
+        int slot = slot(key);
+        return (slot >= 0 && hasSlot(slot)) || (extra != null && extra.containsKey(key));
+    }
+
+    /**
+     * Sets a value. Schema keys with the expected type are stored unboxed; anything else is kept
+     * as given in the overflow map.
+     *
+     * @param key   The key.
+     * @param value The value.
+     */
+    public void put(String key, Object value) {
+        int slot = slot(key);
+        if (slot >= 0 && slot < DOUBLE_BASE && value instanceof String) {
+            strings[slot] = (String) value;
+        } else if (slot >= DOUBLE_BASE && slot < INT_BASE && value instanceof Number) {
+            putDouble(slot, ((Number) value).doubleValue());
+        } else if (slot >= INT_BASE && isInt(value)) {
+            putInt(slot, ((Number) value).intValue());
+        } else {
+            if (slot >= 0) {
+                clearSlot(slot);
+            }
+            if (extra == null) {
+                extra = new LinkedHashMap<>();
+            }
+            extra.put(key, value);
+            return;
+        }
+        if (extra != null) {
+            extra.remove(key);
+        }
+    }
+
+    /**
+     * Sets a numeric value without boxing. Keys outside the numeric schema are boxed into the
+     * overflow map.
+     *
+     * @param key   The key.
+     * @param value The value.
+     */
+    public void putDouble(String key, double value) {
+        int slot = slot(key);
+        if (slot >= DOUBLE_BASE && slot < INT_BASE) {
+            putDouble(slot, value);
+            if (extra != null) {
+                extra.remove(key);
+            }
+        } else {
+            put(key, value);
+        }
+    }
+
+    /**
+     * Returns the observation as a map of boxed values, schema keys first.
+     *
+     * @return A new map.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int slot = 0; slot < INT_BASE + INT_KEYS.length; slot++) {
+            if (hasSlot(slot)) {
+                map.put(keyOf(slot), boxed(slot));
+            }
+        }
+        if (extra != null) {
+            map.putAll(extra);
+        }
+        return map;
+    }
+
+    /**
+     * Writes the observation as a JSON object, formatting numbers straight from the primitives.
+     *
+     * @param writer The writer.
+     * @throws IOException If writing fails.
+     */
+    public void writeTo(JsonWriter writer) throws IOException {
+        writer.write('{');
+        boolean first = true;
+        for (int slot = 0; slot < INT_BASE + INT_KEYS.length; slot++) {
+            if (!hasSlot(slot)) {
+                continue;
+            }
+            if (!first) {
+                writer.write(',');
+            }
+            writer.writeString(keyOf(slot));
+            writer.write(':');
+            if (slot < DOUBLE_BASE) {
+                writer.writeString(strings[slot]);
+            } else if (slot < INT_BASE) {
+                writer.writeDouble(doubles[slot - DOUBLE_BASE]);
+            } else {
+                writer.writeLong(ints[slot - INT_BASE]);
+            }
+            first = false;
+        }
+        if (extra != null) {
+            for (Map.Entry<String, Object> entry : extra.entrySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                writer.writeString(entry.getKey());
+                writer.write(':');
+                writer.value(entry.getValue());
+                first = false;
+            }
+        }
+        writer.write('}');
+    }
+
+    /**
+     * Writes only some keys as a JSON object, in the order given. Keys the observation does not
+     * have are left out, and nothing else is looked at or formatted.
+     *
+     * @param writer The writer.
+     * @param keys   The keys to write, without repeats.
+     * @throws IOException If writing fails.
+     */
+    public void writeTo(JsonWriter writer, Collection<String> keys) throws IOException {
+        writer.write('{');
+        boolean first = true;
+        for (String key : keys) {
+            int slot = slot(key);
+            boolean inSlot = slot >= 0 && hasSlot(slot);
+            if (!inSlot && (extra == null || !extra.containsKey(key))) {
+                continue;
+            }
+            if (!first) {
+                writer.write(',');
+            }
+            writer.writeString(key);
+            writer.write(':');
+            if (!inSlot) {
+                writer.value(extra.get(key));
+            } else if (slot < DOUBLE_BASE) {
+                writer.writeString(strings[slot]);
+            } else if (slot < INT_BASE) {
+                writer.writeDouble(doubles[slot - DOUBLE_BASE]);
+            } else {
+                writer.writeLong(ints[slot - INT_BASE]);
+            }
+            first = false;
+        }
+        writer.write('}');
+    }
+
+    /**
+     * Writes the compact binary form read back by {@link #readBinary(ByteBuffer)}: a bit per
+     * present slot, the present strings, doubles and ints in slot order, and then the overflow
+     * keys as a length-prefixed JSON object.
+     *
+     * @param out The output.
+     * @throws IOException If writing fails.
+     */
+    void writeBinary(DataOutput out) throws IOException {
+        int mask = present;
+        for (int slot = 0; slot < DOUBLE_BASE; slot++) {
+            if (strings[slot] != null) {
+                mask |= 1 << slot;
+            }
+        }
+        out.writeInt(mask);
+        for (int slot = 0; slot < INT_BASE + INT_KEYS.length; slot++) {
+            if ((mask & (1 << slot)) == 0) {
+                continue;
+            }
+            if (slot < DOUBLE_BASE) {
+                writeUtf8(out, strings[slot]);
+            } else if (slot < INT_BASE) {
+                out.writeDouble(doubles[slot - DOUBLE_BASE]);
+            } else {
+                out.writeInt(ints[slot - INT_BASE]);
+            }
+        }
+        if (extra == null || extra.isEmpty()) {
+            out.writeInt(0);
+        } else {
+            JsonWriter writer = new JsonWriter();
+            writer.value(extra);
+            byte[] json = writer.toByteArray();
+            out.writeInt(json.length);
+            out.write(json);
+        }
+    }
+
+    /**
+     * Reads an observation written by {@link #writeBinary(DataOutput)}, advancing the buffer.
+     *
+     * @param in The buffer positioned at the observation.
+     * @return The observation.
+     * @throws IOException If the overflow keys are not valid JSON.
+     */
+    static WeatherObservation readBinary(ByteBuffer in) throws IOException {
+        WeatherObservation observation = new WeatherObservation();
+        int mask = in.getInt();
+        for (int slot = 0; slot < INT_BASE + INT_KEYS.length; slot++) {
+            if ((mask & (1 << slot)) == 0) {
+                continue;
+            }
+            if (slot < DOUBLE_BASE) {
+                observation.strings[slot] = readUtf8(in);
+            } else if (slot < INT_BASE) {
+                observation.putDouble(slot, in.getDouble());
+            } else {
+                observation.putInt(slot, in.getInt());
+            }
+        }
+        int extraLength = in.getInt();
+        if (extraLength > 0) {
+            ByteBuffer json = in.slice();
+            json.limit(extraLength);
+            observation.extra = new LinkedHashMap<>(new SimpleJsonParser().parse(json));
+            in.position(in.position() + extraLength);
+        }
+        return observation;
+    }
+
+    static void writeUtf8(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readUtf8(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof WeatherObservation)) {
+            return false;
+        }
+        WeatherObservation that = (WeatherObservation) other;
+        return present == that.present
+                && Arrays.equals(strings, that.strings)
+                && Arrays.equals(doubles, that.doubles)
+                && Arrays.equals(ints, that.ints)
+                && (extra == null || extra.isEmpty() ? that.extra == null || that.extra.isEmpty() : extra.equals(that.extra));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(strings) * 31 + Arrays.hashCode(doubles);
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+    private void putDouble(int slot, double value) {
+        doubles[slot - DOUBLE_BASE] = value;
+        present |= 1 << slot;
+    }
+
+    private void putInt(int slot, int value) {
+        ints[slot - INT_BASE] = value;
+        present |= 1 << slot;
+    }
+
+    /**
+     * Returns the storage slot of a schema key, or -1 for keys outside the schema. Slots below
+     * {@link #DOUBLE_BASE} are strings, then doubles, then ints from {@link #INT_BASE}.
+     */
+    static int slot(String key) {
+        switch (key) {
+            case "id": return 0;
+            case "name": return 1;
+            case "state": return 2;
+            case "time_zone": return 3;
+            case "local_date_time": return 4;
+            case "local_date_time_full": return 5;
+            case "cloud": return 6;
+            case "wind_dir": return 7;
+            case "lat": return DOUBLE_BASE;
+            case "lon": return DOUBLE_BASE + 1;
+            case "air_temp": return DOUBLE_BASE + 2;
+            case "apparent_t": return DOUBLE_BASE + 3;
+            case "dewpt": return DOUBLE_BASE + 4;
+            case "press": return DOUBLE_BASE + 5;
+            case "wind_spd_kmh": return DOUBLE_BASE + 6;
+            case "wind_spd_kt": return DOUBLE_BASE + 7;
+            case "temp": return DOUBLE_BASE + 8;
+            case "rel_hum": return INT_BASE;
+            case "lamportClock": return INT_BASE + 1;
+            default: return -1;
+        }
+    }
+
+    static boolean isStringSlot(int slot) {
+        return slot >= 0 && slot < DOUBLE_BASE;
+    }
+
+    static boolean isDoubleSlot(int slot) {
+        return slot >= DOUBLE_BASE && slot < INT_BASE;
+    }
+
+    private static String keyOf(int slot) {
+        if (slot < DOUBLE_BASE) {
+            return STRING_KEYS[slot];
+        }
+        return slot < INT_BASE ? DOUBLE_KEYS[slot - DOUBLE_BASE] : INT_KEYS[slot - INT_BASE];
+    }
+
+    private boolean hasSlot(int slot) {
+        return slot < DOUBLE_BASE ? strings[slot] != null : (present & (1 << slot)) != 0;
+    }
+
+    private void clearSlot(int slot) {
+        if (slot < DOUBLE_BASE) {
+            strings[slot] = null;
+        } else {
+            present &= ~(1 << slot);
+        }
+    }
+
+    private Object boxed(int slot) {
+        if (slot < DOUBLE_BASE) {
+            return strings[slot];
+        }
+        return slot < INT_BASE ? (Object) doubles[slot - DOUBLE_BASE] : (Object) ints[slot - INT_BASE];
+    }
+
+    private static boolean isInt(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return true;
+        }
+        if (value instanceof Long) {
+            long v = (Long) value;
+            return v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,69 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+
+public class AdmissionControllerTest {
+
+    @Test
+    public void testShedsBeyondLimit() {
+        AdmissionController admission = new AdmissionController(1, 0, 1, 0, 100);
+
+        assertTrue(admission.tryAcquire(AdmissionController.RequestClass.GET, true), "First GET should be admitted");
+        assertFalse(admission.tryAcquire(AdmissionController.RequestClass.GET, true), "Second GET should be shed");
+        assertEquals(1, admission.getShedGets(), "Shed GET should be counted");
+
+        admission.release(AdmissionController.RequestClass.GET);
+        assertTrue(admission.tryAcquire(AdmissionController.RequestClass.GET, true), "GET should be admitted after release");
+    }
+
+    @Test
+    public void testGetsCannotStarvePuts() {
+        AdmissionController admission = new AdmissionController(1, 0, 1, 0, 100);
+        assertTrue(admission.tryAcquire(AdmissionController.RequestClass.GET, true));
+        assertFalse(admission.tryAcquire(AdmissionController.RequestClass.GET, true));
+
+        assertTrue(admission.tryAcquire(AdmissionController.RequestClass.PUT, true), "PUT budget should be separate");
+        assertEquals(0, admission.getShedPuts());
+    }
+
+    @Test
+    public void testQueuedRequestIsAdmittedWhenSlotFrees() throws Exception {
+        AdmissionController admission = new AdmissionController(1, 1, 1, 1, 5000);
+        assertTrue(admission.tryAcquire(AdmissionController.RequestClass.PUT, true));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Boolean> queued = executor.submit(() -> admission.tryAcquire(AdmissionController.RequestClass.PUT, true));
+        Thread.sleep(100);
+        assertFalse(admission.tryAcquire(AdmissionController.RequestClass.PUT, true), "Queue is full, so this PUT is shed");
+        assertFalse(admission.tryAcquire(AdmissionController.RequestClass.PUT, false), "A caller that may not queue is shed");
+
+        admission.release(AdmissionController.RequestClass.PUT);
+        assertTrue(queued.get(5, TimeUnit.SECONDS), "Queued PUT should take the freed slot");
+        assertEquals(2, admission.getShedPuts());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testProcessorAnswers503WithRetryAfter() {
+        ServerConfig config = new ServerConfig(0);
+        config.setMaxConcurrentGets(1);
+        config.setGetQueueDepth(0);
+        config.setRetryAfterSeconds(7);
+        RequestProcessor processor = new RequestProcessor(new LamportClock(), DataStore.getInstance(), config);
+        AdmissionController admission = processor.getAdmissionController();
+
+        // Occupy the only GET slot
+        assertTrue(admission.tryAcquire(AdmissionController.RequestClass.GET, false));
+        HttpResponse response = processor.process(new HttpRequest("GET", "/weather.json", null, true, new byte[0]));
+        assertEquals("503 Service Unavailable", response.getStatus());
+        assertEquals("7", response.getHeaders().get("Retry-After"));
+
+        HttpResponse stats = processor.process(new HttpRequest("GET", "/stats", null, true, new byte[0]));
+        assertTrue(new String(stats.getBody(), StandardCharsets.UTF_8).contains("\"shed_gets\":1"),
+                "Stats should report the shed GET");
+    }
+}
@@ -2,7 +2,9 @@ package com.weather.aggregation;
 
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
 
 import java.io.*;
 import java.util.concurrent.*;
@@ -69,6 +71,20 @@ public class AggregationServerTest {
         // Note: Add assertions or output verification if necessary
     }
 
+    @Test
+    public void testContentServerReusesConnection() throws IOException {
+        ContentServer contentServer = Mockito.spy(new ContentServer());
+        File testDataFile = new File(tempDir, "test_weather_data3.txt");
+        createTestDataFile(testDataFile.getAbsolutePath(), "station3", 18.0);
+
+        contentServer.sendPUT("http://localhost:4567", testDataFile.getAbsolutePath());
+        contentServer.sendPUT("http://localhost:4567", testDataFile.getAbsolutePath());
+        contentServer.close();
+
+        verify(contentServer, times(1)).createSocket("localhost", 4567);
+        assertNotNull(DataStore.getInstance().getData().get("station3"), "Both PUTs should reach the server");
+    }
+
     private void createTestDataFile(String filePath, String stationId, double temp) {
         try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
             writer.println("id:" + stationId);
@@ -0,0 +1,164 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinarySnapshotTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testRoundTripKeepsLastUpdateTimes() throws IOException {
+        File file = tempDir.resolve("round.bin").toFile();
+        Map<String, WeatherObservation> written = new HashMap<>();
+        BinarySnapshot snapshot = new BinarySnapshot(file);
+        for (int i = 0; i < 100; i++) {
+            WeatherObservation observation = station(i);
+            if (i % 10 == 0) {
+                observation.put("note", "unknown key é");
+                observation.put("tags", Arrays.asList("a", 1));
+            }
+            written.put("IDS" + i, observation);
+            snapshot.add("IDS" + i, 1000L * i, observation);
+        }
+        snapshot.finish(true);
+
+        Map<String, WeatherObservation> read = new ConcurrentHashMap<>();
+        Map<String, Long> times = new ConcurrentHashMap<>();
+        assertEquals(100, BinarySnapshot.read(file, (id, lastUpdate, observation) -> {
+            read.put(id, observation);
+            times.put(id, lastUpdate);
+        }));
+        assertEquals(written, read);
+        assertEquals(42000L, times.get("IDS42"));
+    }
+
+    @Test
+    public void testCorruptRecordIsSkippedAndBadHeaderRejected() throws IOException {
+        File file = tempDir.resolve("corrupt.bin").toFile();
+        BinarySnapshot snapshot = new BinarySnapshot(file);
+        snapshot.add("first", 1, station(1));
+        snapshot.add("second", 2, station(2));
+        snapshot.finish(false);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 3);
+            raf.write(0x7F);
+        }
+
+        List<String> ids = Collections.synchronizedList(new ArrayList<>());
+        assertEquals(1, BinarySnapshot.read(file, (id, lastUpdate, observation) -> ids.add(id)));
+        assertEquals(Collections.singletonList("first"), ids);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8);
+            raf.writeInt(99);
+        }
+        assertThrows(IOException.class, () -> BinarySnapshot.read(file, (id, lastUpdate, observation) -> { }));
+    }
+
+    @Test
+    public void testConvertFromJson() throws IOException {
+        File json = tempDir.resolve("weather_data.json").toFile();
+        Files.write(json.toPath(), ("{\"a\":{\"id\":\"a\",\"air_temp\":13.3,\"rel_hum\":60},"
+                + "\"b\":{\"id\":\"b\",\"name\":\"Station b\",\"extra\":true}}").getBytes(StandardCharsets.UTF_8));
+        File binary = tempDir.resolve("weather_data.bin").toFile();
+
+        assertEquals(2, BinarySnapshot.convert(json, binary, 1234L));
+        Map<String, WeatherObservation> read = new ConcurrentHashMap<>();
+        BinarySnapshot.read(binary, (id, lastUpdate, observation) -> {
+            assertEquals(1234L, lastUpdate);
+            read.put(id, observation);
+        });
+        assertEquals(13.3, read.get("a").getDouble("air_temp"));
+        assertEquals(Boolean.TRUE, read.get("b").get("extra"));
+    }
+
+    @Test
+    public void testDataStoreRestartsFromBinarySnapshot() throws Exception {
+        ServerConfig config = new ServerConfig(0);
+        config.setDataFile(tempDir.resolve("store.json").toString());
+        config.setSnapshotFormat(SnapshotFormat.BINARY);
+
+        DataStore store = new DataStore(config);
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", "binaryStation");
+        data.put("air_temp", 21.5);
+        store.putData(data);
+        store.close();
+        assertTrue(tempDir.resolve("store.bin").toFile().length() > 0, "The snapshot should be binary");
+        assertFalse(tempDir.resolve("store.json").toFile().exists(), "No JSON snapshot should be written");
+
+        DataStore restarted = new DataStore(config);
+        try {
+            assertEquals(21.5, restarted.getData().get("binaryStation").get("air_temp"));
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void testStaleStationsExpireAfterRestart() throws Exception {
+        long now = System.currentTimeMillis();
+        BinarySnapshot snapshot = new BinarySnapshot(tempDir.resolve("stale.bin").toFile());
+        snapshot.add("stale", now - 60000, station(1));
+        snapshot.add("fresh", now, station(2));
+        snapshot.finish(false);
+
+        ServerConfig config = new ServerConfig(0);
+        config.setDataFile(tempDir.resolve("stale.json").toString());
+        config.setSnapshotFormat(SnapshotFormat.BINARY);
+        DataStore store = new DataStore(config);
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (store.getData().containsKey("stale") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFalse(store.getData().containsKey("stale"), "A station last updated a minute ago should expire");
+            assertTrue(store.getData().containsKey("fresh"), "A recently updated station should survive the restart");
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testLargeSnapshotLoadsQuickly() throws IOException {
+        int stations = 200000;
+        File file = tempDir.resolve("large.bin").toFile();
+        BinarySnapshot snapshot = new BinarySnapshot(file);
+        for (int i = 0; i < stations; i++) {
+            snapshot.add("IDS" + i, i, station(i));
+        }
+        snapshot.finish(false);
+
+        long start = System.nanoTime();
+        Map<String, WeatherObservation> read = new ConcurrentHashMap<>(stations * 2);
+        assertEquals(stations, BinarySnapshot.read(file, (id, lastUpdate, observation) -> read.put(id, observation)));
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println("Loaded " + stations + " stations (" + file.length() / 1024 + " KB) in " + millis + " ms");
+        assertEquals(stations, read.size());
+    }
+
+    private static WeatherObservation station(int i) {
+        WeatherObservation observation = new WeatherObservation();
+        observation.put("id", "IDS" + i);
+        observation.put("name", "Station " + i);
+        observation.put("state", "SA");
+        observation.putDouble("air_temp", i / 10.0);
+        observation.putDouble("press", 1013.2);
+        observation.put("rel_hum", i % 100);
+        observation.put("lamportClock", i);
+        return observation;
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Test;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -71,4 +72,107 @@ public class ClientHandlerTest {
         String response = mockOutputStream.toString();
         assertTrue(response.contains("404 Not Found"), "Response should indicate station ID not found");
     }
+
+    @Test
+    public void testPipelinedRequestsOnOneConnection() throws IOException {
+        Socket mockSocket = mock(Socket.class);
+        String requestBody = "{\"id\":\"pipelined\",\"temp\":12.0}";
+        String request = "PUT /weather.json HTTP/1.1\r\n" +
+                "Content-Length: " + requestBody.getBytes().length + "\r\n" +
+                "\r\n" +
+                requestBody +
+                "GET /weather.json?station_id=pipelined HTTP/1.1\r\n" +
+                "Connection: close\r\n" +
+                "\r\n" +
+                "GET /weather.json HTTP/1.1\r\n" +
+                "\r\n";
+        ByteArrayOutputStream mockOutputStream = new ByteArrayOutputStream();
+
+        when(mockSocket.getInputStream()).thenReturn(new ByteArrayInputStream(request.getBytes()));
+        when(mockSocket.getOutputStream()).thenReturn(mockOutputStream);
+
+        DataStore store = DataStore.getInstance();
+        store.clearData();
+
+        new ClientHandler(mockSocket, new LamportClock(), store).run();
+
+        // Both requests before "Connection: close" are answered, the one after it is not
+        String response = mockOutputStream.toString();
+        assertTrue(response.startsWith("HTTP/1.1 201 Created"), "First response should be for the PUT");
+        assertEquals(2, response.split("HTTP/1.1 ").length - 1, "Exactly two responses should be sent");
+        assertTrue(response.contains("\"temp\":12.0"), "Second response should return the stored reading");
+        assertTrue(response.contains("Connection: close"), "Final response should close the connection");
+        verify(mockSocket).setSoTimeout(ServerConfig.DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void testHandlePUTMultiByteStationName() throws IOException {
+        Socket mockSocket = mock(Socket.class);
+        String requestBody = "{\"id\":\"utf8Station\",\"name\":\"Mount Gambier – Ōtautahi ☔\"}";
+        byte[] bodyBytes = requestBody.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write(("PUT /weather.json HTTP/1.1\r\n" +
+                "Content-Length: " + bodyBytes.length + "\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII));
+        request.write(bodyBytes);
+        ByteArrayOutputStream mockOutputStream = new ByteArrayOutputStream();
+
+        when(mockSocket.getInputStream()).thenReturn(new ByteArrayInputStream(request.toByteArray()));
+        when(mockSocket.getOutputStream()).thenReturn(mockOutputStream);
+
+        DataStore store = DataStore.getInstance();
+        store.clearData();
+
+        new ClientHandler(mockSocket, new LamportClock(), store).run();
+
+        assertTrue(mockOutputStream.toString().contains("201 Created"), "PUT with a multi-byte body should succeed");
+        assertEquals("Mount Gambier – Ōtautahi ☔", store.getData().get("utf8Station").get("name"),
+                "Station name should be stored exactly");
+    }
+
+    @Test
+    public void testStreamWritesEventsUntilClientGoes() throws Exception {
+        Socket mockSocket = mock(Socket.class);
+        String request = "GET /weather/stream?station_id=streamStation HTTP/1.1\r\n\r\n";
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        // Fails the flush that carries the first event, as a socket whose client has gone would
+        OutputStream clientOutput = new OutputStream() {
+            @Override
+            public synchronized void write(int b) {
+                written.write(b);
+            }
+
+            @Override
+            public synchronized void flush() throws IOException {
+                if (written.toString().contains("event: update")) {
+                    throw new IOException("Connection reset");
+                }
+            }
+        };
+        when(mockSocket.getInputStream()).thenReturn(new ByteArrayInputStream(request.getBytes()));
+        when(mockSocket.getOutputStream()).thenReturn(clientOutput);
+
+        DataStore store = DataStore.getInstance();
+        Thread handler = new Thread(new ClientHandler(mockSocket, new LamportClock(), store));
+        handler.start();
+        Map<String, Object> data = new java.util.HashMap<>();
+        data.put("id", "streamStation");
+        data.put("temp", 11.5);
+        // Keep updating until the handler has subscribed and seen one
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handler.isAlive() && System.currentTimeMillis() < deadline) {
+            store.putData(data);
+            handler.join(50);
+        }
+
+        assertFalse(handler.isAlive(), "The handler should stop once the client has gone");
+        String response;
+        synchronized (clientOutput) {
+            response = written.toString();
+        }
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"), "The stream should be accepted");
+        assertTrue(response.contains("Content-Type: text/event-stream"), "The stream should be an event stream");
+        assertFalse(response.contains("Content-Length"), "An event stream has no length");
+        assertTrue(response.contains("data: {\"streamStation\":{"), "The update should be pushed");
+    }
 }
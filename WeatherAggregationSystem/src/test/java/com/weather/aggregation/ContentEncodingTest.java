@@ -0,0 +1,109 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ContentEncodingTest {
+
+    @Test
+    public void testNegotiation() {
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate(null));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("br, identity"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip, deflate"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("deflate, GZIP;q=0.5"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("deflate"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, deflate"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("*, gzip;q=0"));
+        assertEquals(ContentEncoding.IDENTITY, ContentEncoding.negotiate("*;q=0"));
+    }
+
+    @Test
+    public void testEncodingsRoundTrip() throws IOException {
+        byte[] body = document(200);
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            byte[] encoded = encoding.encode(body);
+            assertArrayEquals(body, readAll(encoding.decode(new ByteArrayInputStream(encoded))), encoding.token());
+            assertEquals(encoding, ContentEncoding.fromHeader(encoding == ContentEncoding.IDENTITY ? null : encoding.token()));
+        }
+        assertThrows(IOException.class, () -> ContentEncoding.fromHeader("br"));
+    }
+
+    @Test
+    public void testGetIsCompressedAndCachedPerVersion() throws IOException {
+        DataStore dataStore = mock(DataStore.class);
+        VersionedDocument document = new VersionedDocument(1, document(500));
+        when(dataStore.getDocument()).thenReturn(document);
+        RequestProcessor processor = new RequestProcessor(new LamportClock(), dataStore);
+
+        HttpResponse gzip = processor.process(get("gzip, deflate"));
+        assertEquals("gzip", gzip.getHeaders().get("Content-Encoding"));
+        assertEquals("Accept-Encoding", gzip.getHeaders().get("Vary"));
+        assertEquals(String.valueOf(gzip.getBody().length), gzip.getHeaders().get("Content-Length"));
+        assertTrue(gzip.getBody().length < document.getBytes().length / 5,
+                "Repeated key names should compress well: " + gzip.getBody().length + " of " + document.getBytes().length);
+        assertEquals(new SimpleJsonParser().parse(document.getBytes()),
+                new SimpleJsonParser().parse(ContentEncoding.GZIP.decode(new ByteArrayInputStream(gzip.getBody()))));
+        assertSame(gzip.getBody(), processor.process(get("gzip")).getBody(), "The same version should not be recompressed");
+
+        assertEquals("deflate", processor.process(get("deflate")).getHeaders().get("Content-Encoding"));
+        HttpResponse plain = processor.process(get(null));
+        assertNull(plain.getHeaders().get("Content-Encoding"));
+        assertSame(document.getBytes(), plain.getBody());
+    }
+
+    @Test
+    public void testSmallBodiesAreNotCompressed() {
+        DataStore dataStore = mock(DataStore.class);
+        when(dataStore.getDocument()).thenReturn(new VersionedDocument(1, "{}".getBytes(StandardCharsets.UTF_8)));
+        HttpResponse response = new RequestProcessor(new LamportClock(), dataStore).process(get("gzip"));
+        assertNull(response.getHeaders().get("Content-Encoding"));
+        assertEquals("{}", new String(response.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private static HttpRequest get(String acceptEncoding) {
+        return new HttpRequest("GET", "/weather.json", null, true, acceptEncoding, null, new byte[0]);
+    }
+
+    private static byte[] document(int stations) {
+        JsonWriter writer = new JsonWriter();
+        try {
+            writer.write('{');
+            for (int i = 0; i < stations; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                WeatherObservation observation = new WeatherObservation();
+                observation.put("id", "IDS" + i);
+                observation.put("local_date_time_full", "20230715160000");
+                observation.putDouble("wind_spd_kmh", 15.0);
+                observation.putDouble("air_temp", i / 10.0);
+                writer.writeString("IDS" + i);
+                writer.write(':');
+                writer.value(observation);
+            }
+            writer.write('}');
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return writer.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -54,4 +54,34 @@ public class ContentServerTest {
         String output = outputStream.toString();
         assertTrue(output.contains("Invalid data. 'id' field is missing."), "Output should indicate missing 'id' field");
     }
+
+    @Test
+    public void testMultiStationFileIsSentAsOneBatch() throws IOException {
+        Socket mockSocket = mock(Socket.class);
+        String response = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n{}";
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        when(mockSocket.getInputStream()).thenReturn(new ByteArrayInputStream(response.getBytes()));
+        when(mockSocket.getOutputStream()).thenReturn(sent);
+        ContentServer contentServer = Mockito.spy(new ContentServer());
+        doReturn(mockSocket).when(contentServer).createSocket(any(String.class), anyInt());
+
+        File testDataFile = new File(tempDir, "stations.txt");
+        try (PrintWriter writer = new PrintWriter(new FileWriter(testDataFile))) {
+            writer.println("id:IDS1");
+            writer.println("air_temp:13.3");
+            writer.println("id:IDS2");
+            writer.println("air_temp:9.5");
+            writer.println("id:IDS3");
+        }
+
+        contentServer.sendPUT("http://localhost:4567", testDataFile.getAbsolutePath());
+        contentServer.close();
+
+        String request = sent.toString("UTF-8");
+        assertEquals(1, request.split("PUT /weather.json").length - 1, "The stations should share one request");
+        String body = request.substring(request.indexOf("\r\n\r\n") + 4);
+        assertTrue(body.startsWith("[") && body.endsWith("]"), "A multi-station body should be a JSON array");
+        assertTrue(body.contains("\"id\":\"IDS1\"") && body.contains("\"air_temp\":9.5") && body.contains("\"id\":\"IDS3\""),
+                "Every station should be uploaded: " + body);
+    }
 }
@@ -1,10 +1,20 @@
 package com.weather.aggregation;
 
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 
 public class DataStoreTest {
@@ -41,6 +51,34 @@ public class DataStoreTest {
         assertEquals(30.0, dataStore.getData().get("testStation").get("temp"), "Data should be updated");
     }
 
+    @Test
+    public void testDocumentCacheIsVersioned() throws Exception {
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", "cachedStation");
+        data.put("temp", 25.0);
+        dataStore.putData(data);
+
+        VersionedDocument first = dataStore.getDocument();
+        assertSame(first, dataStore.getDocument(), "Unchanged data should reuse the cached document");
+        assertEquals(dataStore.getVersion(), first.getVersion());
+
+        VersionedDocument station = dataStore.getStationDocument("cachedStation");
+        assertEquals(new SimpleJsonParser().parse(new String(station.getBytes(), "UTF-8")).keySet(),
+                java.util.Collections.singleton("cachedStation"), "Station document should wrap the station");
+        assertNull(dataStore.getStationDocument("missingStation"));
+
+        Map<String, Object> other = new HashMap<>();
+        other.put("id", "otherStation");
+        other.put("temp", 30.0);
+        dataStore.putData(other);
+
+        VersionedDocument second = dataStore.getDocument();
+        assertTrue(second.getVersion() > first.getVersion(), "A change should bump the version");
+        Map<String, Object> parsed = new SimpleJsonParser().parse(new String(second.getBytes(), "UTF-8"));
+        assertEquals(2, parsed.size(), "Rebuilt document should contain both stations");
+        assertSame(station, dataStore.getStationDocument("cachedStation"), "Unchanged station should stay cached");
+    }
+
     @Test
     public void testExpireData() throws InterruptedException {
         Map<String, Object> data = new HashMap<>();
@@ -50,6 +88,7 @@ public class DataStoreTest {
 
         // Wait for 31 seconds to ensure data expires
         Thread.sleep(31000);
+        assertNull(dataStore.getData().get("testStation"), "Data should expire at its deadline without a periodic scan");
 
         dataStore.expireData(); // Manually trigger expiration
 
@@ -84,4 +123,324 @@ public class DataStoreTest {
         latch.await();
         executorService.shutdown();
     }
+
+    @Test
+    public void testNoUpdatesLostUnderContention() throws Exception {
+        int threadCount = 8;
+        int stationsPerThread = 250;
+        int updatesPerStation = 4;
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            results.add(executorService.submit(() -> {
+                start.await();
+                for (int update = 1; update <= updatesPerStation; update++) {
+                    for (int i = 0; i < stationsPerThread; i++) {
+                        Map<String, Object> data = new HashMap<>();
+                        data.put("id", "stress-" + thread + "-" + i);
+                        data.put("update", (double) update);
+                        dataStore.putData(data);
+                    }
+                    // Every thread also races on one shared station
+                    Map<String, Object> shared = new HashMap<>();
+                    shared.put("id", "stress-shared");
+                    shared.put("writer", (double) thread);
+                    dataStore.putData(shared);
+                }
+                return null;
+            }));
+        }
+        long versionBefore = dataStore.getVersion();
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        Map<String, Map<String, Object>> data = dataStore.getData();
+        assertEquals(threadCount * stationsPerThread + 1, data.size(), "Every station should be stored");
+        for (int t = 0; t < threadCount; t++) {
+            for (int i = 0; i < stationsPerThread; i++) {
+                assertEquals((double) updatesPerStation, data.get("stress-" + t + "-" + i).get("update"),
+                        "The last update of each station should win");
+            }
+        }
+        assertEquals(versionBefore + threadCount * (stationsPerThread + 1) * updatesPerStation, dataStore.getVersion(),
+                "Every update should bump the version exactly once");
+        assertEquals(data.size(), new SimpleJsonParser().parse(
+                new String(dataStore.getDocument().getBytes(), "UTF-8")).size(), "The document should hold every station");
+    }
+
+    @Test
+    public void testChangesSinceListsOnlyNewerStations() throws IOException {
+        dataStore.putData(station("deltaA", 1.0));
+        dataStore.putData(station("deltaB", 2.0));
+
+        Map<String, Object> initial = delta(0);
+        assertEquals(Boolean.TRUE, initial.get("full"), "A clock from before this run should get everything");
+        assertEquals(2, ((Map<?, ?>) initial.get("stations")).size());
+        long clock = ((Number) initial.get("clock")).longValue();
+
+        dataStore.putData(station("deltaA", 3.0));
+        dataStore.putData(station("deltaC", 4.0));
+        Map<String, Object> changes = delta(clock);
+        assertEquals(Boolean.FALSE, changes.get("full"));
+        Map<String, Map<String, Object>> stations = (Map<String, Map<String, Object>>) changes.get("stations");
+        assertEquals(new java.util.HashSet<>(java.util.Arrays.asList("deltaA", "deltaC")), stations.keySet());
+        assertEquals(3.0, stations.get("deltaA").get("temp"));
+        assertEquals(new ArrayList<>(), changes.get("expired"));
+
+        long latest = ((Number) changes.get("clock")).longValue();
+        assertTrue(latest > clock, "The clock should advance with changes");
+        assertTrue(((Map<?, ?>) delta(latest).get("stations")).isEmpty(), "Nothing changed since the latest clock");
+        assertEquals(Boolean.TRUE, delta(latest + 1000).get("full"), "A clock from the future should get everything");
+    }
+
+    @Test
+    public void testDeltasPolledDuringWritesMissNothing() throws Exception {
+        int threadCount = 4;
+        int updatesPerThread = 2000;
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final int thread = t;
+            results.add(executorService.submit(() -> {
+                start.await();
+                for (int i = 1; i <= updatesPerThread; i++) {
+                    dataStore.putData(station("poll-" + thread + "-" + (i % 50), (double) i));
+                }
+                return null;
+            }));
+        }
+
+        // Merge deltas the way a client would while the writers run
+        Map<String, Object> first = delta(0);
+        long clock = ((Number) first.get("clock")).longValue();
+        Map<String, Object> merged = new HashMap<>((Map<String, Object>) first.get("stations"));
+        start.countDown();
+        boolean writing = true;
+        while (writing) {
+            writing = false;
+            for (Future<?> result : results) {
+                writing |= !result.isDone();
+            }
+            Map<String, Object> changes = delta(clock);
+            if (Boolean.TRUE.equals(changes.get("full"))) {
+                merged.clear();
+            }
+            merged.putAll((Map<String, Object>) changes.get("stations"));
+            clock = ((Number) changes.get("clock")).longValue();
+        }
+        for (Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        assertEquals(dataStore.getData(), merged, "Polling deltas should end with every station's last value");
+    }
+
+    @Test
+    public void testChangesSinceListsExpiredStations(@TempDir Path tempDir) throws Exception {
+        // Seed a station that expires shortly after the store starts
+        BinarySnapshot snapshot = new BinarySnapshot(tempDir.resolve("delta.bin").toFile());
+        snapshot.add("expiring", System.currentTimeMillis() - 29000, WeatherObservation.fromMap(station("expiring", 1.0)));
+        snapshot.finish(false);
+        ServerConfig config = new ServerConfig(0);
+        config.setDataFile(tempDir.resolve("delta.json").toString());
+        config.setSnapshotFormat(SnapshotFormat.BINARY);
+        DataStore store = new DataStore(config);
+        try {
+            long clock = ((Number) new SimpleJsonParser().parse(store.getChangesSince(0).getBytes()).get("clock")).longValue();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (store.getData().containsKey("expiring") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Map<String, Object> changes = new SimpleJsonParser().parse(store.getChangesSince(clock).getBytes());
+            assertEquals(java.util.Collections.singletonList("expiring"), changes.get("expired"));
+            assertTrue(((Map<?, ?>) changes.get("stations")).isEmpty());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testBatchIsAppliedAndJournaledTogether(@TempDir Path tempDir) throws Exception {
+        ServerConfig config = new ServerConfig(0);
+        config.setDataFile(tempDir.resolve("batch.json").toString());
+        config.setPersistenceMode(PersistenceMode.JOURNAL);
+        DataStore store = new DataStore(config);
+        long versionBefore = store.getVersion();
+        boolean[] created = store.putObservationsAsync(java.util.Arrays.asList(
+                WeatherObservation.fromMap(station("batchA", 1.0)),
+                WeatherObservation.fromMap(station("batchB", 2.0)),
+                WeatherObservation.fromMap(station("batchA", 3.0)))).get(5, java.util.concurrent.TimeUnit.SECONDS);
+        assertArrayEquals(new boolean[]{true, true, false}, created, "A repeated ID in a batch is an update");
+        assertEquals(versionBefore + 1, store.getVersion(), "A batch should be one change of the data version");
+        store.close();
+
+        DataStore restarted = new DataStore(config);
+        try {
+            assertEquals(3.0, restarted.getData().get("batchA").get("temp"), "Later items should win after replay");
+            assertEquals(2.0, restarted.getData().get("batchB").get("temp"));
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void testHistoryKeepsEveryReading() throws IOException {
+        long start = System.currentTimeMillis();
+        dataStore.putData(station("historyStation", 10.0));
+        dataStore.putData(station("historyStation", 11.0));
+        dataStore.putData(station("otherStation", 99.0));
+
+        List<?> readings = (List<?>) new SimpleJsonParser()
+                .parse(dataStore.getHistory("historyStation", start, Long.MAX_VALUE)).get("readings");
+        assertEquals(2, readings.size(), "Each update should add a reading");
+        assertEquals(10.0, ((Map<?, ?>) readings.get(0)).get("temp"));
+        assertEquals(11.0, ((Map<?, ?>) readings.get(1)).get("temp"));
+        assertNull(dataStore.getHistory("missingStation", 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRollupsFollowUpdates() throws IOException {
+        Map<String, Object> data = station("rollupStation", 1.0);
+        data.put("air_temp", 10.0);
+        dataStore.putData(data);
+        data.put("air_temp", 20.0);
+        dataStore.putData(data);
+
+        List<?> buckets = (List<?>) new SimpleJsonParser()
+                .parse(dataStore.getRollup("rollupStation", 3600)).get("buckets");
+        Map<?, ?> airTemp = (Map<?, ?>) ((Map<?, ?>) buckets.get(buckets.size() - 1)).get("air_temp");
+        assertEquals(20.0, airTemp.get("max"));
+        assertEquals(15.0, airTemp.get("avg"));
+        assertThrows(IllegalArgumentException.class, () -> dataStore.getRollup("rollupStation", 7));
+    }
+
+    @Test
+    public void testSpatialQueriesFollowMovedStations() throws IOException {
+        Map<String, Object> adelaide = station("adelaide", 20.0);
+        adelaide.put("lat", -34.9);
+        adelaide.put("lon", 138.6);
+        dataStore.putData(adelaide);
+        Map<String, Object> melbourne = station("melbourne", 18.0);
+        melbourne.put("lat", -37.8);
+        melbourne.put("lon", 145.0);
+        dataStore.putData(melbourne);
+
+        List<?> near = (List<?>) new SimpleJsonParser().parse(dataStore.getStationsNear(-35.0, 139.0, 1)).get("stations");
+        assertEquals(1, near.size());
+        assertEquals("adelaide", ((Map<?, ?>) near.get(0)).get("id"));
+        assertEquals(Collections.singleton("melbourne"),
+                new SimpleJsonParser().parse(dataStore.getStationsInBox(-39, 144, -36, 146)).keySet());
+
+        // A station that moves is found only at its new position
+        melbourne.put("lat", -33.9);
+        melbourne.put("lon", 151.2);
+        dataStore.putData(melbourne);
+        assertTrue(new SimpleJsonParser().parse(dataStore.getStationsInBox(-39, 144, -36, 146)).isEmpty());
+        assertEquals(Collections.singleton("melbourne"),
+                new SimpleJsonParser().parse(dataStore.getStationsInBox(-35, 150, -33, 152)).keySet());
+
+        dataStore.clearData();
+        assertTrue(((List<?>) new SimpleJsonParser().parse(dataStore.getStationsNear(-35.0, 139.0, 5))
+                .get("stations")).isEmpty());
+    }
+
+    @Test
+    public void testFiltersUseIndexedValuesAndProject() throws IOException {
+        Map<String, Object> adelaide = station("adelaide", 20.0);
+        adelaide.put("state", "SA");
+        adelaide.put("air_temp", 21.5);
+        dataStore.putData(adelaide);
+        Map<String, Object> melbourne = station("melbourne", 18.0);
+        melbourne.put("state", "VIC");
+        dataStore.putData(melbourne);
+
+        Map<String, String> sa = Collections.singletonMap("state", "SA");
+        assertEquals("{\"adelaide\":{\"air_temp\":21.5}}", new String(
+                dataStore.getStations(sa, Collections.singletonList("air_temp")), StandardCharsets.UTF_8));
+        assertEquals(2, new SimpleJsonParser().parse(dataStore.getStations(Collections.emptyMap(), null)).size());
+
+        // A station whose value changes moves to its new value's entry
+        melbourne.put("state", "SA");
+        dataStore.putData(melbourne);
+        assertEquals(new HashSet<>(Arrays.asList("adelaide", "melbourne")),
+                new SimpleJsonParser().parse(dataStore.getStations(sa, null)).keySet());
+        assertTrue(new SimpleJsonParser().parse(
+                dataStore.getStations(Collections.singletonMap("state", "VIC"), null)).isEmpty());
+        assertThrows(IllegalArgumentException.class,
+                () -> dataStore.getStations(Collections.singletonMap("air_temp", "20"), null));
+    }
+
+    @Test
+    public void testWhereQueryUsesIndexesAndTestsEachCandidate() throws IOException {
+        double[][] positions = {{-34.9, 138.6}, {-31.9, 115.9}, {-12.5, 130.8}};
+        String[] states = {"SA", "WA", "NT"};
+        for (int i = 0; i < positions.length; i++) {
+            Map<String, Object> data = station("s" + i, 30.0 + i);
+            data.put("state", states[i]);
+            data.put("lat", positions[i][0]);
+            data.put("lon", positions[i][1]);
+            dataStore.putData(data);
+        }
+
+        assertEquals(Collections.singleton("s2"), new SimpleJsonParser().parse(dataStore.getStations(
+                Collections.emptyMap(), StationQuery.compile("lat>-20 and temp>30"), null)).keySet());
+        assertEquals(Collections.singleton("s1"), new SimpleJsonParser().parse(dataStore.getStations(
+                Collections.emptyMap(), StationQuery.compile("state=WA or temp<30.5 and lon<120"), null)).keySet());
+        assertEquals("{\"s0\":{\"temp\":30.0}}", new String(dataStore.getStations(Collections.singletonMap("state", "SA"),
+                StationQuery.compile("temp>=30"), Collections.singletonList("temp")), StandardCharsets.UTF_8));
+        assertTrue(new SimpleJsonParser().parse(dataStore.getStations(
+                Collections.emptyMap(), StationQuery.compile("lat>0 and lat<-10"), null)).isEmpty());
+    }
+
+    @Test
+    public void testWhereQueryMatchesBruteForceAcrossManyCells() throws IOException {
+        // One station per cell across the globe, enough that small boxes are answered cell by cell
+        List<double[]> positions = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            positions.add(new double[]{-75.5 + (i / 20) * 10, -162.5 + (i % 20) * 18});
+        }
+        positions.add(new double[]{-35, 180});
+        for (int i = 0; i < positions.size(); i++) {
+            Map<String, Object> data = station("w" + i, 20.0);
+            data.put("lat", positions.get(i)[0]);
+            data.put("lon", positions.get(i)[1]);
+            dataStore.putData(data);
+        }
+
+        String[] queries = {"lat<-30", "lon>=170", "lat>-40 and lat<-30 and lon>=170", "lat>0 and lon<-150"};
+        for (String query : queries) {
+            StationQuery where = StationQuery.compile(query);
+            Set<String> expected = new HashSet<>();
+            for (int i = 0; i < positions.size(); i++) {
+                WeatherObservation observation = new WeatherObservation();
+                observation.putDouble("lat", positions.get(i)[0]);
+                observation.putDouble("lon", positions.get(i)[1]);
+                if (where.test(observation)) {
+                    expected.add("w" + i);
+                }
+            }
+            assertFalse(expected.isEmpty(), query);
+            assertEquals(expected, new SimpleJsonParser().parse(
+                    dataStore.getStations(Collections.emptyMap(), where, null)).keySet(), query);
+        }
+    }
+
+    private Map<String, Object> delta(long since) throws IOException {
+        return new SimpleJsonParser().parse(dataStore.getChangesSince(since).getBytes());
+    }
+
+    private static Map<String, Object> station(String id, double temp) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", id);
+        data.put("temp", temp);
+        return data;
+    }
 }
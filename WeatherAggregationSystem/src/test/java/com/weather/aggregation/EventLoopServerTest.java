@@ -0,0 +1,192 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class EventLoopServerTest {
+
+    private static final int PORT = 4568;
+    private static AggregationServer server;
+
+    @BeforeAll
+    public static void startServer() throws Exception {
+        ServerConfig config = new ServerConfig(PORT);
+        config.setMode(ServerMode.NIO);
+        config.setEventLoopThreads(2);
+        server = new AggregationServer(config);
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testPUTThenGET() throws IOException {
+        DataStore.getInstance().clearData();
+        String body = "{\"id\":\"nioStation\",\"temp\":18.5,\"lamportClock\":1}";
+        String putResponse = exchange("PUT /weather.json HTTP/1.1\r\n" +
+                "Host: localhost:" + PORT + "\r\n" +
+                "Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
+                "\r\n" + body);
+        assertTrue(putResponse.startsWith("HTTP/1.1 201 Created"), "PUT should create the station");
+
+        String getResponse = exchange("GET /weather.json?station_id=nioStation HTTP/1.1\r\n" +
+                "Host: localhost:" + PORT + "\r\n\r\n");
+        assertTrue(getResponse.startsWith("HTTP/1.1 200 OK"), "GET should succeed");
+        assertTrue(getResponse.contains("\"temp\":18.5"), "GET should return the stored reading");
+    }
+
+    @Test
+    public void testManyConnectionsUseFixedThreads() throws Exception {
+        int connections = 200;
+        ExecutorService clients = Executors.newFixedThreadPool(20);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            String body = "{\"id\":\"nio" + i + "\",\"temp\":" + i + ".0}";
+            String request = "PUT /weather.json HTTP/1.1\r\n" +
+                    "Content-Length: " + body.length() + "\r\n\r\n" + body;
+            results.add(clients.submit(() -> exchange(request)));
+        }
+        for (Future<String> result : results) {
+            String response = result.get(10, TimeUnit.SECONDS);
+            assertTrue(response.contains("201 Created") || response.contains("200 OK"), "Every PUT should succeed");
+        }
+        clients.shutdown();
+
+        long loopThreads = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().startsWith("event-loop-"))
+                .count();
+        assertEquals(2, loopThreads, "Event loop thread count should not grow with connections");
+    }
+
+    @Test
+    public void testPipelinedRequestsOnOneConnection() throws IOException {
+        String body = "{\"id\":\"nioPipelined\",\"temp\":3.5}";
+        String response = exchange("PUT /weather.json HTTP/1.1\r\n" +
+                "Content-Length: " + body.length() + "\r\n\r\n" + body +
+                "GET /weather.json?station_id=nioPipelined HTTP/1.1\r\n\r\n" +
+                "GET /weather.json?station_id=nioPipelined HTTP/1.1\r\n" +
+                "Connection: close\r\n\r\n");
+        assertEquals(3, response.split("HTTP/1.1 ").length - 1, "Every pipelined request should be answered");
+        assertTrue(response.trim().endsWith("}"), "The connection should close after the last response");
+    }
+
+    @Test
+    public void testUnsupportedPath() throws IOException {
+        String response = exchange("DELETE /other HTTP/1.1\r\n\r\n");
+        assertTrue(response.startsWith("HTTP/1.1 400 Bad Request"), "Unsupported requests should be rejected");
+    }
+
+    @Test
+    public void testStreamsPushUpdatesToIdleSubscribers() throws Exception {
+        int subscribers = 200;
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < subscribers; i++) {
+                String filter = i == 0 ? "?station_id=streamB" : "";
+                sockets.add(openStream(filter));
+            }
+            long loopThreads = Thread.getAllStackTraces().keySet().stream()
+                    .filter(t -> t.getName().startsWith("event-loop-"))
+                    .count();
+            assertEquals(2, loopThreads, "Idle subscribers should not need threads of their own");
+
+            // Every stream is registered once its head has arrived
+            for (Socket socket : sockets) {
+                assertTrue(readUntil(socket, "\r\n\r\n").contains("Content-Type: text/event-stream"),
+                        "Each subscriber should get an event stream");
+            }
+            for (String id : new String[]{"streamA", "streamB"}) {
+                String body = "{\"id\":\"" + id + "\",\"temp\":4.5}";
+                exchange("PUT /weather.json HTTP/1.1\r\n" +
+                        "Content-Length: " + body.length() + "\r\n\r\n" + body);
+            }
+
+            String filtered = readUntil(sockets.get(0), "\n\n");
+            assertTrue(filtered.contains("event: update\ndata: {\"streamB\":{"),
+                    "A filtered subscriber should only get its station: " + filtered);
+            for (Socket socket : sockets.subList(1, subscribers)) {
+                String events = readUntil(socket, "streamB");
+                assertTrue(events.contains("data: {\"streamA\":{") && events.indexOf("streamA") < events.indexOf("streamB"),
+                        "Every subscriber should get every update in order");
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testLoopSurvivesAFailingRequest() throws Exception {
+        int port = 4569;
+        RequestProcessor processor = mock(RequestProcessor.class);
+        CompletableFuture<HttpResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("broken"));
+        when(processor.processAsync(any(HttpRequest.class), anyBoolean()))
+                .thenThrow(new IllegalStateException("broken"))
+                .thenReturn(failed)
+                .thenReturn(CompletableFuture.completedFuture(HttpResponse.text("200 OK", "fine")));
+        ServerConfig config = new ServerConfig(port);
+        config.setEventLoopThreads(1);
+        EventLoopServer loopServer = new EventLoopServer(config, processor);
+        try {
+            String request = "GET /weather.json HTTP/1.1\r\nConnection: close\r\n\r\n";
+            assertEquals("", exchange(port, request), "A request that throws should only close its connection");
+            assertEquals("", exchange(port, request), "A response that failed should only close its connection");
+            assertTrue(exchange(port, request).startsWith("HTTP/1.1 200 OK"), "The loop should keep serving");
+        } finally {
+            loopServer.shutdown();
+        }
+    }
+
+    private Socket openStream(String query) throws IOException {
+        Socket socket = new Socket("localhost", PORT);
+        socket.setSoTimeout(5000);
+        socket.getOutputStream().write(("GET /weather/stream" + query + " HTTP/1.1\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+        socket.getOutputStream().flush();
+        return socket;
+    }
+
+    // Reads byte by byte so nothing past the marker is consumed
+    private static String readUntil(Socket socket, String marker) throws IOException {
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        while (!read.toString(StandardCharsets.UTF_8.name()).endsWith(marker)) {
+            int b = in.read();
+            if (b == -1) {
+                break;
+            }
+            read.write(b);
+        }
+        return read.toString(StandardCharsets.UTF_8.name());
+    }
+
+    private String exchange(String request) throws IOException {
+        return exchange(PORT, request);
+    }
+
+    private static String exchange(int port, String request) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            socket.shutdownOutput();
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
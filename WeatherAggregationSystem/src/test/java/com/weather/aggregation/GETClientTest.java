@@ -46,4 +46,43 @@ public class GETClientTest {
         assertTrue(output.contains("Station ID: testStation"), "Output should contain station ID");
         assertTrue(output.contains("temp: 25.0"), "Output should contain temperature");
     }
+
+    @Test
+    public void testRepeatedPollUsesCachedBody() throws IOException {
+        Socket mockSocket = mock(Socket.class);
+        String body = "{\"testStation\":{\"id\":\"testStation\",\"temp\":25.0,\"lamportClock\":1}}";
+        String responses = "HTTP/1.1 200 OK\r\n" +
+                "ETag: \"e1-v3\"\r\n" +
+                "Content-Length: " + body.length() + "\r\n" +
+                "\r\n" + body +
+                "HTTP/1.1 304 Not Modified\r\n" +
+                "ETag: \"e1-v3\"\r\n" +
+                "Content-Length: 0\r\n" +
+                "\r\n";
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        when(mockSocket.getInputStream()).thenReturn(new ByteArrayInputStream(responses.getBytes()));
+        when(mockSocket.getOutputStream()).thenReturn(requests);
+
+        GETClient client = Mockito.spy(new GETClient());
+        doReturn(mockSocket).when(client).createSocket(any(String.class), anyInt());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PrintStream originalOut = System.out;
+        System.setOut(new PrintStream(outputStream));
+        try {
+            client.sendGET("http://localhost:4567", null);
+            client.sendGET("http://localhost:4567", null);
+        } finally {
+            System.setOut(originalOut);
+        }
+
+        String sent = requests.toString();
+        assertEquals(sent.indexOf("If-None-Match: \"e1-v3\""), sent.lastIndexOf("If-None-Match"),
+                "Only the second poll should be conditional");
+        assertTrue(sent.contains("If-None-Match: \"e1-v3\""), "The second poll should send the ETag");
+        String output = outputStream.toString();
+        assertNotEquals(output.indexOf("temp: 25.0"), output.lastIndexOf("temp: 25.0"),
+                "The cached body should be shown for the 304");
+        assertFalse(output.contains("Failed"), "A 304 should not be reported as a failure");
+    }
 }
@@ -0,0 +1,109 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpRequestParserTest {
+
+    @Test
+    public void testParsesRequestDeliveredOneByteAtATime() throws IOException {
+        String body = "{\"id\":\"a\"}";
+        byte[] request = ("PUT /weather.json?x=1 HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "X-Ignored: value\r\n" +
+                "Accept-Encoding: gzip, deflate \r\n" +
+                "If-None-Match: \"e1-v3\"\r\n" +
+                "content-length:  " + body.length() + " \r\n" +
+                "\r\n" + body).getBytes(StandardCharsets.US_ASCII);
+
+        HttpRequestParser parser = new HttpRequestParser();
+        HttpRequest parsed = null;
+        for (int i = 0; i < request.length; i++) {
+            assertNull(parsed, "Request should not complete before its last byte");
+            parser.readBuffer().put(request[i]);
+            parsed = parser.next();
+        }
+
+        assertNotNull(parsed, "Request should complete on its last byte");
+        assertEquals("PUT", parsed.getMethod());
+        assertEquals("/weather.json", parsed.getPath());
+        assertEquals("x=1", parsed.getQuery());
+        assertTrue(parsed.isKeepAlive(), "HTTP/1.1 should default to keep-alive");
+        assertEquals("gzip, deflate", parsed.getAcceptEncoding());
+        assertEquals("\"e1-v3\"", parsed.getIfNoneMatch());
+        assertEquals(body, new String(parsed.getBody(), StandardCharsets.UTF_8));
+        assertFalse(parser.hasBufferedBytes(), "The request should be consumed");
+    }
+
+    @Test
+    public void testBodyIsReadByByteCount() throws IOException {
+        String body = "{\"id\":\"ÅDL\",\"name\":\"Port Adélaïde ☔\"}";
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        assertTrue(bodyBytes.length > body.length(), "Body should contain multi-byte characters");
+
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "PUT /weather.json HTTP/1.1\r\nContent-Length: " + bodyBytes.length + "\r\n\r\n");
+        parser.readBuffer().put(bodyBytes);
+        feed(parser, "GET /weather.json HTTP/1.1\r\n\r\n");
+
+        HttpRequest put = parser.next();
+        assertEquals(body, new String(put.getBody(), StandardCharsets.UTF_8), "Body should round-trip exactly");
+
+        HttpRequest get = parser.next();
+        assertNotNull(get, "Pipelined request after the body should parse");
+        assertEquals("GET", get.getMethod());
+        assertNull(get.getQuery());
+    }
+
+    @Test
+    public void testConnectionHeader() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        feed(parser, "GET /weather.json HTTP/1.1\r\nConnection: Close\r\n\r\n" +
+                "GET /weather.json HTTP/1.0\r\n\r\n" +
+                "GET /weather.json HTTP/1.0\r\nConnection: keep-alive\r\n\r\n");
+        assertFalse(parser.next().isKeepAlive(), "Connection: close should end the connection");
+        assertFalse(parser.next().isKeepAlive(), "HTTP/1.0 should default to close");
+        assertTrue(parser.next().isKeepAlive(), "HTTP/1.0 keep-alive should be honoured");
+    }
+
+    @Test
+    public void testMalformedRequests() {
+        HttpRequestParser invalidLine = new HttpRequestParser();
+        feed(invalidLine, "GARBAGE\r\n\r\n");
+        HttpParseException e = assertThrows(HttpParseException.class, invalidLine::next);
+        assertEquals("400 Bad Request", e.getStatus());
+
+        HttpRequestParser invalidLength = new HttpRequestParser();
+        feed(invalidLength, "PUT /weather.json HTTP/1.1\r\nContent-Length: 12a\r\n\r\n");
+        e = assertThrows(HttpParseException.class, invalidLength::next);
+        assertEquals("400 Bad Request", e.getStatus());
+
+        HttpRequestParser chunked = new HttpRequestParser();
+        feed(chunked, "PUT /weather.json HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n");
+        e = assertThrows(HttpParseException.class, chunked::next);
+        assertEquals("501 Not Implemented", e.getStatus());
+    }
+
+    @Test
+    public void testFillFromStream() throws IOException {
+        String body = "x".repeat(20000);
+        byte[] request = ("PUT /weather.json HTTP/1.1\r\nContent-Length: " + body.length() + "\r\n\r\n" + body)
+                .getBytes(StandardCharsets.US_ASCII);
+        InputStream in = new ByteArrayInputStream(request);
+
+        HttpRequestParser parser = new HttpRequestParser();
+        HttpRequest parsed;
+        while ((parsed = parser.next()) == null) {
+            assertNotEquals(-1, parser.fill(in), "Stream should hold the whole request");
+        }
+        assertEquals(body.length(), parsed.getBody().length, "A body larger than the initial buffer should be read");
+    }
+
+    private void feed(HttpRequestParser parser, String text) {
+        parser.readBuffer().put(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,194 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournalTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testReplayReturnsRecordsInOrder() throws Exception {
+        File file = tempDir.resolve("test.journal").toFile();
+        try (Journal journal = new Journal(file)) {
+            journal.append(record("put", "a"));
+            journal.append(record("remove", "b"));
+        }
+
+        List<Map<String, Object>> replayed = new ArrayList<>();
+        try (Journal journal = new Journal(file)) {
+            assertEquals(2, journal.replay(replayed::add));
+        }
+        assertEquals("a", replayed.get(0).get("id"));
+        assertEquals("remove", replayed.get(1).get("op"));
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws Exception {
+        File file = tempDir.resolve("torn.journal").toFile();
+        long goodLength;
+        try (Journal journal = new Journal(file)) {
+            journal.append(record("put", "a"));
+            goodLength = journal.size();
+            journal.append(record("put", "b"));
+        }
+        // Simulate a crash part-way through writing the second record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(goodLength + 5);
+        }
+
+        List<Map<String, Object>> replayed = new ArrayList<>();
+        try (Journal journal = new Journal(file)) {
+            assertEquals(1, journal.replay(replayed::add), "Only the intact record should replay");
+            assertEquals(goodLength, journal.size(), "The torn record should be cut off");
+            journal.append(record("put", "c"));
+        }
+
+        replayed.clear();
+        try (Journal journal = new Journal(file)) {
+            assertEquals(2, journal.replay(replayed::add), "Appends after truncation should follow the good record");
+        }
+        assertEquals("c", replayed.get(1).get("id"));
+    }
+
+    @Test
+    public void testCorruptRecordStopsReplay() throws Exception {
+        File file = tempDir.resolve("corrupt.journal").toFile();
+        long goodLength;
+        try (Journal journal = new Journal(file)) {
+            journal.append(record("put", "a"));
+            goodLength = journal.size();
+            journal.append(record("put", "b"));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 2);
+            raf.write('X');
+        }
+
+        try (Journal journal = new Journal(file)) {
+            assertEquals(1, journal.replay(record -> { }), "A checksum mismatch should end replay");
+            assertEquals(goodLength, journal.size());
+        }
+    }
+
+    @Test
+    public void testDataStoreRecoversFromJournal() throws Exception {
+        ServerConfig config = new ServerConfig(0);
+        config.setDataFile(tempDir.resolve("weather_data.json").toString());
+        config.setPersistenceMode(PersistenceMode.JOURNAL);
+
+        DataStore store = new DataStore(config);
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", "journalStation");
+        data.put("air_temp", 13.3);
+        store.putData(data);
+        data.put("air_temp", 14.1);
+        store.putData(data);
+        assertTrue(tempDir.resolve("weather_data.journal").toFile().length() > 0, "Puts should be journaled");
+
+        // Open a second store before the first checkpoints, as a restart after a crash would
+        DataStore recovered = new DataStore(config);
+        try {
+            Map<String, Object> station = recovered.getData().get("journalStation");
+            assertNotNull(station, "Journaled station should be recovered");
+            assertEquals(14.1, station.get("air_temp"), "The latest journaled value should win");
+            assertEquals(0, tempDir.resolve("weather_data.journal").toFile().length(),
+                    "Recovery should fold the journal into the snapshot");
+        } finally {
+            recovered.close();
+            store.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentPutsReplayToLatestValue() throws Exception {
+        ServerConfig config = new ServerConfig(0);
+        config.setDataFile(tempDir.resolve("concurrent.json").toString());
+        config.setPersistenceMode(PersistenceMode.JOURNAL);
+
+        DataStore store = new DataStore(config);
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(8);
+        List<java.util.concurrent.Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    Map<String, Object> data = new HashMap<>();
+                    data.put("id", "station" + (i % 10));
+                    data.put("writer", (double) thread);
+                    data.put("seq", (double) i);
+                    store.putData(data);
+                }
+            }));
+        }
+        for (java.util.concurrent.Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        // Records of racing writers can reach the journal out of order; replay must still agree
+        DataStore recovered = new DataStore(config);
+        try {
+            assertEquals(store.getData(), recovered.getData(), "Replay should end at each station's last change");
+        } finally {
+            recovered.close();
+            store.close();
+        }
+    }
+
+    @Test
+    public void testRecordQueuedAfterCheckpointDoesNotRollBack() throws Exception {
+        ServerConfig config = new ServerConfig(0);
+        config.setDataFile(tempDir.resolve("late.json").toString());
+        config.setPersistenceMode(PersistenceMode.JOURNAL);
+
+        DataStore store = new DataStore(config);
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", "lateStation");
+        data.put("air_temp", 1.0);
+        store.putData(data);
+        long olderStamp = store.getStationDocument("lateStation").getVersion();
+        data.put("air_temp", 2.0);
+        store.putData(data);
+        store.checkpoint();
+
+        // The first PUT's record reaching the journal only after the checkpoint that captured the second
+        Map<String, Object> older = new HashMap<>(data);
+        older.put("air_temp", 1.0);
+        Map<String, Object> late = new HashMap<>();
+        late.put("op", "put");
+        late.put("seq", olderStamp);
+        late.put("time", System.currentTimeMillis());
+        late.put("data", older);
+        try (Journal journal = new Journal(tempDir.resolve("late.journal").toFile())) {
+            journal.append(late);
+        }
+
+        DataStore recovered = new DataStore(config);
+        try {
+            assertEquals(2.0, recovered.getData().get("lateStation").get("air_temp"),
+                    "A record older than the snapshot's value should not be replayed over it");
+        } finally {
+            recovered.close();
+            store.close();
+        }
+    }
+
+    private static Map<String, Object> record(String op, String id) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("op", op);
+        record.put("id", id);
+        return record;
+    }
+}
@@ -0,0 +1,147 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonReaderTest {
+
+    private static final String DOCUMENT = "{ \"id\" : \"IDS60901\", \"name\":\"Adelaide (West Terrace /  ngayirdapira)\",\n" +
+            "\"air_temp\":13.3, \"apparent_t\":-9.5e1, \"wind_spd_kmh\":15, \"big\":12345678901,\n" +
+            "\"escaped\":\"a\\\"b\\\\c\\n\\u00e9\", \"unicode\":\"Port Adélaïde ☔\", \"flag\":true, \"none\":null,\n" +
+            "\"nested\":{\"list\":[1, 2.5, \"x\", false, {\"deep\":[]}]}}";
+
+    @Test
+    public void testTokenSequence() throws IOException {
+        JsonReader reader = reader("{\"a\":[1,-2.5,true,null]}");
+        assertEquals(JsonReader.LEFT_BRACE, reader.next());
+        assertEquals(JsonReader.STRING, reader.next());
+        assertEquals("a", reader.stringValue());
+        assertEquals(JsonReader.COLON, reader.next());
+        assertEquals(JsonReader.LEFT_BRACKET, reader.next());
+        assertEquals(JsonReader.NUMBER, reader.next());
+        assertEquals(1, reader.numberValue());
+        assertEquals(JsonReader.COMMA, reader.next());
+        assertEquals(JsonReader.NUMBER, reader.next());
+        assertEquals(-2.5, reader.doubleValue());
+        assertEquals(JsonReader.COMMA, reader.next());
+        assertEquals(JsonReader.TRUE, reader.next());
+        assertEquals(JsonReader.COMMA, reader.next());
+        assertEquals(JsonReader.NULL, reader.next());
+        assertEquals(JsonReader.RIGHT_BRACKET, reader.next());
+        assertEquals(JsonReader.RIGHT_BRACE, reader.next());
+        assertEquals(JsonReader.EOF, reader.next());
+    }
+
+    @Test
+    public void testValues() throws IOException {
+        Map<String, Object> parsed = new SimpleJsonParser().parse(DOCUMENT);
+        assertEquals("IDS60901", parsed.get("id"));
+        assertEquals("Adelaide (West Terrace /  ngayirdapira)", parsed.get("name"));
+        assertEquals(13.3, parsed.get("air_temp"));
+        assertEquals(-95.0, parsed.get("apparent_t"));
+        assertEquals(15, parsed.get("wind_spd_kmh"));
+        assertEquals(12345678901L, parsed.get("big"));
+        assertEquals("a\"b\\c\né", parsed.get("escaped"));
+        assertEquals("Port Adélaïde ☔", parsed.get("unicode"));
+        assertEquals(Boolean.TRUE, parsed.get("flag"));
+        assertTrue(parsed.containsKey("none"));
+        assertNull(parsed.get("none"));
+
+        Map<String, Object> nested = (Map<String, Object>) parsed.get("nested");
+        List<Object> list = (List<Object>) nested.get("list");
+        assertEquals(Arrays.asList(1, 2.5, "x", false, Collections.singletonMap("deep", new ArrayList<>())), list);
+    }
+
+    @Test
+    public void testDecimalsMatchDoubleParsing() throws IOException {
+        String[] numbers = {"0.1", "13.3", "-0.0001", "1017.6", "123456.789012345", "0.30000000000000004",
+                "1234567890.1234567", "9007199254740993.0", "1e-7", "6.02214076E23"};
+        for (String number : numbers) {
+            JsonReader reader = reader(number);
+            assertEquals(JsonReader.NUMBER, reader.next());
+            assertEquals(Double.parseDouble(number), reader.doubleValue(), "Decoding " + number);
+        }
+    }
+
+    @Test
+    public void testAllSourcesAgree() throws IOException {
+        SimpleJsonParser parser = new SimpleJsonParser();
+        byte[] bytes = DOCUMENT.getBytes(StandardCharsets.UTF_8);
+        Map<String, Object> expected = parser.parse(DOCUMENT);
+
+        assertEquals(expected, parser.parse(bytes));
+        assertEquals(expected, parser.parse(ByteBuffer.wrap(bytes)));
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        assertEquals(expected, parser.parse(direct));
+        assertEquals(0, direct.position(), "Parsing should not consume the buffer");
+        // A stream that returns one byte per read forces a refill inside every token
+        assertEquals(expected, parser.parse(new TrickleInputStream(bytes)));
+    }
+
+    @Test
+    public void testStreamLargerThanBuffer() throws IOException {
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("\"station").append(i).append("\":{\"id\":\"station").append(i)
+                    .append("\",\"air_temp\":").append(i).append(".5}");
+        }
+        json.append('}');
+        Map<String, Object> parsed = new SimpleJsonParser()
+                .parse(new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2000, parsed.size());
+        assertEquals(1999.5, ((Map<String, Object>) parsed.get("station1999")).get("air_temp"));
+    }
+
+    @Test
+    public void testMalformedInput() {
+        SimpleJsonParser parser = new SimpleJsonParser();
+        assertThrows(IOException.class, () -> parser.parse(""));
+        assertThrows(IOException.class, () -> parser.parse("[1]"));
+        assertThrows(IOException.class, () -> parser.parse("{\"a\":\"unterminated}"));
+        assertThrows(IOException.class, () -> parser.parse("{\"a\" 1}"));
+        assertThrows(IOException.class, () -> parser.parse("{\"a\":tru}"));
+        assertThrows(IOException.class, () -> parser.parse("{\"a\":1 \"b\":2}"));
+        assertThrows(IOException.class, () -> parser.parse("{\"a\":-}"));
+        assertThrows(IOException.class, () -> parser.parse("{\"a\":\"\\x\"}"));
+    }
+
+    private static JsonReader reader(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return new JsonReader(bytes, 0, bytes.length);
+    }
+
+    private static class TrickleInputStream extends InputStream {
+        private final byte[] bytes;
+        private int pos;
+
+        TrickleInputStream(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return pos < bytes.length ? bytes[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= bytes.length) {
+                return -1;
+            }
+            b[off] = bytes[pos++];
+            return 1;
+        }
+    }
+}
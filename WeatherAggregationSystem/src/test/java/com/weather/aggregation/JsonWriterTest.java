@@ -0,0 +1,94 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonWriterTest {
+
+    @Test
+    public void testDoublesMatchDoubleToString() throws IOException {
+        double[] values = {0.0, -0.0, 13.3, -9.5, 15.0, 1017.6, 0.001, 0.1, 0.30000000000000004,
+                123456.789, 9999999.5, 2.5e7, 1e-4, -273.15, 6.02214076e23, Double.MIN_VALUE};
+        for (double value : values) {
+            assertEquals(Double.toString(value), write(value), "Formatting " + value);
+        }
+    }
+
+    @Test
+    public void testDoublesRoundTrip() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+            if (i % 2 == 0) {
+                value = Math.round(value * 10) / 10.0; // typical one-decimal readings
+            }
+            assertEquals(value, Double.parseDouble(write(value)), "Round trip of " + value);
+        }
+    }
+
+    @Test
+    public void testStringsAreEscapedAndEncoded() throws IOException {
+        String value = "quote\" backslash\\ newline\n tab\t bell\u0007 é ☔ 🌧";
+        String json = write(value);
+        assertEquals("\"quote\\\" backslash\\\\ newline\\n tab\\t bell\\u0007 é ☔ 🌧\"", json);
+
+        Map<String, Object> parsed = new SimpleJsonParser().parse("{\"v\":" + json + "}");
+        assertEquals(value, parsed.get("v"), "Escaped strings should parse back unchanged");
+    }
+
+    @Test
+    public void testNumbersAndLiterals() throws IOException {
+        assertEquals("0", write(0));
+        assertEquals("-42", write(-42));
+        assertEquals("12345678901", write(12345678901L));
+        assertEquals(Long.toString(Long.MIN_VALUE), write(Long.MIN_VALUE));
+        assertEquals("true", write(true));
+        assertEquals("null", write(null));
+        assertEquals("[1,\"a\",false]", write(Arrays.asList(1, "a", false)));
+    }
+
+    @Test
+    public void testAllTargetsAgree() throws IOException {
+        Map<String, Object> document = new LinkedHashMap<>();
+        for (int i = 0; i < 500; i++) {
+            Map<String, Object> station = new LinkedHashMap<>();
+            station.put("id", "station" + i);
+            station.put("name", "Station número " + i);
+            station.put("air_temp", i / 10.0);
+            document.put("station" + i, station);
+        }
+        byte[] expected = new SimpleJsonParser().toJsonBytes(document);
+        assertTrue(expected.length > 16384, "The document should span several writer buffers");
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        JsonWriter toStream = new JsonWriter(stream);
+        toStream.value(document).flush();
+        assertArrayEquals(expected, stream.toByteArray());
+
+        ByteArrayOutputStream channelBytes = new ByteArrayOutputStream();
+        JsonWriter toChannel = new JsonWriter(Channels.newChannel(channelBytes));
+        toChannel.value(document).flush();
+        assertArrayEquals(expected, channelBytes.toByteArray());
+
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+        JsonWriter toBuffer = new JsonWriter(buffer);
+        toBuffer.value(document).flush();
+        assertArrayEquals(expected, buffer.array());
+
+        assertEquals(document, new SimpleJsonParser().parse(expected), "The document should parse back");
+    }
+
+    private static String write(Object value) throws IOException {
+        JsonWriter writer = new JsonWriter();
+        writer.value(value);
+        return new String(writer.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Side-by-side comparison of the lock-free clock with the monitor-based one it replaced, with
+ * every thread doing the update-then-tick a PUT does. Only run with {@code -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class LamportClockContentionTest {
+
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int OPERATIONS_PER_THREAD = 200000;
+
+    /** The previous implementation: an int behind the object's monitor, updated and ticked separately. */
+    private static final class SynchronizedLamportClock {
+        private int clock;
+
+        synchronized void tick() {
+            clock++;
+        }
+
+        synchronized void update(int receivedClock) {
+            clock = Math.max(clock, receivedClock) + 1;
+        }
+
+        synchronized int getTime() {
+            return clock;
+        }
+    }
+
+    @Test
+    public void testSynchronizedClockThroughput() throws Exception {
+        SynchronizedLamportClock clock = new SynchronizedLamportClock();
+        double rate = measure(received -> {
+            clock.update((int) received);
+            clock.tick();
+            return 0;
+        });
+        assertEquals(2L * THREADS * OPERATIONS_PER_THREAD, clock.getTime());
+        report("synchronized", rate);
+    }
+
+    @Test
+    public void testLockFreeClockThroughput() throws Exception {
+        LamportClock clock = new LamportClock();
+        double rate = measure(clock::updateAndTick);
+        assertEquals(2L * THREADS * OPERATIONS_PER_THREAD, clock.getTime());
+        report("lock-free", rate);
+    }
+
+    // Runs the operation on every thread at once, with a received time of 0 as most PUTs carry
+    private double measure(LongUnaryOperator operation) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?>[] workers = new Future<?>[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                workers[t] = pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        operation.applyAsLong(0);
+                    }
+                    return null;
+                });
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(60, TimeUnit.SECONDS);
+            }
+            long elapsed = System.nanoTime() - begin;
+            return (double) THREADS * OPERATIONS_PER_THREAD / (elapsed / 1e9);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void report(String kind, double operationsPerSecond) {
+        System.out.printf("%-12s clock: %.0f update-and-ticks/s (%d threads x %d)%n",
+                kind, operationsPerSecond, THREADS, OPERATIONS_PER_THREAD);
+    }
+}
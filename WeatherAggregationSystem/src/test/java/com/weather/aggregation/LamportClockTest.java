@@ -1,6 +1,7 @@
 package com.weather.aggregation;
 
 import org.junit.jupiter.api.Test;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class LamportClockTest {
@@ -32,4 +33,43 @@ public class LamportClockTest {
         clock.update(0);
         assertEquals(2, clock.getTime(), "Clock should increment after update with lower received time");
     }
+
+    @Test
+    public void testUpdateAndTickMatchesSeparateCalls() {
+        LamportClock combined = new LamportClock();
+        LamportClock separate = new LamportClock();
+        for (long received : new long[]{5, 0, 7, 100}) {
+            separate.update(received);
+            separate.tick();
+            assertEquals(separate.getTime(), combined.updateAndTick(received), "Received " + received);
+        }
+    }
+
+    @Test
+    public void testClockGoesPastIntRange() {
+        LamportClock clock = new LamportClock();
+        long received = Integer.MAX_VALUE + 10L;
+        assertEquals(received + 1, clock.update(received));
+        assertEquals(received + 2, clock.tick());
+    }
+
+    @Test
+    public void testConcurrentOperationsAreNotLost() throws Exception {
+        LamportClock clock = new LamportClock();
+        int threads = 8;
+        int operations = 10000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < operations; i++) {
+                    clock.updateAndTick(0);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(2L * threads * operations, clock.getTime(), "Every update and tick should count");
+    }
 }
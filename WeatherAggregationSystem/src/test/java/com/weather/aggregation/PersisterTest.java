@@ -0,0 +1,108 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersisterTest {
+
+    @Test
+    public void testConcurrentChangesShareBatches() throws Exception {
+        AtomicInteger batches = new AtomicInteger();
+        AtomicInteger syncs = new AtomicInteger();
+        List<Map<String, Object>> written = Collections.synchronizedList(new ArrayList<>());
+        Persister persister = new Persister((records, sync) -> {
+            batches.incrementAndGet();
+            if (sync) {
+                syncs.incrementAndGet();
+            }
+            written.addAll(records);
+        }, Durability.BATCHED, 20, 1000);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(persister.submit(Collections.singletonMap("seq", i)));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        persister.close();
+
+        assertEquals(100, written.size(), "Every change should be written");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, written.get(i).get("seq"), "Changes should be written in submission order");
+        }
+        assertTrue(batches.get() < 100, "Changes should be grouped, but took " + batches.get() + " batches");
+        assertEquals(batches.get(), syncs.get(), "Each batch should be fsynced once");
+    }
+
+    @Test
+    public void testFutureCompletesOnlyAfterWrite() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Persister persister = new Persister((records, sync) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }, Durability.PER_REQUEST, 0, 1);
+
+        CompletableFuture<Void> done = persister.submit(Collections.singletonMap("seq", 1));
+        Thread.sleep(100);
+        assertFalse(done.isDone(), "The change is not durable until the write returns");
+        release.countDown();
+        done.get(5, TimeUnit.SECONDS);
+        persister.close();
+    }
+
+    @Test
+    public void testNoDurabilityDoesNotWait() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Boolean> syncFlags = new CopyOnWriteArrayList<>();
+        Persister persister = new Persister((records, sync) -> {
+            syncFlags.add(sync);
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }, Durability.NONE, 0, 10);
+
+        assertTrue(persister.submit(Collections.singletonMap("seq", 1)).isDone(), "NONE should acknowledge at once");
+        release.countDown();
+        persister.close();
+        assertEquals(Collections.singletonList(false), syncFlags, "NONE should never fsync");
+    }
+
+    @Test
+    public void testWriteFailureFailsTheBatch() {
+        Persister persister = new Persister((records, sync) -> {
+            throw new IOException("disk full");
+        }, Durability.BATCHED, 0, 10);
+
+        CompletableFuture<Void> done = persister.submit(Collections.singletonMap("seq", 1));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> done.get(5, TimeUnit.SECONDS));
+        assertEquals("disk full", e.getCause().getMessage());
+        persister.close();
+    }
+
+    @Test
+    public void testSubmitAllIsWrittenInOneBatch() throws Exception {
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        Persister persister = new Persister((records, sync) -> batchSizes.add(records.size()),
+                Durability.PER_REQUEST, 0, 1);
+
+        List<Map<String, Object>> records = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            records.add(Collections.singletonMap("seq", i));
+        }
+        persister.submitAll(records).get(5, TimeUnit.SECONDS);
+        persister.close();
+
+        assertEquals(Collections.singletonList(3), batchSizes,
+                "The records of one submission should share a write even with a batch size of 1");
+    }
+}
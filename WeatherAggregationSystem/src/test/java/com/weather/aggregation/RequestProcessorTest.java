@@ -0,0 +1,235 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class RequestProcessorTest {
+
+    @Test
+    public void testUnchangedDocumentAnswers304() {
+        DataStore dataStore = mock(DataStore.class);
+        when(dataStore.getEpoch()).thenReturn("e1");
+        when(dataStore.getDocument()).thenReturn(new VersionedDocument(7, bytes("{\"a\":{\"id\":\"a\"}}")));
+        RequestProcessor processor = new RequestProcessor(new LamportClock(), dataStore);
+
+        HttpResponse first = processor.process(get(null, null));
+        assertEquals("200 OK", first.getStatus());
+        String etag = first.getHeaders().get("ETag");
+        assertEquals("\"e1-v7\"", etag);
+
+        HttpResponse second = processor.process(get(null, etag));
+        assertEquals("304 Not Modified", second.getStatus());
+        assertEquals(0, second.getBody().length);
+        assertEquals(etag, second.getHeaders().get("ETag"));
+
+        assertEquals("304 Not Modified", processor.process(get(null, "\"other\", W/" + etag)).getStatus(),
+                "Weak and listed tags should match too");
+        assertEquals("304 Not Modified", processor.process(get(null, "*")).getStatus());
+
+        when(dataStore.getDocument()).thenReturn(new VersionedDocument(8, bytes("{}")));
+        HttpResponse changed = processor.process(get(null, etag));
+        assertEquals("200 OK", changed.getStatus(), "A new version should be sent in full");
+        assertEquals("\"e1-v8\"", changed.getHeaders().get("ETag"));
+    }
+
+    @Test
+    public void testStationAndEncodingGetTheirOwnTags() {
+        DataStore dataStore = mock(DataStore.class);
+        when(dataStore.getEpoch()).thenReturn("e1");
+        StringBuilder large = new StringBuilder("{\"a\":{\"id\":\"a\",\"name\":\"");
+        for (int i = 0; i < 100; i++) {
+            large.append("padding ");
+        }
+        large.append("\"}}");
+        when(dataStore.getDocument()).thenReturn(new VersionedDocument(7, bytes(large.toString())));
+        when(dataStore.getStationDocument("a")).thenReturn(new VersionedDocument(7, bytes("{\"a\":{\"id\":\"a\"}}")));
+        RequestProcessor processor = new RequestProcessor(new LamportClock(), dataStore);
+
+        HttpResponse station = processor.process(new HttpRequest("GET", "/weather.json", "station_id=a", true,
+                null, null, new byte[0]));
+        assertEquals("\"e1-s7\"", station.getHeaders().get("ETag"));
+        assertEquals("200 OK", processor.process(get(null, "\"e1-s7\"")).getStatus(),
+                "A station tag should not validate the full document");
+
+        HttpResponse gzip = processor.process(get("gzip", null));
+        assertEquals("\"e1-v7-gzip\"", gzip.getHeaders().get("ETag"));
+        assertEquals("304 Not Modified", processor.process(get("gzip", "\"e1-v7-gzip\"")).getStatus());
+        assertEquals("200 OK", processor.process(get(null, "\"e1-v7-gzip\"")).getStatus(),
+                "The gzip tag should not validate the identity representation");
+    }
+
+    @Test
+    public void testSinceReturnsDelta() {
+        DataStore dataStore = mock(DataStore.class);
+        when(dataStore.getChangesSince(42)).thenReturn(new VersionedDocument(50, bytes("{\"clock\":50}")));
+        RequestProcessor processor = new RequestProcessor(new LamportClock(), dataStore);
+
+        HttpResponse delta = processor.process(new HttpRequest("GET", "/weather.json", "since=42", true, new byte[0]));
+        assertEquals("200 OK", delta.getStatus());
+        assertEquals("{\"clock\":50}", new String(delta.getBody(), StandardCharsets.UTF_8));
+        assertNull(delta.getHeaders().get("ETag"), "Deltas are not tagged");
+
+        HttpResponse invalid = processor.process(new HttpRequest("GET", "/weather.json", "since=x", true, new byte[0]));
+        assertEquals("400 Bad Request", invalid.getStatus());
+    }
+
+    @Test
+    public void testBatchPUTReportsEachItem() {
+        DataStore dataStore = mock(DataStore.class);
+        when(dataStore.putObservationsAsync(anyList()))
+                .thenReturn(java.util.concurrent.CompletableFuture.completedFuture(new boolean[]{true, false}));
+        LamportClock clock = new LamportClock();
+        RequestProcessor processor = new RequestProcessor(clock, dataStore);
+
+        String body = " [{\"id\":\"a\",\"lamportClock\":5},{\"temp\":1.0},{\"id\":\"b\",\"lamportClock\":9},42]";
+        HttpResponse response = processor.process(new HttpRequest("PUT", "/weather.json", null, true, bytes(body)));
+
+        assertEquals("200 OK", response.getStatus());
+        assertEquals("{\"results\":[{\"index\":0,\"id\":\"a\",\"status\":201},"
+                        + "{\"index\":1,\"status\":400,\"error\":\"Missing or invalid 'id' field\"},"
+                        + "{\"index\":2,\"id\":\"b\",\"status\":200},"
+                        + "{\"index\":3,\"status\":400,\"error\":\"Missing or invalid 'id' field\"}]}",
+                new String(response.getBody(), StandardCharsets.UTF_8));
+        verify(dataStore, times(1)).putObservationsAsync(argThat(batch -> batch.size() == 2));
+        verify(dataStore, never()).putObservationAsync(any());
+        assertEquals(11, clock.getTime(), "The batch should be one Lamport update from its highest clock, then a tick");
+    }
+
+    @Test
+    public void testHistoryQuery() {
+        DataStore dataStore = mock(DataStore.class);
+        when(dataStore.getHistory("a", 1000, Long.MAX_VALUE)).thenReturn(bytes("{\"id\":\"a\",\"readings\":[]}"));
+        RequestProcessor processor = new RequestProcessor(new LamportClock(), dataStore);
+
+        HttpResponse history = processor.process(new HttpRequest("GET", "/weather/history", "station_id=a&from=1000", true, new byte[0]));
+        assertEquals("200 OK", history.getStatus());
+        assertEquals("{\"id\":\"a\",\"readings\":[]}", new String(history.getBody(), StandardCharsets.UTF_8));
+        assertEquals("404 Not Found", processor.process(
+                new HttpRequest("GET", "/weather/history", "station_id=b", true, new byte[0])).getStatus());
+        assertEquals("400 Bad Request", processor.process(
+                new HttpRequest("GET", "/weather/history", "station_id=a&to=soon", true, new byte[0])).getStatus());
+        assertEquals("400 Bad Request", processor.process(
+                new HttpRequest("GET", "/weather/history", null, true, new byte[0])).getStatus());
+    }
+
+    @Test
+    public void testRollupQuery() {
+        DataStore dataStore = mock(DataStore.class);
+        when(dataStore.getRollupWindows()).thenReturn(new int[]{300, 60});
+        when(dataStore.getRollup("a", 60)).thenReturn(bytes("{\"id\":\"a\",\"window\":60,\"buckets\":[]}"));
+        when(dataStore.getRollup("a", 7)).thenThrow(new IllegalArgumentException("No rollups over 7 s windows"));
+        RequestProcessor processor = new RequestProcessor(new LamportClock(), dataStore);
+
+        HttpResponse rollup = processor.process(new HttpRequest("GET", "/weather/rollup", "station_id=a", true, new byte[0]));
+        assertEquals("200 OK", rollup.getStatus(), "The smallest window should be the default");
+        assertEquals("{\"id\":\"a\",\"window\":60,\"buckets\":[]}", new String(rollup.getBody(), StandardCharsets.UTF_8));
+        assertEquals("400 Bad Request", processor.process(
+                new HttpRequest("GET", "/weather/rollup", "station_id=a&window=7", true, new byte[0])).getStatus());
+        assertEquals("400 Bad Request", processor.process(
+                new HttpRequest("GET", "/weather/rollup", "station_id=a&window=x", true, new byte[0])).getStatus());
+        assertEquals("404 Not Found", processor.process(
+                new HttpRequest("GET", "/weather/rollup", "station_id=b&window=300", true, new byte[0])).getStatus());
+    }
+
+    @Test
+    public void testSpatialQueries() {
+        DataStore dataStore = mock(DataStore.class);
+        when(dataStore.getStationsNear(-34.9, 138.6, 5)).thenReturn(bytes("{\"stations\":[]}"));
+        when(dataStore.getStationsNear(-34.9, 138.6, 2)).thenReturn(bytes("{\"stations\":[{\"id\":\"a\"}]}"));
+        when(dataStore.getStationsInBox(-39, 144, -36, 146)).thenReturn(bytes("{}"));
+        RequestProcessor processor = new RequestProcessor(new LamportClock(), dataStore);
+
+        assertEquals("{\"stations\":[]}", new String(processor.process(new HttpRequest("GET", "/weather.json",
+                "near=-34.9,138.6", true, new byte[0])).getBody(), StandardCharsets.UTF_8), "k should default to 5");
+        assertEquals("{\"stations\":[{\"id\":\"a\"}]}", new String(processor.process(new HttpRequest("GET",
+                "/weather.json", "near=-34.9,138.6&k=2", true, new byte[0])).getBody(), StandardCharsets.UTF_8));
+        assertEquals("{}", new String(processor.process(new HttpRequest("GET", "/weather.json",
+                "bbox=-39,144,-36,146", true, new byte[0])).getBody(), StandardCharsets.UTF_8));
+        for (String query : new String[]{"near=-34.9", "near=91,0", "near=0,0&k=0", "near=0,0&k=x", "bbox=1,2,3",
+                "bbox=-36,144,-39,146", "bbox=a,b,c,d"}) {
+            assertEquals("400 Bad Request", processor.process(
+                    new HttpRequest("GET", "/weather.json", query, true, new byte[0])).getStatus(), query);
+        }
+    }
+
+    @Test
+    public void testFilterAndProjectionQueries() {
+        DataStore dataStore = mock(DataStore.class);
+        when(dataStore.getStations(Collections.singletonMap("state", "SA"), null)).thenReturn(bytes("{\"a\":{}}"));
+        when(dataStore.getStations(Collections.singletonMap("state", "SA"), new LinkedHashSet<>(Arrays.asList("air_temp", "press"))))
+                .thenReturn(bytes("{\"a\":{\"air_temp\":1.0}}"));
+        when(dataStore.getStations(Collections.emptyMap(), Collections.singleton("air_temp"))).thenReturn(bytes("{}"));
+        RequestProcessor processor = new RequestProcessor(new LamportClock(), dataStore);
+
+        assertEquals("{\"a\":{}}", body(processor.process(new HttpRequest("GET", "/weather.json", "state=SA", true, new byte[0]))));
+        assertEquals("{\"a\":{\"air_temp\":1.0}}", body(processor.process(new HttpRequest("GET", "/weather.json",
+                "state=SA&fields=air_temp,press,air_temp", true, new byte[0]))), "Repeated fields should be dropped");
+        assertEquals("{}", body(processor.process(new HttpRequest("GET", "/weather.json", "fields=air_temp", true, new byte[0]))));
+        assertEquals("400 Bad Request", processor.process(
+                new HttpRequest("GET", "/weather.json", "fields=,", true, new byte[0])).getStatus());
+    }
+
+    @Test
+    public void testWhereQueriesAreCompiledOnce() {
+        DataStore dataStore = mock(DataStore.class);
+        when(dataStore.getStations(anyMap(), any(StationQuery.class), isNull())).thenReturn(bytes("{}"));
+        RequestProcessor processor = new RequestProcessor(new LamportClock(), dataStore);
+        HttpRequest request = new HttpRequest("GET", "/weather.json", "where=air_temp%3E30+and+wind_spd_kmh%3E40",
+                true, new byte[0]);
+
+        assertEquals("{}", body(processor.process(request)));
+        assertEquals("{}", body(processor.process(request)));
+        ArgumentCaptor<StationQuery> queries = ArgumentCaptor.forClass(StationQuery.class);
+        verify(dataStore, times(2)).getStations(eq(Collections.emptyMap()), queries.capture(), isNull());
+        assertEquals("air_temp>30 and wind_spd_kmh>40", queries.getValue().toString());
+        assertSame(queries.getAllValues().get(0), queries.getAllValues().get(1),
+                "A repeated expression should reuse its compiled query");
+
+        HttpResponse invalid = processor.process(new HttpRequest("GET", "/weather.json", "where=air_temp%3E", true, new byte[0]));
+        assertEquals("400 Bad Request", invalid.getStatus());
+        assertTrue(body(invalid).startsWith("Invalid 'where' value"));
+    }
+
+    @Test
+    public void testFailedRequestsGiveTheirAdmissionBack() {
+        DataStore dataStore = mock(DataStore.class);
+        when(dataStore.getEpoch()).thenReturn("e1");
+        when(dataStore.getDocument()).thenThrow(new IllegalStateException("broken"))
+                .thenReturn(new VersionedDocument(1, bytes("{}")));
+        ServerConfig config = new ServerConfig(0);
+        config.setMaxConcurrentGets(1);
+        config.setGetQueueDepth(0);
+        RequestProcessor processor = new RequestProcessor(new LamportClock(), dataStore, config);
+
+        HttpRequest badEscape = new HttpRequest("GET", "/weather.json", "station_id=%zz", true, new byte[0]);
+        for (int i = 0; i < 2; i++) {
+            HttpResponse response = processor.process(badEscape);
+            assertEquals("400 Bad Request", response.getStatus());
+            assertEquals("Invalid percent-escape in query", body(response));
+        }
+        assertEquals("500 Internal Server Error", processor.process(get(null, null)).getStatus());
+        assertEquals("200 OK", processor.process(get(null, null)).getStatus(),
+                "Failed requests should not keep their admission slot");
+    }
+
+    private static String body(HttpResponse response) {
+        return new String(response.getBody(), StandardCharsets.UTF_8);
+    }
+
+    private static HttpRequest get(String acceptEncoding, String ifNoneMatch) {
+        return new HttpRequest("GET", "/weather.json", null, true, acceptEncoding, ifNoneMatch, new byte[0]);
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,64 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SecondaryIndexTest {
+
+    @Test
+    public void testStationsFollowTheirValues() {
+        SecondaryIndex index = new SecondaryIndex();
+        WeatherObservation a = observation("a", "SA", "CST");
+        WeatherObservation b = observation("b", "SA", "CST");
+        index.update("a", null, a);
+        index.update("b", null, b);
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), index.lookup("state", "SA"));
+
+        WeatherObservation moved = observation("b", "VIC", "EST");
+        index.update("b", b, moved);
+        assertEquals(new HashSet<>(Arrays.asList("a")), index.lookup("state", "SA"));
+        assertEquals(new HashSet<>(Arrays.asList("b")), index.lookup("time_zone", "EST"));
+
+        index.remove("a", a);
+        assertTrue(index.lookup("state", "SA").isEmpty());
+        assertTrue(index.lookup("cloud", "Sunny").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> index.lookup("air_temp", "1"));
+    }
+
+    @Test
+    public void testConcurrentMovesKeepEveryStation() throws Exception {
+        SecondaryIndex index = new SecondaryIndex();
+        int threads = 4;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            String id = "s" + t;
+            workers[t] = new Thread(() -> {
+                // Each station keeps leaving and rejoining values the others are emptying
+                WeatherObservation previous = null;
+                for (int i = 0; i < 20000; i++) {
+                    WeatherObservation next = observation(id, i % 2 == 0 ? "SA" : "VIC", "CST");
+                    index.update(id, previous, next);
+                    previous = next;
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(new HashSet<>(Arrays.asList("s0", "s1", "s2", "s3")), index.lookup("state", "VIC"));
+        assertTrue(index.lookup("state", "SA").isEmpty());
+    }
+
+    private static WeatherObservation observation(String id, String state, String timeZone) {
+        WeatherObservation observation = new WeatherObservation();
+        observation.put("id", id);
+        observation.put("state", state);
+        observation.put("time_zone", timeZone);
+        return observation;
+    }
+}
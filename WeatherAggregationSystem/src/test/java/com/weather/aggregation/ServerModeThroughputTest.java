@@ -0,0 +1,95 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Side-by-side throughput comparison of the server modes. Every request opens its own connection,
+ * so the blocking modes pay for one handler per connection. Only run with {@code -Pbenchmark}.
+ */
+@Tag("benchmark")
+public class ServerModeThroughputTest {
+
+    private static final int CLIENTS = 50;
+    private static final int REQUESTS_PER_CLIENT = 20;
+
+    @BeforeAll
+    public static void seedData() {
+        DataStore store = DataStore.getInstance();
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", "throughputStation");
+        data.put("temp", 21.0);
+        store.putData(data);
+    }
+
+    @Test
+    public void testBlockingPoolThroughput() throws Exception {
+        report(ServerMode.BLOCKING, measure(ServerMode.BLOCKING, 4570));
+    }
+
+    @Test
+    public void testVirtualThreadThroughput() throws Exception {
+        assumeTrue(AggregationServer.isVirtualThreadSupported(), "Virtual threads require Java 21 or newer");
+        report(ServerMode.VIRTUAL, measure(ServerMode.VIRTUAL, 4571));
+    }
+
+    @Test
+    public void testEventLoopThroughput() throws Exception {
+        report(ServerMode.NIO, measure(ServerMode.NIO, 4572));
+    }
+
+    private double measure(ServerMode mode, int port) throws Exception {
+        ServerConfig config = new ServerConfig(port);
+        config.setMode(mode);
+        AggregationServer server = new AggregationServer(config);
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < CLIENTS; i++) {
+                results.add(clients.submit(() -> {
+                    int ok = 0;
+                    for (int r = 0; r < REQUESTS_PER_CLIENT; r++) {
+                        if (get(port).startsWith("HTTP/1.1 200 OK")) {
+                            ok++;
+                        }
+                    }
+                    return ok;
+                }));
+            }
+            int ok = 0;
+            for (Future<Integer> result : results) {
+                ok += result.get(60, TimeUnit.SECONDS);
+            }
+            long elapsed = System.nanoTime() - start;
+            assertEquals(CLIENTS * REQUESTS_PER_CLIENT, ok, "Every request should succeed in " + mode + " mode");
+            return ok / (elapsed / 1e9);
+        } finally {
+            clients.shutdown();
+            server.shutdown();
+        }
+    }
+
+    private String get(int port) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /weather.json?station_id=throughputStation HTTP/1.1\r\n" +
+                    "Connection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private void report(ServerMode mode, double requestsPerSecond) {
+        System.out.printf("%-8s mode: %.0f requests/s (%d clients x %d requests)%n",
+                mode, requestsPerSecond, CLIENTS, REQUESTS_PER_CLIENT);
+    }
+}
@@ -0,0 +1,75 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpatialIndexTest {
+
+    @Test
+    public void testNearestMatchesBruteForce() {
+        SpatialIndex index = new SpatialIndex(1.0);
+        Random random = new Random(42);
+        List<double[]> positions = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            double[] position = {random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180};
+            positions.add(position);
+            index.move("s" + i, Double.NaN, Double.NaN, position[0], position[1]);
+        }
+
+        double[][] points = {{-34.9, 138.6}, {89.5, 10}, {0, 179.9}, {-90, -180}};
+        for (double[] point : points) {
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < positions.size(); i++) {
+                expected.add("s" + i);
+            }
+            expected.sort(Comparator.comparingDouble(id -> {
+                double[] position = positions.get(Integer.parseInt(id.substring(1)));
+                return SpatialIndex.distanceKm(point[0], point[1], position[0], position[1]);
+            }));
+            List<String> found = index.nearest(point[0], point[1], 7).stream()
+                    .map(SpatialIndex.Match::getId).collect(Collectors.toList());
+            assertEquals(expected.subList(0, 7), found, "Nearest to " + Arrays.toString(point));
+        }
+    }
+
+    @Test
+    public void testBoxAndMoves() {
+        SpatialIndex index = new SpatialIndex(1.0);
+        index.move("adelaide", Double.NaN, Double.NaN, -34.9, 138.6);
+        index.move("suva", Double.NaN, Double.NaN, -18.1, 178.4);
+        index.move("apia", Double.NaN, Double.NaN, -13.8, -171.8);
+        index.move("nowhere", Double.NaN, Double.NaN, Double.NaN, 10);
+        index.move("dateline", Double.NaN, Double.NaN, -35, 180);
+        index.move("chathams", Double.NaN, Double.NaN, -35, 175.5);
+        index.move("antimeridian", Double.NaN, Double.NaN, -35, -180);
+        // Occupy enough cells that the boxes below are answered cell by cell, not by a full scan
+        for (int i = 0; i < 1000; i++) {
+            index.move("filler" + i, Double.NaN, Double.NaN, 50.5 + i / 100, 0.5 + i % 100);
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList("dateline", "chathams")), new HashSet<>(index.withinBox(-40, 170, -30, 180)),
+                "An east edge of 180 should reach the last column");
+        assertEquals(Arrays.asList("antimeridian"), index.withinBox(-40, -180, -30, -170));
+
+        assertEquals(new HashSet<>(Arrays.asList("suva", "apia")), new HashSet<>(index.withinBox(-20, 170, -10, -170)),
+                "A box whose west edge is east of its east edge should cross the antimeridian");
+        assertEquals(Arrays.asList("adelaide"), index.withinBox(-35, 138, -34, 139));
+
+        index.move("adelaide", -34.9, 138.6, -34.95, 138.65);
+        assertEquals(Arrays.asList("adelaide"), index.withinBox(-35, 138, -34, 139), "A move within a cell keeps the station");
+        index.move("adelaide", -34.95, 138.65, -31.9, 115.9);
+        assertTrue(index.withinBox(-35, 138, -34, 139).isEmpty());
+        index.remove("adelaide", -31.9, 115.9);
+        assertTrue(index.withinBox(-90, -180, 90, 180).stream().noneMatch("adelaide"::equals));
+        assertEquals(1, index.nearest(-31.9, 115.9, 1).size());
+    }
+}
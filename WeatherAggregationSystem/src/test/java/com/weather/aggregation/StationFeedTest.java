@@ -0,0 +1,144 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StationFeedTest {
+
+    private StationFeed feed;
+
+    @AfterEach
+    public void closeFeed() {
+        if (feed != null) {
+            feed.close();
+        }
+    }
+
+    @Test
+    public void testEventsReachMatchingSubscribers() throws InterruptedException {
+        feed = new StationFeed(16);
+        StationFeed.Subscription all = feed.subscribe(null, null);
+        StationFeed.Subscription onlyA = feed.subscribe("a", null);
+
+        feed.publishUpdate("b", 7, () -> bytes("{\"b\":{\"id\":\"b\"}}"));
+        feed.publishUpdate("a", 8, () -> bytes("{\"a\":{\"id\":\"a\"}}"));
+        feed.publishExpiry("a", 9);
+
+        assertEquals("id: 7\nevent: update\ndata: {\"b\":{\"id\":\"b\"}}\n\n", text(all.take(5000)));
+        assertEquals("id: 8\nevent: update\ndata: {\"a\":{\"id\":\"a\"}}\n\n", text(all.take(5000)));
+        assertEquals("id: 9\nevent: expire\ndata: {\"id\":\"a\"}\n\n", text(all.take(5000)));
+        assertEquals("id: 8\nevent: update\ndata: {\"a\":{\"id\":\"a\"}}\n\n", text(onlyA.take(5000)));
+        assertEquals("id: 9\nevent: expire\ndata: {\"id\":\"a\"}\n\n", text(onlyA.take(5000)));
+        assertNull(onlyA.take(100), "Other stations should not reach a filtered subscriber");
+    }
+
+    @Test
+    public void testSlowSubscriberOverflowsWithoutHoldingBackOthers() throws InterruptedException {
+        feed = new StationFeed(2);
+        StationFeed.Subscription slow = feed.subscribe(null, null);
+        AtomicInteger received = new AtomicInteger();
+        StationFeed.Subscription[] fast = new StationFeed.Subscription[1];
+        fast[0] = feed.subscribe(null, () -> {
+            while (fast[0].poll() != null) {
+                received.incrementAndGet();
+            }
+        });
+
+        for (int i = 1; i <= 3; i++) {
+            feed.publishExpiry("s" + i, i);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((received.get() < 3 || !slow.isOverflowed()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(slow.isOverflowed(), "The subscriber that never read should overflow");
+        assertNull(slow.poll(), "An overflowed subscriber's buffer should be released");
+        assertFalse(fast[0].isOverflowed(), "A subscriber that keeps up should not overflow");
+        assertEquals(3, received.get());
+    }
+
+    @Test
+    public void testEncodingFailureOnlyOverflowsThatEventsSubscribers() throws InterruptedException {
+        feed = new StationFeed(16);
+        StationFeed.Subscription onlyA = feed.subscribe("a", null);
+        StationFeed.Subscription onlyB = feed.subscribe("b", null);
+
+        feed.publishUpdate("a", 1, () -> {
+            throw new IllegalStateException("broken");
+        });
+        feed.publishUpdate("b", 2, () -> bytes("{\"b\":{\"id\":\"b\"}}"));
+
+        assertEquals("id: 2\nevent: update\ndata: {\"b\":{\"id\":\"b\"}}\n\n", text(onlyB.take(5000)),
+                "The dispatcher should keep going after a failed event");
+        assertTrue(onlyA.isOverflowed(), "A subscriber that missed an event should be disconnected");
+        assertFalse(onlyB.isOverflowed());
+    }
+
+    @Test
+    public void testSubscribingWhileOthersCancelKeepsEverySubscriber() throws Exception {
+        feed = new StationFeed(16);
+        int threadCount = 4;
+        List<StationFeed.Subscription> kept = Collections.synchronizedList(new ArrayList<>());
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    StationFeed.Subscription subscription = feed.subscribe("shared", null);
+                    if (i % 100 == 0) {
+                        kept.add(subscription);
+                    } else {
+                        subscription.cancel();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        feed.publishExpiry("shared", 1);
+        for (StationFeed.Subscription subscription : kept) {
+            assertNotNull(subscription.take(5000), "Every open subscription should still get events");
+        }
+    }
+
+    @Test
+    public void testNothingIsEncodedWithoutSubscribers() throws InterruptedException {
+        feed = new StationFeed(16);
+        AtomicInteger encoded = new AtomicInteger();
+        feed.publishUpdate("a", 1, () -> {
+            encoded.incrementAndGet();
+            return bytes("{}");
+        });
+
+        StationFeed.Subscription other = feed.subscribe("b", null);
+        feed.publishUpdate("a", 2, () -> {
+            encoded.incrementAndGet();
+            return bytes("{}");
+        });
+        feed.publishUpdate("b", 3, () -> bytes("{}"));
+        assertNotNull(other.take(5000));
+        assertEquals(0, encoded.get(), "Events nobody follows should not be encoded");
+
+        other.cancel();
+        assertEquals(0, feed.getSubscriberCount());
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] event) {
+        assertNotNull(event, "An event should arrive");
+        return new String(event, StandardCharsets.UTF_8);
+    }
+}
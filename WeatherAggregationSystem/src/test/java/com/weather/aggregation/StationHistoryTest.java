@@ -0,0 +1,70 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class StationHistoryTest {
+
+    @Test
+    public void testKeepsNewestReadingsInRange() {
+        StationHistory history = new StationHistory(3, 3600000);
+        for (int i = 1; i <= 5; i++) {
+            history.append(1000L * i, reading(i));
+        }
+
+        assertEquals("[{\"time\":3000,\"air_temp\":3.5,\"rel_hum\":3},{\"time\":4000,\"air_temp\":4.5,\"rel_hum\":4},"
+                + "{\"time\":5000,\"air_temp\":5.5,\"rel_hum\":5}]", json(history, 0, Long.MAX_VALUE, 5000),
+                "Only the newest readings should be kept, oldest first");
+        assertEquals("[{\"time\":4000,\"air_temp\":4.5,\"rel_hum\":4}]", json(history, 3500, 4000, 5000));
+        assertEquals("[]", json(history, 6000, Long.MAX_VALUE, 5000));
+    }
+
+    @Test
+    public void testOldReadingsAgeOut() {
+        StationHistory history = new StationHistory(10, 60000);
+        history.append(0, reading(1));
+        history.append(50000, reading(2));
+
+        assertEquals("[{\"time\":50000,\"air_temp\":2.5,\"rel_hum\":2}]", json(history, 0, Long.MAX_VALUE, 70000),
+                "Readings past the maximum age should not be returned");
+    }
+
+    @Test
+    public void testAppendDoesNotAllocate() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean, "Needs per-thread allocation counters");
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        StationHistory history = new StationHistory(64, 3600000);
+        WeatherObservation observation = reading(1);
+        for (int i = 0; i < 100000; i++) {
+            history.append(i, observation);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100000; i++) {
+            history.append(i, observation);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+        assertTrue(allocated < 64 * 1024, "100000 appends allocated " + allocated + " bytes");
+    }
+
+    private static WeatherObservation reading(int i) {
+        WeatherObservation observation = new WeatherObservation();
+        observation.put("id", "history");
+        observation.putDouble("air_temp", i + 0.5);
+        observation.put("rel_hum", i);
+        return observation;
+    }
+
+    private static String json(StationHistory history, long from, long to, long now) {
+        JsonWriter writer = new JsonWriter();
+        history.writeTo(from, to, now, writer);
+        return new String(writer.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,63 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StationQueryTest {
+
+    @Test
+    public void testComparisonsAndLogic() {
+        WeatherObservation hot = observation("a", "SA", 35.0, 45.0);
+        WeatherObservation mild = observation("b", "VIC", 20.0, 50.0);
+        mild.put("cloud", "Partly cloudy");
+
+        StationQuery windyHeat = StationQuery.compile("air_temp>30 and wind_spd_kmh>40");
+        assertTrue(windyHeat.test(hot));
+        assertFalse(windyHeat.test(mild));
+
+        StationQuery either = StationQuery.compile("(state=SA or state = 'VIC') AND NOT air_temp >= 30");
+        assertFalse(either.test(hot));
+        assertTrue(either.test(mild));
+
+        assertTrue(StationQuery.compile("cloud=\"Partly cloudy\"").test(mild));
+        assertTrue(StationQuery.compile("air_temp==20 and state!=SA").test(mild));
+        assertFalse(StationQuery.compile("press>0").test(mild), "A missing field should not match");
+        assertFalse(StationQuery.compile("press!=0").test(mild), "A missing field should not match");
+        assertFalse(StationQuery.compile("state>1").test(mild), "A type mismatch should not match");
+        assertTrue(StationQuery.compile("not (state=SA and air_temp>30)").test(mild));
+        assertFalse(StationQuery.compile("not (state=SA and air_temp>30)").test(hot));
+    }
+
+    @Test
+    public void testIndexHints() {
+        StationQuery query = StationQuery.compile("state=SA and (lat>-36 and lat<=-30) and lon>=135 and air_temp>30");
+        assertEquals(Collections.singletonMap("state", "SA"), query.getIndexedEqualities());
+        assertArrayEquals(new double[]{-36, 135, -30, 180}, query.getBox());
+
+        StationQuery anywhere = StationQuery.compile("state=SA or lat>0");
+        assertTrue(anywhere.getIndexedEqualities().isEmpty(), "Terms under 'or' do not bound every match");
+        assertNull(anywhere.getBox());
+        assertNull(StationQuery.compile("not lat>0").getBox());
+        assertNull(StationQuery.compile("lat<-30").getBox(), "A latitude band alone should not be used as a box");
+    }
+
+    @Test
+    public void testInvalidExpressions() {
+        for (String text : new String[]{"", "air_temp", "air_temp>", "air_temp>30 and", "(air_temp>30",
+                "air_temp>30)", "air_temp ! 30", "'state'=SA", "state='SA", "30>air_temp", "a=1 b=2"}) {
+            assertThrows(IllegalArgumentException.class, () -> StationQuery.compile(text), text);
+        }
+    }
+
+    private static WeatherObservation observation(String id, String state, double airTemp, double windSpeed) {
+        WeatherObservation observation = new WeatherObservation();
+        observation.put("id", id);
+        observation.put("state", state);
+        observation.putDouble("air_temp", airTemp);
+        observation.putDouble("wind_spd_kmh", windSpeed);
+        return observation;
+    }
+}
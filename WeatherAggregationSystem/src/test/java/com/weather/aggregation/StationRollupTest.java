@@ -0,0 +1,61 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StationRollupTest {
+
+    @Test
+    public void testReadingsAreAggregatedPerWindow() {
+        StationRollup rollup = new StationRollup(new long[]{1000, 10000});
+        rollup.add(10100, reading(10.0, 50));
+        rollup.add(10900, reading(14.0, 70));
+        rollup.add(11500, reading(12.0, 60));
+
+        assertEquals("[{\"start\":10000,\"end\":11000,\"air_temp\":{\"count\":2,\"min\":10.0,\"max\":14.0,\"avg\":12.0},"
+                        + "\"rel_hum\":{\"count\":2,\"min\":50,\"max\":70,\"avg\":60.0}},"
+                        + "{\"start\":11000,\"end\":12000,\"air_temp\":{\"count\":1,\"min\":12.0,\"max\":12.0,\"avg\":12.0},"
+                        + "\"rel_hum\":{\"count\":1,\"min\":60,\"max\":60,\"avg\":60.0}}]",
+                json(rollup, 0, 11500));
+        assertEquals("[{\"start\":10000,\"end\":20000,\"air_temp\":{\"count\":3,\"min\":10.0,\"max\":14.0,\"avg\":12.0},"
+                        + "\"rel_hum\":{\"count\":3,\"min\":50,\"max\":70,\"avg\":60.0}}]",
+                json(rollup, 1, 11500));
+    }
+
+    @Test
+    public void testOnlyRecentWindowsAreKept() throws IOException {
+        StationRollup rollup = new StationRollup(new long[]{1000});
+        for (int second = 0; second < 20; second++) {
+            rollup.add(second * 1000L, reading(second, 50));
+        }
+
+        List<?> buckets = parse(json(rollup, 0, 19000));
+        assertEquals(StationRollup.BUCKETS, buckets.size(), "Only the last buckets should be kept");
+        assertEquals(8000L, ((Number) ((Map<?, ?>) buckets.get(0)).get("start")).longValue());
+        assertTrue(parse(json(rollup, 0, 60000)).isEmpty(), "Buckets from long ago should not be returned");
+    }
+
+    private static WeatherObservation reading(double airTemp, int relHum) {
+        WeatherObservation observation = new WeatherObservation();
+        observation.put("id", "rollup");
+        observation.putDouble("air_temp", airTemp);
+        observation.put("rel_hum", relHum);
+        return observation;
+    }
+
+    private static String json(StationRollup rollup, int width, long now) {
+        JsonWriter writer = new JsonWriter();
+        rollup.writeTo(width, now, writer);
+        return new String(writer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static List<?> parse(String array) throws IOException {
+        return (List<?>) new SimpleJsonParser().parse("{\"buckets\":" + array + "}").get("buckets");
+    }
+}
@@ -0,0 +1,131 @@
+package com.weather.aggregation;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeatherObservationTest {
+
+    private static final int STATIONS = 100000;
+
+    @Test
+    public void testRoundTripMatchesMapParsing() throws IOException {
+        SimpleJsonParser parser = new SimpleJsonParser();
+        byte[] json = stationJson(7);
+        WeatherObservation observation = parser.parseObservation(json);
+
+        assertEquals("IDS7", observation.getId());
+        assertEquals(13.3, observation.getDouble("air_temp"));
+        assertEquals(60.0, observation.getDouble("rel_hum"));
+        assertEquals(parser.parse(json), observation.toMap(), "Typed parsing should keep every value");
+        assertEquals(observation, parser.parseObservation(parser.toJsonBytes(observation.toMap())),
+                "Serializing and parsing again should give the same observation");
+    }
+
+    @Test
+    public void testUnknownKeysAndMismatchedTypesOverflow() throws IOException {
+        WeatherObservation observation = new SimpleJsonParser().parseObservation(
+                "{\"id\":\"a\",\"air_temp\":\"n/a\",\"rel_hum\":55.5,\"uv\":3,\"tags\":[\"x\"],\"cloud\":null}"
+                        .getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("n/a", observation.get("air_temp"));
+        assertTrue(Double.isNaN(observation.getDouble("air_temp")));
+        assertEquals(55.5, observation.get("rel_hum"));
+        assertEquals(3, observation.get("uv"));
+        assertEquals(Collections.singletonList("x"), observation.get("tags"));
+        assertTrue(observation.containsKey("cloud"));
+        assertNull(observation.get("cloud"));
+
+        observation.put("air_temp", 12.5);
+        assertEquals(12.5, observation.get("air_temp"));
+        assertFalse(observation.toMap().containsValue("n/a"), "A typed value should replace the overflow one");
+        JsonWriter writer = new JsonWriter();
+        writer.value(observation);
+        assertEquals("{\"id\":\"a\",\"air_temp\":12.5,\"rel_hum\":55.5,\"uv\":3,\"tags\":[\"x\"],\"cloud\":null}",
+                new String(writer.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testProjectionWritesOnlyRequestedKeys() throws IOException {
+        WeatherObservation observation = new SimpleJsonParser().parseObservation(
+                "{\"id\":\"a\",\"state\":\"SA\",\"air_temp\":13.3,\"rel_hum\":60,\"uv\":3}".getBytes(StandardCharsets.UTF_8));
+        JsonWriter writer = new JsonWriter();
+        observation.writeTo(writer, Arrays.asList("uv", "air_temp", "press", "rel_hum"));
+
+        assertEquals("{\"uv\":3,\"air_temp\":13.3,\"rel_hum\":60}", new String(writer.toByteArray(), StandardCharsets.UTF_8),
+                "Only present keys should be written, in the order asked for");
+    }
+
+    @Test
+    public void testParseObservationsStreamsSnapshot() throws IOException {
+        StringBuilder snapshot = new StringBuilder("{");
+        for (int i = 0; i < 50; i++) {
+            if (i > 0) {
+                snapshot.append(',');
+            }
+            snapshot.append("\"IDS").append(i).append("\":")
+                    .append(new String(stationJson(i), StandardCharsets.UTF_8));
+        }
+        snapshot.append('}');
+
+        Map<String, WeatherObservation> parsed = new LinkedHashMap<>();
+        new SimpleJsonParser().parseObservations(
+                new ByteArrayInputStream(snapshot.toString().getBytes(StandardCharsets.UTF_8)), parsed::put);
+        assertEquals(50, parsed.size());
+        assertEquals("IDS49", parsed.get("IDS49").getId());
+    }
+
+    // Reads heap figures after System.gc(), so it is a measurement rather than a reliable check
+    @Test
+    @Tag("benchmark")
+    public void testTypedStorageUsesLessHeap() throws IOException {
+        SimpleJsonParser parser = new SimpleJsonParser();
+        byte[][] bodies = new byte[STATIONS][];
+        for (int i = 0; i < STATIONS; i++) {
+            bodies[i] = stationJson(i);
+        }
+
+        long before = usedHeap();
+        List<Map<String, Object>> maps = new ArrayList<>(STATIONS);
+        for (byte[] body : bodies) {
+            maps.add(parser.parse(body));
+        }
+        long mapBytes = usedHeap() - before;
+        assertEquals(STATIONS, maps.size());
+        maps = null;
+
+        before = usedHeap();
+        List<WeatherObservation> observations = new ArrayList<>(STATIONS);
+        for (byte[] body : bodies) {
+            observations.add(parser.parseObservation(body));
+        }
+        long typedBytes = usedHeap() - before;
+        assertEquals(STATIONS, observations.size());
+
+        assertTrue(typedBytes < mapBytes / 2,
+                "Typed observations should take well under half the heap of maps: " + typedBytes + " vs " + mapBytes);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static byte[] stationJson(int i) {
+        String json = "{\"id\":\"IDS" + i + "\",\"name\":\"Station " + i + "\",\"state\":\"SA\","
+                + "\"time_zone\":\"CST\",\"lat\":-34.9,\"lon\":138.6,\"local_date_time\":\"15/04:00pm\","
+                + "\"local_date_time_full\":\"20230715160000\",\"air_temp\":13.3,\"apparent_t\":9.5,"
+                + "\"cloud\":\"Partly cloudy\",\"dewpt\":5.7,\"press\":1023.9,\"rel_hum\":60,"
+                + "\"wind_dir\":\"S\",\"wind_spd_kmh\":15.0,\"wind_spd_kt\":8.0,\"lamportClock\":" + i + "}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}